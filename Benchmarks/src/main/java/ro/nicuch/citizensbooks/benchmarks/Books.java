@@ -0,0 +1,95 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.bukkit.inventory.ItemStack;
+import ro.nicuch.citizensbooks.benchmarks.headless.HeadlessServer;
+import ro.nicuch.citizensbooks.dist.Distribution;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * The books and the filter files used by the benchmarks and the simulator
+ */
+public final class Books {
+    public static final String PLAIN_PAGE = "{\"text\":\"Welcome to the server! Read the rules before playing.\",\"color\":\"dark_blue\","
+            + "\"extra\":[{\"text\":\" Click here\",\"bold\":true,\"clickEvent\":{\"action\":\"run_command\",\"value\":\"/rules\"}}]}";
+    public static final String NPC_PAGE = "{\"text\":\"Hi, I'm %npc_name% (#%npc_id%).\",\"color\":\"dark_blue\","
+            + "\"extra\":[{\"text\":\" I live at %npc_loc_x% %npc_loc_y% %npc_loc_z% in %npc_loc_world%.\"}]}";
+
+    private Books() {
+    }
+
+    public static ItemStack book(int pageCount, String page) {
+        List<String> pages = new ArrayList<>(pageCount);
+        for (int i = 0; i < pageCount; i++)
+            pages.add(page);
+        return HeadlessServer.book("Benchmark", "Server", pages);
+    }
+
+    /**
+     * Write the filters like the API does, named filter_0 up to filter_(count - 1)
+     *
+     * @param directory    the filters directory
+     * @param count        how many filters
+     * @param pageCount    the pages of every filter
+     * @param distribution converts the book
+     */
+    public static void writeFilters(File directory, int count, int pageCount, Distribution distribution) throws IOException {
+        Files.createDirectories(directory.toPath());
+        Gson gson = new Gson();
+        JsonObject jsonBookContent = distribution.convertBookToJson(book(pageCount, PLAIN_PAGE));
+        for (int i = 0; i < count; i++) {
+            JsonObject jsonFileObject = new JsonObject();
+            jsonFileObject.add("filter_name", new JsonPrimitive("filter_" + i));
+            jsonFileObject.add("book_content", jsonBookContent);
+            try (FileWriter fileWriter = new FileWriter(new File(directory, "filter_" + i + ".json"))) {
+                gson.toJson(jsonFileObject, fileWriter);
+            }
+        }
+    }
+
+    public static void delete(File directory) throws IOException {
+        if (!directory.exists())
+            return;
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
+
+    public static Logger silentLogger() {
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        return logger;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import ro.nicuch.citizensbooks.utils.DelayHashMap;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The map behind the click cooldowns, the placeholder values and the join book cache
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DelayHashMapBenchmark {
+    @Param({"1000", "10000"})
+    public int size;
+
+    private UUID[] keys;
+    private DelayHashMap<UUID, Long> map;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        this.keys = new UUID[this.size];
+        this.map = new DelayHashMap<>(5, TimeUnit.MINUTES, this.size);
+        for (int i = 0; i < this.size; i++) {
+            this.keys[i] = UUID.randomUUID();
+            this.map.put(this.keys[i], (long) i);
+        }
+    }
+
+    private UUID randomKey() {
+        return this.keys[ThreadLocalRandom.current().nextInt(this.size)];
+    }
+
+    @Benchmark
+    public Long put() {
+        return this.map.put(this.randomKey(), 0L); // replaces a key, like a new click
+    }
+
+    @Benchmark
+    public boolean renewKey() {
+        return this.map.renewKey(this.randomKey());
+    }
+
+    @Benchmark
+    public void cleanupNothingExpired() {
+        this.map.cleanup(); // what the timer does most of the time
+    }
+
+    /**
+     * Every key is expired, the whole map is cleaned
+     */
+    @State(Scope.Thread)
+    public static class Expired {
+        DelayHashMap<UUID, Long> map;
+
+        @Setup(Level.Invocation)
+        public void setup(BenchmarkParams params) {
+            int size = Integer.parseInt(params.getParam("size"));
+            this.map = new DelayHashMap<>(0, TimeUnit.MILLISECONDS, size);
+            for (int i = 0; i < size; i++)
+                this.map.put(UUID.randomUUID(), (long) i);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Measurement(iterations = 20, batchSize = 1)
+    public DelayHashMap<UUID, Long> cleanupExpired(Expired expired) {
+        expired.map.cleanup();
+        return expired.map;
+    }
+}
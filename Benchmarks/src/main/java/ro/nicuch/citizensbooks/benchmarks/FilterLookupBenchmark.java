@@ -0,0 +1,105 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.benchmarks;
+
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import ro.nicuch.citizensbooks.CitizensBooksAPI;
+import ro.nicuch.citizensbooks.benchmarks.headless.HeadlessDistribution;
+import ro.nicuch.citizensbooks.benchmarks.headless.HeadlessPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CitizensBooksAPI#getFilter} and {@link CitizensBooksAPI#hasFilter},
+ * called by the action items, the commands and the other plugins
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterLookupBenchmark {
+    @Param({"1000", "10000"})
+    public int filters;
+
+    private File dataFolder;
+    private CitizensBooksAPI api;
+    private String[] names;
+
+    @Setup
+    public void setup() throws IOException {
+        this.dataFolder = Files.createTempDirectory("citizensbooks-lookup").toFile();
+        HeadlessDistribution distribution = new HeadlessDistribution(HeadlessDistribution.PageFormat.JSON_STRING);
+        this.api = HeadlessPlugin.create(this.dataFolder, distribution).getAPI();
+        Books.writeFilters(new File(this.dataFolder, "filters"), this.filters, 5, distribution);
+        this.api.reloadFilters(Books.silentLogger());
+        this.names = new String[this.filters];
+        for (int i = 0; i < this.filters; i++)
+            this.names[i] = "filter_" + i;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Books.delete(this.dataFolder);
+    }
+
+    private String randomName() {
+        return this.names[ThreadLocalRandom.current().nextInt(this.filters)];
+    }
+
+    @Benchmark
+    public ItemStack getFilter() {
+        return this.api.getFilter(this.randomName());
+    }
+
+    @Benchmark
+    public ItemStack getMissingFilter() {
+        return this.api.getFilter("missing_filter");
+    }
+
+    @Benchmark
+    public boolean hasFilter() {
+        return this.api.hasFilter(this.randomName());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ItemStack getFilterContended() {
+        return this.api.getFilter(this.randomName());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.benchmarks;
+
+import net.citizensnpcs.api.npc.NPC;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ro.nicuch.citizensbooks.CitizensBooksAPI;
+import ro.nicuch.citizensbooks.benchmarks.headless.HeadlessDistribution;
+import ro.nicuch.citizensbooks.benchmarks.headless.HeadlessNPC;
+import ro.nicuch.citizensbooks.benchmarks.headless.HeadlessPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CitizensBooksAPI#placeholderHook}, the render done for every opened book
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlaceholderHookBenchmark {
+    @Param({"1", "10", "50"})
+    public int pages;
+
+    private File dataFolder;
+    private CitizensBooksAPI api;
+    private ItemStack plainBook, npcBook;
+    private NPC npc;
+
+    @Setup
+    public void setup() throws IOException {
+        this.dataFolder = Files.createTempDirectory("citizensbooks-placeholders").toFile();
+        this.api = HeadlessPlugin.create(this.dataFolder, new HeadlessDistribution(HeadlessDistribution.PageFormat.JSON_STRING)).getAPI();
+        this.plainBook = Books.book(this.pages, Books.PLAIN_PAGE);
+        this.npcBook = Books.book(this.pages, Books.NPC_PAGE);
+        this.npc = HeadlessNPC.create(7, "Librarian", 120.5D, 64D, -42.5D);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Books.delete(this.dataFolder);
+    }
+
+    @Benchmark
+    public ItemStack withoutNPCPlaceholders() {
+        return this.api.placeholderHook(null, this.plainBook.clone(), null);
+    }
+
+    @Benchmark
+    public ItemStack withNPCPlaceholders() {
+        return this.api.placeholderHook(null, this.npcBook.clone(), this.npc);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ro.nicuch.citizensbooks.CitizensBooksAPI;
+import ro.nicuch.citizensbooks.benchmarks.headless.HeadlessDistribution;
+import ro.nicuch.citizensbooks.benchmarks.headless.HeadlessPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * {@link CitizensBooksAPI#reloadFilters}, over a generated filters directory.
+ * Every reload reads all the files again, the OS file cache is warm after the first one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2G")
+public class ReloadFiltersBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int filters;
+
+    private File dataFolder;
+    private CitizensBooksAPI api;
+    private Logger logger;
+
+    @Setup
+    public void setup() throws IOException {
+        this.dataFolder = Files.createTempDirectory("citizensbooks-reload").toFile();
+        HeadlessDistribution distribution = new HeadlessDistribution(HeadlessDistribution.PageFormat.JSON_STRING);
+        this.api = HeadlessPlugin.create(this.dataFolder, distribution).getAPI();
+        Books.writeFilters(new File(this.dataFolder, "filters"), this.filters, 5, distribution);
+        this.logger = Books.silentLogger();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Books.delete(this.dataFolder);
+    }
+
+    @Benchmark
+    public int reloadFilters() {
+        this.api.reloadFilters(this.logger);
+        return this.api.getFilters().size();
+    }
+}
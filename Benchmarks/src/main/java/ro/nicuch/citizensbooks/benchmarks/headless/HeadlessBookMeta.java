@@ -0,0 +1,147 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.benchmarks.headless;
+
+import org.bukkit.inventory.meta.BookMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The state of a headless {@link BookMeta}: the title, the author and the pages.
+ * The pages are kept as they are given, like the distributions do with the
+ * JSON pages. The damage is not supported, so the books can't be compared
+ * with {@link org.bukkit.inventory.ItemStack#isSimilar}.
+ */
+final class HeadlessBookMeta implements InvocationHandler {
+    private String title, author;
+    private BookMeta.Generation generation;
+    private final List<String> pages = new ArrayList<>();
+
+    static BookMeta create() {
+        return new HeadlessBookMeta().toProxy();
+    }
+
+    static boolean isBookMeta(ItemMeta meta) {
+        return meta != null && Proxy.isProxyClass(meta.getClass()) && Proxy.getInvocationHandler(meta) instanceof HeadlessBookMeta;
+    }
+
+    /**
+     * Compare two metas, a missing meta is the same as an empty one
+     */
+    static boolean isSimilar(ItemMeta first, ItemMeta second) {
+        HeadlessBookMeta firstState = isBookMeta(first) ? (HeadlessBookMeta) Proxy.getInvocationHandler(first) : new HeadlessBookMeta();
+        HeadlessBookMeta secondState = isBookMeta(second) ? (HeadlessBookMeta) Proxy.getInvocationHandler(second) : new HeadlessBookMeta();
+        return firstState.isSimilar(secondState);
+    }
+
+    private boolean isSimilar(HeadlessBookMeta that) {
+        return Objects.equals(this.title, that.title) && Objects.equals(this.author, that.author)
+                && this.generation == that.generation && this.pages.equals(that.pages);
+    }
+
+    private BookMeta toProxy() {
+        return (BookMeta) Proxy.newProxyInstance(HeadlessBookMeta.class.getClassLoader(), new Class<?>[]{BookMeta.class}, this);
+    }
+
+    private HeadlessBookMeta copy() {
+        HeadlessBookMeta copy = new HeadlessBookMeta();
+        copy.title = this.title;
+        copy.author = this.author;
+        copy.generation = this.generation;
+        copy.pages.addAll(this.pages);
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "hasTitle":
+                return this.title != null;
+            case "getTitle":
+                return this.title;
+            case "setTitle":
+                this.title = (String) args[0];
+                return true;
+            case "hasAuthor":
+                return this.author != null;
+            case "getAuthor":
+                return this.author;
+            case "setAuthor":
+                this.author = (String) args[0];
+                return null;
+            case "hasGeneration":
+                return this.generation != null;
+            case "getGeneration":
+                return this.generation;
+            case "setGeneration":
+                this.generation = (BookMeta.Generation) args[0];
+                return null;
+            case "hasPages":
+                return !this.pages.isEmpty();
+            case "getPages":
+                return Collections.unmodifiableList(this.pages);
+            case "getPageCount":
+                return this.pages.size();
+            case "getPage":
+                return this.pages.get((int) args[0] - 1);
+            case "setPage":
+                this.pages.set((int) args[0] - 1, (String) args[1]);
+                return null;
+            case "setPages":
+                this.pages.clear();
+                if (args[0] instanceof String[])
+                    this.pages.addAll(Arrays.asList((String[]) args[0]));
+                else
+                    this.pages.addAll((List<String>) args[0]);
+                return null;
+            case "addPage":
+                this.pages.addAll(Arrays.asList((String[]) args[0]));
+                return null;
+            case "clone":
+                return this.copy().toProxy();
+            case "serialize":
+                Map<String, Object> values = new LinkedHashMap<>();
+                if (this.title != null)
+                    values.put("title", this.title);
+                if (this.author != null)
+                    values.put("author", this.author);
+                values.put("pages", new ArrayList<>(this.pages));
+                return values;
+            case "equals":
+                return args[0] instanceof ItemMeta && isBookMeta((ItemMeta) args[0])
+                        && this.isSimilar((HeadlessBookMeta) Proxy.getInvocationHandler(args[0]));
+            case "hashCode":
+                return Objects.hash(this.title, this.author, this.generation, this.pages);
+            default:
+                return HeadlessServer.invokeObject(proxy, method, args);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.benchmarks.headless;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BookMeta;
+import ro.nicuch.citizensbooks.dist.Distribution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * The book conversion of the distributions, without the server.
+ * The distributions change the pages of CraftMetaBook by reflection, here the
+ * same pages are given to the headless meta. The chat component step of the
+ * older distributions is replaced by a Gson round trip of the page.
+ */
+public class HeadlessDistribution implements Distribution {
+    private final PageFormat format;
+    private final JsonParser parser = new JsonParser();
+    private final Gson gson = new Gson();
+    private volatile BiConsumer<Player, ItemStack> openListener;
+
+    public enum PageFormat {
+        /**
+         * The pages are kept as JSON strings, like v1_16_R3 and v1_17_R1
+         */
+        JSON_STRING,
+        /**
+         * The pages are kept as chat components, like v1_8_R1 up to v1_16_R2
+         */
+        CHAT_COMPONENT
+    }
+
+    public HeadlessDistribution(PageFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Set the listener called when a book is opened, instead of the packet
+     *
+     * @param openListener the listener, gets the player and the opened book
+     */
+    public void setOpenListener(BiConsumer<Player, ItemStack> openListener) {
+        this.openListener = openListener;
+    }
+
+    @Override
+    public void sendRightClick(Player player) {
+        BiConsumer<Player, ItemStack> listener = this.openListener;
+        if (listener != null)
+            listener.accept(player, this.getItemInHand(player));
+    }
+
+    @Override
+    public void setItemInHand(Player player, ItemStack item) {
+        player.getInventory().setItemInMainHand(item);
+    }
+
+    @Override
+    public ItemStack getItemInHand(Player player) {
+        return player.getInventory().getItemInMainHand();
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    @Override
+    public JsonObject convertBookToJson(ItemStack book) {
+        BookMeta bookMeta = (BookMeta) book.getItemMeta();
+        List<String> pages = bookMeta.hasPages() ? bookMeta.getPages() : new ArrayList<>();
+        JsonArray jsonPages = new JsonArray();
+        for (String page : pages)
+            jsonPages.add(this.parser.parse(this.format == PageFormat.CHAT_COMPONENT ? this.serialize(page) : page));
+        JsonPrimitive jsonAuthor = new JsonPrimitive(bookMeta.hasAuthor() ? bookMeta.getAuthor() : "Server");
+        JsonPrimitive jsonTitle = new JsonPrimitive(bookMeta.hasTitle() ? bookMeta.getTitle() : "Title");
+        JsonObject jsonBook = new JsonObject();
+        jsonBook.add("author", jsonAuthor);
+        jsonBook.add("title", jsonTitle);
+        jsonBook.add("pages", jsonPages);
+        return jsonBook;
+    }
+
+    @SuppressWarnings("ConstantConditions")
+    @Override
+    public ItemStack convertJsonToBook(JsonObject jsonBook) {
+        ItemStack newBook = new ItemStack(Material.WRITTEN_BOOK);
+        BookMeta bookMeta = (BookMeta) newBook.getItemMeta();
+        JsonPrimitive jsonAuthor = jsonBook.getAsJsonPrimitive("author");
+        JsonPrimitive jsonTitle = jsonBook.getAsJsonPrimitive("title");
+        JsonArray jsonPages = jsonBook.getAsJsonArray("pages");
+        bookMeta.setAuthor(jsonAuthor.isString() ? jsonAuthor.getAsString() : "Server");
+        bookMeta.setTitle(jsonTitle.isString() ? jsonTitle.getAsString() : "Title");
+        List<String> pages = new ArrayList<>();
+        for (JsonElement jsonPage : jsonPages)
+            pages.add(this.format == PageFormat.CHAT_COMPONENT ? this.serialize(jsonPage.toString()) : jsonPage.toString());
+        bookMeta.setPages(pages);
+        newBook.setItemMeta(bookMeta);
+        return newBook;
+    }
+
+    private String serialize(String page) {
+        return this.gson.toJson(this.gson.fromJson(page, JsonElement.class));
+    }
+}
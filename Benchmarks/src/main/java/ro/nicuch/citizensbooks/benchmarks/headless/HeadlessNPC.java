@@ -0,0 +1,57 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.benchmarks.headless;
+
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.trait.Trait;
+import org.bukkit.Location;
+
+import java.lang.reflect.Proxy;
+
+/**
+ * An {@link NPC} with a name, an id, a stored location and its traits, nothing else
+ */
+public final class HeadlessNPC {
+
+    private HeadlessNPC() {
+    }
+
+    public static NPC create(int id, String name, double x, double y, double z, Trait... traits) {
+        Location location = new Location(null, x, y, z);
+        return (NPC) Proxy.newProxyInstance(HeadlessNPC.class.getClassLoader(), new Class<?>[]{NPC.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getId":
+                    return id;
+                case "getName":
+                case "getFullName":
+                    return name;
+                case "getStoredLocation":
+                    return location.clone();
+                case "getTraitNullable":
+                    for (Trait trait : traits)
+                        if (trait.getClass() == args[0])
+                            return trait;
+                    return null;
+                default:
+                    return HeadlessServer.invokeObject(proxy, method, args);
+            }
+        });
+    }
+}
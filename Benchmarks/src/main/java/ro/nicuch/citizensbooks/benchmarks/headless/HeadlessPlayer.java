@@ -0,0 +1,144 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.benchmarks.headless;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link Player} with a name, permissions and an inventory.
+ * The messages are only counted.
+ */
+public final class HeadlessPlayer implements InvocationHandler {
+    private final UUID uuid;
+    private final String name;
+    private final Set<String> permissions;
+    private final ItemStack[] items = new ItemStack[41];
+    private final LongAdder messages = new LongAdder();
+    private final PlayerInventory inventory;
+    private volatile boolean online = true;
+    private final Player player;
+
+    private HeadlessPlayer(UUID uuid, String name, Set<String> permissions) {
+        this.uuid = uuid;
+        this.name = name;
+        this.permissions = permissions;
+        this.inventory = (PlayerInventory) Proxy.newProxyInstance(HeadlessPlayer.class.getClassLoader(), new Class<?>[]{PlayerInventory.class}, this::invokeInventory);
+        this.player = (Player) Proxy.newProxyInstance(HeadlessPlayer.class.getClassLoader(), new Class<?>[]{Player.class}, this);
+    }
+
+    /**
+     * Create a player, it must be added to the server to be online
+     *
+     * @param uuid        the player uuid
+     * @param name        the player name
+     * @param permissions the permissions of the player
+     * @return the player
+     */
+    public static HeadlessPlayer create(UUID uuid, String name, Set<String> permissions) {
+        return new HeadlessPlayer(uuid, name, permissions);
+    }
+
+    public Player getPlayer() {
+        return this.player;
+    }
+
+    public UUID getUniqueId() {
+        return this.uuid;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public long getMessages() {
+        return this.messages.sum();
+    }
+
+    void setOnline(boolean online) {
+        this.online = online;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getUniqueId":
+                return this.uuid;
+            case "getName":
+            case "getDisplayName":
+            case "getPlayerListName":
+                return this.name;
+            case "isOnline":
+            case "isValid":
+                return this.online;
+            case "hasPermission":
+            case "isPermissionSet":
+                return args[0] instanceof String && this.permissions.contains(args[0]);
+            case "sendMessage":
+                this.messages.increment();
+                return null;
+            case "getInventory":
+                return this.inventory;
+            case "getServer":
+                return Bukkit.getServer();
+            default:
+                return HeadlessServer.invokeObject(proxy, method, args);
+        }
+    }
+
+    private Object invokeInventory(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getHeldItemSlot":
+                return 0;
+            case "getSize":
+                return this.items.length;
+            case "getItem":
+                if (args[0] instanceof Integer)
+                    return this.items[(int) args[0]];
+                break;
+            case "setItem":
+                if (args[0] instanceof Integer) {
+                    this.items[(int) args[0]] = (ItemStack) args[1];
+                    return null;
+                }
+                break;
+            case "getItemInMainHand":
+                return this.items[0] == null ? new ItemStack(Material.AIR) : this.items[0];
+            case "setItemInMainHand":
+                this.items[0] = (ItemStack) args[0];
+                return null;
+            case "getHolder":
+                return this.player;
+            default:
+                break;
+        }
+        return HeadlessServer.invokeObject(proxy, method, args);
+    }
+}
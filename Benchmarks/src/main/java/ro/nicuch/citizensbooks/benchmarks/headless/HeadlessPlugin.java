@@ -0,0 +1,92 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.benchmarks.headless;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPluginLoader;
+import ro.nicuch.citizensbooks.CitizensBooksAPI;
+import ro.nicuch.citizensbooks.CitizensBooksPlugin;
+import ro.nicuch.citizensbooks.dist.Distribution;
+import ro.nicuch.citizensbooks.utils.BookStats;
+import ro.nicuch.citizensbooks.utils.IOExecutor;
+
+import java.io.File;
+import java.lang.reflect.Field;
+
+/**
+ * The plugin, created without a server and never enabled by Bukkit.
+ * PlaceholderAPI is reported as enabled, so the books are rendered; the
+ * benchmarks only use placeholders that don't need PlaceholderAPI.
+ */
+public class HeadlessPlugin extends CitizensBooksPlugin {
+
+    @SuppressWarnings("deprecation")
+    private HeadlessPlugin(File dataFolder) {
+        super(new JavaPluginLoader(Bukkit.getServer()),
+                new PluginDescriptionFile("CitizensBooks", "headless", CitizensBooksPlugin.class.getName()),
+                dataFolder, new File(dataFolder, "CitizensBooks.jar"));
+    }
+
+    /**
+     * Create the plugin
+     *
+     * @param dataFolder   the plugin folder, the filters are read from it
+     * @param distribution the distribution used by the API
+     * @return the plugin
+     */
+    public static HeadlessPlugin create(File dataFolder, Distribution distribution) {
+        HeadlessServer.install();
+        HeadlessPlugin plugin = new HeadlessPlugin(dataFolder);
+        // loadDistribution() picks the distribution from the server package
+        setField(CitizensBooksAPI.class, plugin.getAPI(), "distribution", distribution);
+        return plugin;
+    }
+
+    /**
+     * Load the settings and start the timers, like {@link #onEnable()} does
+     * without the hooks, the commands and the listeners
+     */
+    public void load() {
+        this.reloadSettings();
+        setField(CitizensBooksPlugin.class, this, "ioExecutor", new IOExecutor("CitizensBooks-IO",
+                this.getSettings().getInt("io_executor.threads", 2),
+                this.getSettings().getInt("io_executor.queue_capacity", 1024), false));
+        this.getBookScheduler().runAsyncTimer(this.getClickLimiter()::cleanup, 20L, 20L);
+        this.getBookScheduler().runGlobalTimer(this.getJoinBookCache()::flush, 100L, 100L);
+        this.getBookScheduler().runAsyncTimer(this.getStats()::sample, BookStats.SAMPLE_TICKS, BookStats.SAMPLE_TICKS);
+        this.getTickMonitor().start(this::onTick);
+    }
+
+    private static void setField(Class<?> owner, Object instance, String name, Object value) {
+        try {
+            Field field = owner.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(instance, value);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Failed to set " + name + "!", ex);
+        }
+    }
+
+    @Override
+    public boolean isPlaceHolderEnabled() {
+        return true;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.benchmarks.headless;
+
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * A {@link BukkitScheduler} driven by hand.
+ * The sync tasks run when {@link #tick()} is called from the primary thread,
+ * the async tasks run on a small pool, with 50 milliseconds per tick.
+ */
+public final class HeadlessScheduler implements InvocationHandler {
+    private static final long MILLIS_PER_TICK = 50;
+    private final PriorityQueue<Task> syncTasks = new PriorityQueue<>();
+    private final ScheduledExecutorService asyncPool = Executors.newScheduledThreadPool(4, runnable -> {
+        Thread thread = new Thread(runnable, "Headless-Async");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger ids = new AtomicInteger();
+    private volatile long currentTick;
+
+    BukkitScheduler toProxy() {
+        return (BukkitScheduler) Proxy.newProxyInstance(HeadlessScheduler.class.getClassLoader(), new Class<?>[]{BukkitScheduler.class}, this);
+    }
+
+    /**
+     * Run the sync tasks that are due, must be called from the primary thread
+     *
+     * @return how many tasks were run
+     */
+    public int tick() {
+        long tick = ++this.currentTick;
+        int ran = 0;
+        while (true) {
+            Task task;
+            synchronized (this.syncTasks) {
+                task = this.syncTasks.peek();
+                if (task == null || task.dueTick > tick)
+                    break;
+                this.syncTasks.poll();
+            }
+            if (task.cancelled)
+                continue;
+            task.runnable.run();
+            ran++;
+            if (task.period > 0 && !task.cancelled)
+                this.schedule(task, task.period);
+        }
+        return ran;
+    }
+
+    public long getCurrentTick() {
+        return this.currentTick;
+    }
+
+    public void shutdown() {
+        this.asyncPool.shutdownNow();
+    }
+
+    private void schedule(Task task, long delay) {
+        synchronized (this.syncTasks) {
+            task.dueTick = this.currentTick + Math.max(1, delay);
+            this.syncTasks.add(task);
+        }
+    }
+
+    private Task sync(Object runnable, long delay, long period) {
+        Task task = new Task(this.ids.incrementAndGet(), true, period);
+        task.runnable = task.wrap(runnable);
+        this.schedule(task, delay);
+        return task;
+    }
+
+    private Task async(Object runnable, long delay, long period) {
+        Task task = new Task(this.ids.incrementAndGet(), false, period);
+        task.runnable = task.wrap(runnable);
+        if (period > 0)
+            task.future = this.asyncPool.scheduleAtFixedRate(task.runnable, delay * MILLIS_PER_TICK, period * MILLIS_PER_TICK, TimeUnit.MILLISECONDS);
+        else
+            task.future = this.asyncPool.schedule(task.runnable, delay * MILLIS_PER_TICK, TimeUnit.MILLISECONDS);
+        return task;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "runTask":
+                return this.result(method, this.sync(args[1], 0, 0));
+            case "runTaskLater":
+                return this.result(method, this.sync(args[1], (long) args[2], 0));
+            case "runTaskTimer":
+                return this.result(method, this.sync(args[1], (long) args[2], (long) args[3]));
+            case "runTaskAsynchronously":
+                return this.result(method, this.async(args[1], 0, 0));
+            case "runTaskLaterAsynchronously":
+                return this.result(method, this.async(args[1], (long) args[2], 0));
+            case "runTaskTimerAsynchronously":
+                return this.result(method, this.async(args[1], (long) args[2], (long) args[3]));
+            default:
+                return HeadlessServer.invokeObject(proxy, method, args);
+        }
+    }
+
+    private Object result(Method method, Task task) {
+        return method.getReturnType() == void.class ? null : task.toProxy();
+    }
+
+    private static final class Task implements Comparable<Task> {
+        private final int id;
+        private final boolean sync;
+        private final long period;
+        private Runnable runnable;
+        private volatile boolean cancelled;
+        private long dueTick;
+        private Future<?> future;
+        private BukkitTask proxy;
+
+        private Task(int id, boolean sync, long period) {
+            this.id = id;
+            this.sync = sync;
+            this.period = period;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Runnable wrap(Object runnable) {
+            Runnable task = runnable instanceof Runnable ? (Runnable) runnable : () -> ((Consumer<BukkitTask>) runnable).accept(this.toProxy());
+            return () -> {
+                try {
+                    task.run();
+                } catch (Throwable throwable) {
+                    // like the server, a failing task doesn't stop the others
+                    HeadlessServer.getLogger().log(Level.WARNING, "Task #" + this.id + " failed!", throwable);
+                }
+            };
+        }
+
+        private synchronized BukkitTask toProxy() {
+            if (this.proxy == null)
+                this.proxy = (BukkitTask) Proxy.newProxyInstance(HeadlessScheduler.class.getClassLoader(), new Class<?>[]{BukkitTask.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getTaskId":
+                            return this.id;
+                        case "isSync":
+                            return this.sync;
+                        case "isCancelled":
+                            return this.cancelled;
+                        case "cancel":
+                            this.cancelled = true;
+                            if (this.future != null)
+                                this.future.cancel(false);
+                            return null;
+                        default:
+                            return HeadlessServer.invokeObject(proxy, method, args);
+                    }
+                });
+            return this.proxy;
+        }
+
+        @Override
+        public int compareTo(Task that) {
+            int compare = Long.compare(this.dueTick, that.dueTick);
+            return compare != 0 ? compare : Integer.compare(this.id, that.id);
+        }
+    }
+}
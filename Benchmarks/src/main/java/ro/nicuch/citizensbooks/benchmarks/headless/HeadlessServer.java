@@ -0,0 +1,245 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.benchmarks.headless;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.UnsafeValues;
+import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemFactory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BookMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The minimal {@link Server} needed to run the plugin without a server.
+ * It has an item factory where books are the only items with a meta, a
+ * scheduler driven by hand, the online players and a console. Events are
+ * not dispatched, the callers invoke the listeners themselves. Every other
+ * method returns the default value of its type.
+ */
+public final class HeadlessServer {
+    private static final Logger LOGGER = Logger.getLogger("Headless");
+    private static final HeadlessScheduler SCHEDULER = new HeadlessScheduler();
+    private static final Map<UUID, HeadlessPlayer> PLAYERS = new ConcurrentHashMap<>();
+    private static final Map<String, HeadlessPlayer> PLAYERS_BY_NAME = new ConcurrentHashMap<>();
+    private static volatile Thread primaryThread;
+
+    private HeadlessServer() {
+    }
+
+    /**
+     * Install the headless server, if there is no server yet.
+     * The calling thread becomes the primary thread.
+     */
+    public static synchronized void install() {
+        if (Bukkit.getServer() != null)
+            return;
+        LOGGER.setLevel(Level.WARNING); // the benchmark output is enough
+        primaryThread = Thread.currentThread();
+        ClassLoader loader = HeadlessServer.class.getClassLoader();
+        ItemFactory itemFactory = (ItemFactory) Proxy.newProxyInstance(loader, new Class<?>[]{ItemFactory.class}, HeadlessServer::invokeItemFactory);
+        BukkitScheduler scheduler = SCHEDULER.toProxy();
+        PluginManager pluginManager = (PluginManager) Proxy.newProxyInstance(loader, new Class<?>[]{PluginManager.class}, HeadlessServer::invokeObject);
+        UnsafeValues unsafe = (UnsafeValues) Proxy.newProxyInstance(loader, new Class<?>[]{UnsafeValues.class}, (proxy, method, args) ->
+                method.getName().equals("getDataVersion") ? 2730 : invokeObject(proxy, method, args));
+        ConsoleCommandSender console = (ConsoleCommandSender) Proxy.newProxyInstance(loader, new Class<?>[]{ConsoleCommandSender.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                    return "CONSOLE";
+                case "isOp":
+                case "hasPermission":
+                case "isPermissionSet":
+                    return true;
+                case "getServer":
+                    return Bukkit.getServer();
+                default:
+                    return invokeObject(proxy, method, args); // the messages are dropped
+            }
+        });
+        Bukkit.setServer((Server) Proxy.newProxyInstance(loader, new Class<?>[]{Server.class}, (InvocationHandler) (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getLogger":
+                    return LOGGER;
+                case "getName":
+                    return "Headless";
+                case "getVersion":
+                    return "headless";
+                case "getBukkitVersion":
+                    return "1.17.1-R0.1-SNAPSHOT";
+                case "getItemFactory":
+                    return itemFactory;
+                case "getScheduler":
+                    return scheduler;
+                case "getPluginManager":
+                    return pluginManager;
+                case "getUnsafe":
+                    return unsafe;
+                case "getConsoleSender":
+                    return console;
+                case "isPrimaryThread":
+                    return Thread.currentThread() == primaryThread;
+                case "getOnlinePlayers":
+                    return getOnlinePlayers();
+                case "getPlayer":
+                case "getPlayerExact":
+                    return getPlayer(args[0]);
+                default:
+                    return invokeObject(proxy, method, args);
+            }
+        }));
+    }
+
+    public static Logger getLogger() {
+        return LOGGER;
+    }
+
+    public static HeadlessScheduler getScheduler() {
+        return SCHEDULER;
+    }
+
+    /**
+     * Bring the player online
+     *
+     * @param player the player
+     */
+    public static void addPlayer(HeadlessPlayer player) {
+        player.setOnline(true);
+        PLAYERS.put(player.getUniqueId(), player);
+        PLAYERS_BY_NAME.put(player.getName().toLowerCase(Locale.ROOT), player);
+    }
+
+    /**
+     * Take the player offline
+     *
+     * @param player the player
+     */
+    public static void removePlayer(HeadlessPlayer player) {
+        player.setOnline(false);
+        PLAYERS.remove(player.getUniqueId());
+        PLAYERS_BY_NAME.remove(player.getName().toLowerCase(Locale.ROOT));
+    }
+
+    private static Collection<Player> getOnlinePlayers() {
+        List<Player> players = new ArrayList<>(PLAYERS.size());
+        for (HeadlessPlayer player : PLAYERS.values())
+            players.add(player.getPlayer());
+        return Collections.unmodifiableList(players);
+    }
+
+    private static Player getPlayer(Object key) {
+        HeadlessPlayer player = key instanceof UUID ? PLAYERS.get(key) : PLAYERS_BY_NAME.get(String.valueOf(key).toLowerCase(Locale.ROOT));
+        return player == null ? null : player.getPlayer();
+    }
+
+    private static Object invokeItemFactory(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getItemMeta":
+                return isBook((Material) args[0]) ? HeadlessBookMeta.create() : null;
+            case "isApplicable":
+                return args[0] == null || HeadlessBookMeta.isBookMeta((ItemMeta) args[0]);
+            case "asMetaFor":
+                return args[0];
+            case "updateMaterial":
+                return args[1];
+            default:
+                if (method.getName().equals("equals") && args.length == 2)
+                    return HeadlessBookMeta.isSimilar((ItemMeta) args[0], (ItemMeta) args[1]);
+                return invokeObject(proxy, method, args);
+        }
+    }
+
+    private static boolean isBook(Material material) {
+        return material == Material.WRITTEN_BOOK || material == Material.WRITABLE_BOOK;
+    }
+
+    /**
+     * The {@link Object} methods of a proxy, and the default value for the rest
+     */
+    static Object invokeObject(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return proxy.getClass().getInterfaces()[0].getSimpleName() + "@headless";
+            default:
+                return defaultValue(method.getReturnType());
+        }
+    }
+
+    static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class)
+            return null;
+        if (type == boolean.class)
+            return false;
+        if (type == char.class)
+            return '\0';
+        if (type == long.class)
+            return 0L;
+        if (type == float.class)
+            return 0F;
+        if (type == double.class)
+            return 0D;
+        if (type == byte.class)
+            return (byte) 0;
+        if (type == short.class)
+            return (short) 0;
+        return 0;
+    }
+
+    /**
+     * Create a written book
+     *
+     * @param title  the title
+     * @param author the author
+     * @param pages  the pages, as JSON text components
+     * @return the book
+     */
+    public static ItemStack book(String title, String author, List<String> pages) {
+        install();
+        ItemStack book = new ItemStack(Material.WRITTEN_BOOK);
+        BookMeta meta = (BookMeta) book.getItemMeta();
+        meta.setTitle(title);
+        meta.setAuthor(author);
+        meta.setPages(pages);
+        book.setItemMeta(meta);
+        return book;
+    }
+}
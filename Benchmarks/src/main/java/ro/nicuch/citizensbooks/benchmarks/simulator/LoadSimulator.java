@@ -0,0 +1,314 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.benchmarks.simulator;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.sun.management.ThreadMXBean;
+import net.citizensnpcs.api.event.NPCRightClickEvent;
+import net.citizensnpcs.api.npc.NPC;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.inventory.ItemStack;
+import ro.nicuch.citizensbooks.CitizensBooksCommand;
+import ro.nicuch.citizensbooks.benchmarks.Books;
+import ro.nicuch.citizensbooks.benchmarks.headless.HeadlessDistribution;
+import ro.nicuch.citizensbooks.benchmarks.headless.HeadlessNPC;
+import ro.nicuch.citizensbooks.benchmarks.headless.HeadlessPlayer;
+import ro.nicuch.citizensbooks.benchmarks.headless.HeadlessPlugin;
+import ro.nicuch.citizensbooks.benchmarks.headless.HeadlessServer;
+import ro.nicuch.citizensbooks.listeners.CitizensActions;
+import ro.nicuch.citizensbooks.listeners.CommandActions;
+import ro.nicuch.citizensbooks.listeners.PlayerActions;
+import ro.nicuch.citizensbooks.listeners.QuitActions;
+import ro.nicuch.citizensbooks.trait.BookTrait;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the listeners and the command with synthetic players, in real time,
+ * to measure the capacity of the plugin before a release.
+ * <p>
+ * Every tick the due actions are dispatched on the primary thread, then the
+ * scheduled tasks are run. The whole tick is time spent in CitizensBooks,
+ * because there is nothing else on the server. The latency is measured from
+ * the action to the book being opened for the player.
+ * <p>
+ * Run with {@code java -cp Benchmarks/target/benchmarks.jar ro.nicuch.citizensbooks.benchmarks.simulator.LoadSimulator --players 5000}
+ */
+public final class LoadSimulator {
+    private static final long NANOS_PER_TICK = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final int NPC_CLICK = 0, JOIN = 1, COMMAND = 2, FORCEOPEN = 3;
+    private static final String[] ACTION_NAMES = {"npc_clicks", "joins", "commands", "forceopens"};
+    private static final String[] ACTION_RATES = {"npc-clicks", "joins", "commands", "forceopens"};
+    private final SimulatorOptions options;
+    private final List<HeadlessPlayer> online = new ArrayList<>();
+    private final List<NPC> npcs = new ArrayList<>();
+    private final Map<UUID, Long> pendingOpens = new ConcurrentHashMap<>();
+    private final Queue<HeadlessPlayer> loggedIn = new ArrayDeque<>();
+    private final Percentiles tickTimes = new Percentiles();
+    private final Percentiles latencies = new Percentiles();
+    private final LongAdder opened = new LongAdder();
+    private final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final double[] credits = new double[4];
+    private final long[] actions = new long[4];
+    private volatile boolean measuring;
+    private HeadlessPlugin plugin;
+    private File dataFolder;
+    private CitizensActions citizensActions;
+    private PlayerActions playerActions;
+    private QuitActions quitActions;
+    private CommandActions commandActions;
+    private CitizensBooksCommand command;
+    private int nextPlayerId;
+
+    private LoadSimulator(SimulatorOptions options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimulatorOptions options;
+        try {
+            options = new SimulatorOptions(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+            return;
+        }
+        new LoadSimulator(options).run();
+    }
+
+    private void run() throws Exception {
+        this.setup();
+        int warmupTicks = this.options.getInt("warmup") * 20;
+        int ticks = this.options.getInt("seconds") * 20;
+        System.out.println("Warming up for " + this.options.getInt("warmup") + " seconds...");
+        this.runTicks(warmupTicks);
+        System.out.println("Simulating " + this.options.getInt("seconds") + " seconds...");
+        long mainThread = Thread.currentThread().getId();
+        long mainAllocated = this.threads.getThreadAllocatedBytes(mainThread);
+        long allAllocated = this.getAllocatedBytes();
+        long start = System.nanoTime();
+        this.measuring = true;
+        this.runTicks(ticks);
+        this.measuring = false;
+        double seconds = (System.nanoTime() - start) / 1_000_000_000D;
+        mainAllocated = this.threads.getThreadAllocatedBytes(mainThread) - mainAllocated;
+        allAllocated = this.getAllocatedBytes() - allAllocated;
+        JsonObject report = this.report(seconds, mainAllocated, allAllocated);
+        this.shutdown();
+        System.out.println(new GsonBuilder().setPrettyPrinting().create().toJson(report));
+        String reportFile = this.options.getString("report");
+        if (!reportFile.isEmpty())
+            try (FileWriter writer = new FileWriter(reportFile)) {
+                new GsonBuilder().setPrettyPrinting().create().toJson(report, writer);
+            }
+    }
+
+    private void setup() throws IOException {
+        HeadlessServer.install();
+        int pages = this.options.getInt("pages");
+        this.dataFolder = Files.createTempDirectory("citizensbooks-simulator").toFile();
+        HeadlessDistribution distribution = new HeadlessDistribution(HeadlessDistribution.PageFormat.JSON_STRING);
+        distribution.setOpenListener(this::opened);
+        Books.writeFilters(new File(this.dataFolder, "filters"), this.options.getInt("filters"), pages, distribution);
+        this.plugin = HeadlessPlugin.create(this.dataFolder, distribution);
+        this.plugin.load();
+        this.plugin.getAPI().reloadFilters(Books.silentLogger());
+        YamlConfiguration settings = this.plugin.getSettings();
+        for (int npcId = 0; npcId < this.options.getInt("npcs"); npcId++) {
+            BookTrait trait = new BookTrait(this.plugin);
+            trait.setBook(true, Books.book(pages, Books.NPC_PAGE));
+            this.npcs.add(HeadlessNPC.create(npcId, "NPC" + npcId, npcId * 3D, 64D, -npcId * 3D, trait));
+        }
+        settings.set("commands", null);
+        settings.set("commands.rules.filter_name", "filter_0");
+        settings.set("commands.rules.permission", "none");
+        settings.set("join_book", Books.book(pages, Books.PLAIN_PAGE));
+        settings.set("join_book_last_change", System.currentTimeMillis());
+        this.plugin.applySettings();
+        this.citizensActions = new CitizensActions(this.plugin);
+        this.playerActions = new PlayerActions(this.plugin);
+        this.playerActions.onReload();
+        this.quitActions = new QuitActions(this.plugin);
+        this.commandActions = new CommandActions(this.plugin);
+        this.command = new CitizensBooksCommand(this.plugin);
+        for (int i = 0; i < this.options.getInt("players"); i++) {
+            HeadlessPlayer player = this.newPlayer();
+            HeadlessServer.addPlayer(player);
+            this.online.add(player);
+        }
+    }
+
+    private HeadlessPlayer newPlayer() {
+        int id = this.nextPlayerId++;
+        return HeadlessPlayer.create(UUID.randomUUID(), "Player" + id, Set.of());
+    }
+
+    private void runTicks(int ticks) {
+        long next = System.nanoTime();
+        for (int tick = 0; tick < ticks; tick++) {
+            long start = System.nanoTime();
+            this.dispatch();
+            HeadlessServer.getScheduler().tick();
+            if (this.measuring)
+                this.tickTimes.record(System.nanoTime() - start);
+            next += NANOS_PER_TICK;
+            long sleep = next - System.nanoTime();
+            if (sleep > 0)
+                LockSupport.parkNanos(sleep);
+            else
+                next = System.nanoTime(); // lagging, the next tick starts right away
+        }
+    }
+
+    private void dispatch() {
+        // the players that quit last tick are replaced first
+        HeadlessPlayer joined;
+        while ((joined = this.loggedIn.poll()) != null) {
+            HeadlessServer.addPlayer(joined);
+            this.online.add(joined);
+            this.expectOpen(joined.getPlayer());
+            this.playerActions.onJoin(new PlayerJoinEvent(joined.getPlayer(), ""));
+        }
+        for (int action = 0; action < this.credits.length; action++) {
+            this.credits[action] += this.options.getDouble(ACTION_RATES[action]) / 20D;
+            while (this.credits[action] >= 1D && !this.online.isEmpty()) {
+                this.credits[action]--;
+                if (this.measuring)
+                    this.actions[action]++;
+                this.act(action);
+            }
+        }
+    }
+
+    private void act(int action) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextInt(this.online.size());
+        HeadlessPlayer player = this.online.get(index);
+        switch (action) {
+            case NPC_CLICK:
+                this.expectOpen(player.getPlayer());
+                this.citizensActions.rightClick(new NPCRightClickEvent(this.npcs.get(random.nextInt(this.npcs.size())), player.getPlayer()));
+                break;
+            case JOIN:
+                // a new player takes the place of the one that quits
+                this.online.set(index, this.online.get(this.online.size() - 1));
+                this.online.remove(this.online.size() - 1);
+                this.pendingOpens.remove(player.getUniqueId());
+                PlayerQuitEvent quit = new PlayerQuitEvent(player.getPlayer(), "");
+                this.playerActions.onQuit(quit);
+                this.quitActions.onQuit(quit);
+                HeadlessServer.removePlayer(player);
+                this.loggedIn.add(this.newPlayer());
+                break;
+            case COMMAND:
+                this.expectOpen(player.getPlayer());
+                this.commandActions.onCommand(new PlayerCommandPreprocessEvent(player.getPlayer(), "/rules"));
+                break;
+            case FORCEOPEN:
+                this.expectOpen(player.getPlayer());
+                this.command.onCommand(Bukkit.getConsoleSender(), null, "npcbook",
+                        new String[]{"forceopen", "filter_" + random.nextInt(this.options.getInt("filters")), player.getName()});
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void expectOpen(Player player) {
+        this.pendingOpens.put(player.getUniqueId(), System.nanoTime());
+    }
+
+    private void opened(Player player, ItemStack book) {
+        Long start = this.pendingOpens.remove(player.getUniqueId());
+        if (!this.measuring)
+            return;
+        this.opened.increment();
+        if (start != null)
+            this.latencies.record(System.nanoTime() - start);
+    }
+
+    private long getAllocatedBytes() {
+        long total = 0;
+        for (long allocated : this.threads.getThreadAllocatedBytes(this.threads.getAllThreadIds()))
+            if (allocated > 0)
+                total += allocated;
+        return total;
+    }
+
+    private JsonObject report(double seconds, long mainAllocated, long allAllocated) {
+        JsonObject report = new JsonObject();
+        JsonObject options = new JsonObject();
+        this.options.getValues().forEach(options::addProperty);
+        report.add("options", options);
+        JsonObject actions = new JsonObject();
+        for (int action = 0; action < this.actions.length; action++)
+            actions.addProperty(ACTION_NAMES[action], this.actions[action]);
+        actions.addProperty("books_opened", this.opened.sum());
+        actions.addProperty("clicks_rejected", this.plugin.getClickLimiter().getRejectedTotal());
+        actions.addProperty("opens_deferred", this.plugin.getOpenQueue().getDeferredTotal());
+        report.add("actions", actions);
+        JsonObject tick = new JsonObject();
+        tick.addProperty("count", this.tickTimes.size());
+        tick.addProperty("average_millis", this.tickTimes.average() / 1_000_000D);
+        tick.addProperty("p50_millis", this.tickTimes.get(50) / 1_000_000D);
+        tick.addProperty("p99_millis", this.tickTimes.get(99) / 1_000_000D);
+        tick.addProperty("max_millis", this.tickTimes.get(100) / 1_000_000D);
+        report.add("tick_time", tick);
+        JsonObject latency = new JsonObject();
+        latency.addProperty("count", this.latencies.size());
+        latency.addProperty("p50_millis", this.latencies.get(50) / 1_000_000D);
+        latency.addProperty("p99_millis", this.latencies.get(99) / 1_000_000D);
+        latency.addProperty("max_millis", this.latencies.get(100) / 1_000_000D);
+        report.add("open_latency", latency);
+        JsonObject allocation = new JsonObject();
+        allocation.addProperty("primary_thread_mb_per_second", mainAllocated / seconds / (1024D * 1024D));
+        allocation.addProperty("all_threads_mb_per_second", allAllocated / seconds / (1024D * 1024D));
+        report.add("allocation", allocation);
+        return report;
+    }
+
+    private void shutdown() throws IOException {
+        this.plugin.onDisable();
+        HeadlessServer.getScheduler().shutdown();
+        Books.delete(this.dataFolder);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.benchmarks.simulator;
+
+import java.util.Arrays;
+
+/**
+ * Keeps every recorded value, so the percentiles are exact
+ */
+final class Percentiles {
+    private long[] values = new long[1024];
+    private int size;
+
+    synchronized void record(long value) {
+        if (this.size == this.values.length)
+            this.values = Arrays.copyOf(this.values, this.size * 2);
+        this.values[this.size++] = value;
+    }
+
+    synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value, or 0 if nothing was recorded
+     */
+    synchronized long get(double percentile) {
+        if (this.size == 0)
+            return 0;
+        long[] sorted = Arrays.copyOf(this.values, this.size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100D * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    synchronized double average() {
+        if (this.size == 0)
+            return 0;
+        double sum = 0;
+        for (int i = 0; i < this.size; i++)
+            sum += this.values[i];
+        return sum / this.size;
+    }
+}
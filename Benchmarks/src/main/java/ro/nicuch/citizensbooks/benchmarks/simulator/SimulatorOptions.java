@@ -0,0 +1,75 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.benchmarks.simulator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The options of the simulator, given as {@code --name value}
+ */
+final class SimulatorOptions {
+    private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+    static {
+        DEFAULTS.put("players", "2000"); // online all the time
+        DEFAULTS.put("seconds", "60");
+        DEFAULTS.put("warmup", "10"); // seconds before the measurement starts
+        DEFAULTS.put("npcs", "50");
+        DEFAULTS.put("pages", "5");
+        DEFAULTS.put("filters", "100");
+        DEFAULTS.put("npc-clicks", "200"); // per second
+        DEFAULTS.put("joins", "10"); // per second, a new player replaces an online one
+        DEFAULTS.put("commands", "50"); // custom commands per second
+        DEFAULTS.put("forceopens", "5"); // /npcbook forceopen per second
+        DEFAULTS.put("report", ""); // JSON report file, none if empty
+    }
+
+    private final Map<String, String> values = new HashMap<>(DEFAULTS);
+
+    SimulatorOptions(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--"))
+                throw new IllegalArgumentException("Unknown argument " + args[i] + "!");
+            String name = args[i].substring(2);
+            if (!DEFAULTS.containsKey(name))
+                throw new IllegalArgumentException("Unknown option --" + name + ", the options are " + DEFAULTS.keySet() + "!");
+            if (i + 1 >= args.length)
+                throw new IllegalArgumentException("Missing the value of --" + name + "!");
+            this.values.put(name, args[++i]);
+        }
+    }
+
+    int getInt(String name) {
+        return Integer.parseInt(this.values.get(name));
+    }
+
+    double getDouble(String name) {
+        return Double.parseDouble(this.values.get(name));
+    }
+
+    String getString(String name) {
+        return this.values.get(name);
+    }
+
+    Map<String, String> getValues() {
+        return this.values;
+    }
+}
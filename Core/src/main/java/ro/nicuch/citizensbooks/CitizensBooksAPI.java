@@ -32,7 +32,6 @@ import net.luckperms.api.query.QueryOptions;
 import net.milkbowl.vault.permission.Permission;
 import org.apache.commons.lang.Validate;
 import org.bukkit.Bukkit;
-import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
@@ -40,7 +39,18 @@ import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.PlayerInventory;
 import org.bukkit.inventory.meta.BookMeta;
 import ro.nicuch.citizensbooks.dist.Distribution;
+import ro.nicuch.citizensbooks.jfr.BookEvent;
+import ro.nicuch.citizensbooks.jfr.BookOpenEvent;
+import ro.nicuch.citizensbooks.jfr.FilterLoadEvent;
+import ro.nicuch.citizensbooks.jfr.PlaceholderRenderEvent;
+import ro.nicuch.citizensbooks.scheduler.BookScheduler;
+import ro.nicuch.citizensbooks.utils.BookBroadcast;
 import ro.nicuch.citizensbooks.utils.BookLink;
+import ro.nicuch.citizensbooks.utils.BookStats;
+import ro.nicuch.citizensbooks.utils.BookTemplate;
+import ro.nicuch.citizensbooks.utils.NPCSnapshot;
+import ro.nicuch.citizensbooks.utils.PlaceholderGuard;
+import ro.nicuch.citizensbooks.utils.Settings;
 import ro.nicuch.citizensbooks.utils.UpdateChecker;
 
 import java.io.File;
@@ -50,7 +60,11 @@ import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -58,7 +72,12 @@ import java.util.stream.Collectors;
 public class CitizensBooksAPI {
     private final CitizensBooksPlugin plugin;
     private Distribution distribution = null;
-    private final Map<String, BookLink> filters = new HashMap<>();
+    // Readers only see immutable snapshots, writers replace the whole map
+    private volatile Map<String, BookLink> filters = Collections.emptyMap();
+    private final Object filtersPublishLock = new Object();
+    private final Object[] filterLocks = new Object[16];
+    // The filters with a file write or delete that didn't finish yet, and how many
+    private final Map<String, Integer> pendingFilterFiles = new ConcurrentHashMap<>();
     private final File filtersDirectory;
     private final Pattern filterNamePattern = Pattern.compile("^[a-zA-Z0-9_-]+$");
 
@@ -67,6 +86,8 @@ public class CitizensBooksAPI {
     public CitizensBooksAPI(CitizensBooksPlugin plugin) {
         this.plugin = plugin;
         this.filtersDirectory = new File(this.plugin.getDataFolder() + File.separator + "filters");
+        for (int i = 0; i < this.filterLocks.length; i++)
+            this.filterLocks[i] = new Object();
     }
 
     public boolean loadDistribution() {
@@ -94,10 +115,42 @@ public class CitizensBooksAPI {
         return false;
     }
 
-    @SuppressWarnings("ResultOfMethodCallIgnored")
+    /**
+     * Reload the filters on the I/O executor
+     *
+     * @param logger where the loading is logged
+     * @return the future completed after the new filters are published
+     */
+    public CompletableFuture<Void> reloadFiltersAsync(Logger logger) {
+        return this.plugin.getIOExecutor().supply(() -> {
+            this.reloadFilters(logger);
+            return null;
+        });
+    }
+
     public void reloadFilters(Logger logger) {
+        long start = this.plugin.getStats().start();
+        Map<String, BookLink> base = this.filters;
+        Set<String> pending = this.getPendingFilterFiles(); // read after the base
+        this.publishFilters(this.loadFilters(logger, base), base, pending);
+        this.plugin.getStats().record(BookStats.Metric.RELOAD_FILTERS, start);
+    }
+
+    /**
+     * Read the filters from the disk, without publishing them.
+     * If a filter file can't be read anymore, the filter from base is kept.
+     *
+     * @param logger where the loading is logged
+     * @param base   the filters published when the loading started
+     * @return the loaded filters
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    Map<String, BookLink> loadFilters(Logger logger, Map<String, BookLink> base) {
         logger.info("Loading filters...");
-        this.filters.clear();
+        Map<String, BookLink> loadedFilters = new HashMap<>();
+        Map<Path, String> baseNames = new HashMap<>();
+        for (Map.Entry<String, BookLink> entry : base.entrySet())
+            baseNames.put(entry.getValue().getLink(), entry.getKey());
         if (!this.filtersDirectory.exists())
             this.filtersDirectory.mkdirs();
         AtomicInteger successfulFile = new AtomicInteger();
@@ -106,6 +159,10 @@ public class CitizensBooksAPI {
             public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
                 File jsonFile = path.toFile();
                 if (!jsonFile.getName().toLowerCase().endsWith(".json")) return FileVisitResult.CONTINUE; // don't log non json files
+                FilterLoadEvent event = new FilterLoadEvent();
+                event.begin();
+                String loadedName = null;
+                ItemStack loadedBook = null;
                 try (FileReader fileReader = new FileReader(jsonFile)) {
                     JsonObject jsonObject = CitizensBooksAPI.this.gson.fromJson(fileReader, JsonObject.class);
                     JsonPrimitive jsonFilterName = jsonObject.getAsJsonPrimitive("filter_name");
@@ -120,11 +177,27 @@ public class CitizensBooksAPI {
                     }
                     JsonObject jsonBookContent = jsonObject.getAsJsonObject("book_content");
                     ItemStack book = CitizensBooksAPI.this.distribution.convertJsonToBook(jsonBookContent);
-                    CitizensBooksAPI.this.filters.put(filterName, new BookLink(book, jsonFile.toPath()));
+                    loadedFilters.put(filterName, new BookLink(book, jsonFile.toPath()));
                     successfulFile.incrementAndGet();
+                    loadedName = filterName;
+                    loadedBook = book;
                 } catch (Exception ex) {
-                    logger.warning("Failed to load " + jsonFile.getName());
+                    String filterName = baseNames.get(jsonFile.toPath());
+                    if (filterName != null) {
+                        logger.warning("Failed to load " + jsonFile.getName() + ", the loaded version of " + filterName + " is kept!");
+                        loadedFilters.putIfAbsent(filterName, base.get(filterName));
+                    } else
+                        logger.warning("Failed to load " + jsonFile.getName());
                     return FileVisitResult.CONTINUE;
+                } finally {
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.filterName = loadedName == null ? baseNames.get(jsonFile.toPath()) : loadedName;
+                        event.file = jsonFile.getName();
+                        event.pages = BookEvent.pages(loadedBook);
+                        event.loaded = loadedBook != null;
+                        event.commit();
+                    }
                 }
                 return FileVisitResult.CONTINUE;
             }
@@ -139,6 +212,63 @@ public class CitizensBooksAPI {
             logger.info("No filter was loaded!");
         else
             logger.info("Loaded " + successfulFile.get() + " filters!");
+        return loadedFilters;
+    }
+
+    /**
+     * Publish the loaded filters in one step.
+     * The filters created or removed since the loading started are kept as they are now,
+     * and so are the filters that had a file write or delete pending when it started,
+     * because the files may not have been written or deleted when they were read.
+     *
+     * @param loaded  the loaded filters
+     * @param base    the filters published when the loading started
+     * @param pending the filters with a pending file operation when the loading started
+     */
+    void publishFilters(Map<String, BookLink> loaded, Map<String, BookLink> base, Set<String> pending) {
+        synchronized (this.filtersPublishLock) {
+            Map<String, BookLink> current = this.filters;
+            Map<String, BookLink> merged = new HashMap<>(loaded);
+            Set<String> names = new HashSet<>(base.keySet());
+            names.addAll(current.keySet());
+            names.addAll(pending);
+            for (String name : names) {
+                BookLink link = current.get(name);
+                if (base.get(name) == link && !pending.contains(name))
+                    continue; // not changed meanwhile
+                if (link == null)
+                    merged.remove(name);
+                else
+                    merged.put(name, link);
+            }
+            this.filters = Collections.unmodifiableMap(merged);
+        }
+        this.plugin.updateListeners();
+    }
+
+    /**
+     * @return the published filters, must not be changed
+     */
+    Map<String, BookLink> getFilterLinks() {
+        return this.filters;
+    }
+
+    /**
+     * Should be read after the published filters, so every pending operation
+     * of a published change is seen
+     *
+     * @return the filters with a file write or delete that didn't finish yet
+     */
+    Set<String> getPendingFilterFiles() {
+        return new HashSet<>(this.pendingFilterFiles.keySet());
+    }
+
+    private void beginFilterFile(String filterName) {
+        this.pendingFilterFiles.merge(filterName, 1, Integer::sum);
+    }
+
+    private void endFilterFile(String filterName) {
+        this.pendingFilterFiles.computeIfPresent(filterName, (name, count) -> count == 1 ? null : count - 1);
     }
 
     public boolean isValidName(String filterName) {
@@ -154,10 +284,10 @@ public class CitizensBooksAPI {
     }
 
     /**
-     * Get the book from filter
+     * Get the book from filter, safe to call from any thread
      *
      * @param filterName filter name/id
-     * @return the book
+     * @return a copy of the book
      */
     public ItemStack getFilter(String filterName) {
         Validate.notNull(filterName, "The filter name is null! This is not an error with CitizensBooks," +
@@ -165,11 +295,33 @@ public class CitizensBooksAPI {
         Validate.notEmpty(filterName, "The filter name is empty! This is not an error with CitizensBooks," +
                 " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
         Validate.isTrue(this.isValidName(filterName), "Invalid characters found in filterName!");
-        return this.filters.getOrDefault(filterName, new BookLink(new ItemStack(Material.WRITTEN_BOOK), null)).getBook();
+        BookStats stats = this.plugin.getStats();
+        long start = stats.start();
+        BookLink link = this.filters.get(filterName);
+        if (link == null) {
+            stats.miss(BookStats.Cache.FILTER_LOOKUP);
+            stats.record(BookStats.Metric.FILTER_LOOKUP, start);
+            return new ItemStack(Material.WRITTEN_BOOK);
+        }
+        ItemStack book = link.getBook().clone(); // the stored book is shared between threads, never hand it out
+        stats.hit(BookStats.Cache.FILTER_LOOKUP);
+        stats.record(BookStats.Metric.FILTER_LOOKUP, start);
+        return book;
     }
 
     /**
-     * Check if filter has the book
+     * Get the book from filter, for the plugins that chain async calls
+     *
+     * @param filterName filter name/id
+     * @return the future, already completed with a copy of the book
+     */
+    public CompletableFuture<ItemStack> getFilterAsync(String filterName) {
+        // the lookup never blocks, there is no reason to switch threads
+        return this.supplyNow(() -> this.getFilter(filterName));
+    }
+
+    /**
+     * Check if filter has the book, safe to call from any thread
      *
      * @param filterName filter name/id
      * @return if the filter has the book
@@ -201,20 +353,84 @@ public class CitizensBooksAPI {
         Validate.isTrue(book.getType() == Material.WRITTEN_BOOK, "The ItemStack is not a written book! This is not an error with CitizensBooks," +
                 " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
         Validate.isTrue(this.isValidName(filterName), "Invalid characters found in filterName!");
+        long start = this.plugin.getStats().start();
+        BookLink link = this.putFilter(filterName, book);
+        this.plugin.getStats().record(BookStats.Metric.CREATE_FILTER, start);
+        this.plugin.getIOExecutor().execute(() -> {
+            try {
+                this.writeFilter(filterName, link);
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            } finally {
+                this.endFilterFile(filterName);
+            }
+        });
+    }
+
+    /**
+     * Create a filter from a book, the file is written on the I/O executor
+     *
+     * @param filterName filter name/id
+     * @param book       the book
+     * @return the future completed once the filter is saved
+     * @throws NullPointerException     if the book is null
+     * @throws IllegalArgumentException if the book is not really a book
+     */
+    public CompletableFuture<Void> createFilterAsync(String filterName, ItemStack book) {
+        Validate.notNull(filterName, "The filter name is null! This is not an error with CitizensBooks," +
+                " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
+        Validate.notEmpty(filterName, "The filter name is empty! This is not an error with CitizensBooks," +
+                " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
+        Validate.notNull(book, "The ItemStack is null! This is not an error with CitizensBooks," +
+                " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
+        Validate.isTrue(book.getType() == Material.WRITTEN_BOOK, "The ItemStack is not a written book! This is not an error with CitizensBooks," +
+                " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
+        Validate.isTrue(this.isValidName(filterName), "Invalid characters found in filterName!");
+        long start = this.plugin.getStats().start();
+        BookLink link = this.putFilter(filterName, book);
+        this.plugin.getStats().record(BookStats.Metric.CREATE_FILTER, start);
+        return this.plugin.getIOExecutor().supply(() -> {
+            try {
+                this.writeFilter(filterName, link);
+            } finally {
+                this.endFilterFile(filterName);
+            }
+            return null;
+        });
+    }
+
+    private BookLink putFilter(String filterName, ItemStack book) {
         File jsonFile = new File(this.filtersDirectory + File.separator + filterName + ".json");
-        try (FileWriter fileWriter = new FileWriter(jsonFile)) {
-            JsonPrimitive jsonFilterName = new JsonPrimitive(filterName);
-            JsonObject jsonBookContent = this.distribution.convertBookToJson(book);
-            JsonObject jsonFileObject = new JsonObject();
-            jsonFileObject.add("filter_name", jsonFilterName);
-            jsonFileObject.add("book_content", jsonBookContent);
-            this.gson.toJson(jsonFileObject, fileWriter);
-            this.filters.put(filterName, new BookLink(book, jsonFile.toPath()));
-        } catch (Exception ex) {
-            ex.printStackTrace();
+        BookLink link = new BookLink(book.clone(), jsonFile.toPath()); // the caller may change the book later
+        this.beginFilterFile(filterName); // before the filter is published, so a reload can't miss it
+        this.publishFilter(filterName, link);
+        this.plugin.updateListeners();
+        return link;
+    }
+
+    private void writeFilter(String filterName, BookLink link) throws IOException {
+        synchronized (this.getFilterLock(filterName)) {
+            if (this.filters.get(filterName) != link)
+                return; // changed or removed meanwhile, the newer operation owns the file
+            long start = this.plugin.getStats().start();
+            try (FileWriter fileWriter = new FileWriter(link.getLink().toFile())) {
+                JsonPrimitive jsonFilterName = new JsonPrimitive(filterName);
+                JsonObject jsonBookContent = this.distribution.convertBookToJson(link.getBook());
+                JsonObject jsonFileObject = new JsonObject();
+                jsonFileObject.add("filter_name", jsonFilterName);
+                jsonFileObject.add("book_content", jsonBookContent);
+                this.gson.toJson(jsonFileObject, fileWriter);
+            } finally {
+                this.plugin.getStats().record(BookStats.Metric.WRITE_FILTER, start);
+            }
         }
     }
 
+    /**
+     * Get the filter names, safe to call from any thread
+     *
+     * @return an unmodifiable snapshot of the filter names
+     */
     public Set<String> getFilters() {
         return this.filters.keySet();
     }
@@ -224,13 +440,71 @@ public class CitizensBooksAPI {
      *
      * @param filterName filter name/id
      */
-    @SuppressWarnings("ResultOfMethodCallIgnored")
     public void removeFilter(String filterName) {
-        if (this.filters.containsKey(filterName)) {
-            BookLink link = this.filters.remove(filterName);
-            File jsonFile = link.getLink().toFile();
-            if (jsonFile.exists())
-                jsonFile.delete();
+        BookLink link = this.unpublishFilter(filterName);
+        if (link == null)
+            return;
+        this.plugin.updateListeners();
+        this.plugin.getIOExecutor().execute(() -> this.deleteFilter(filterName, link));
+    }
+
+    /**
+     * Remove the filter, the file is deleted on the I/O executor
+     *
+     * @param filterName filter name/id
+     * @return the future completed with true if the filter existed
+     */
+    public CompletableFuture<Boolean> removeFilterAsync(String filterName) {
+        BookLink link = this.unpublishFilter(filterName);
+        if (link == null)
+            return CompletableFuture.completedFuture(false);
+        this.plugin.updateListeners();
+        return this.plugin.getIOExecutor().supply(() -> {
+            this.deleteFilter(filterName, link);
+            return true;
+        });
+    }
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private void deleteFilter(String filterName, BookLink link) {
+        try {
+            synchronized (this.getFilterLock(filterName)) {
+                if (this.filters.containsKey(filterName))
+                    return; // created again meanwhile, the newer operation owns the file
+                File jsonFile = link.getLink().toFile();
+                if (jsonFile.exists())
+                    jsonFile.delete();
+            }
+        } finally {
+            this.endFilterFile(filterName);
+        }
+    }
+
+    private BookLink unpublishFilter(String filterName) {
+        this.beginFilterFile(filterName); // before the filter is removed, so a reload can't bring it back
+        BookLink link = this.publishFilter(filterName, null);
+        if (link == null)
+            this.endFilterFile(filterName); // there is no file to delete
+        return link;
+    }
+
+    private Object getFilterLock(String filterName) {
+        return this.filterLocks[(filterName.hashCode() & 0x7fffffff) % this.filterLocks.length];
+    }
+
+    /**
+     * Replace the filters snapshot with a copy that has the change applied
+     *
+     * @param filterName filter name/id
+     * @param link       the new link, or null to remove the filter
+     * @return the previous link
+     */
+    private BookLink publishFilter(String filterName, BookLink link) {
+        synchronized (this.filtersPublishLock) {
+            Map<String, BookLink> copy = new HashMap<>(this.filters);
+            BookLink previous = link == null ? copy.remove(filterName) : copy.put(filterName, link);
+            this.filters = Collections.unmodifiableMap(copy);
+            return previous;
         }
     }
 
@@ -247,17 +521,175 @@ public class CitizensBooksAPI {
      * @throws IllegalArgumentException if the book is not really a book
      */
     public void openBook(Player player, ItemStack book) {
-        player.closeInventory();
         Validate.notNull(book, "The ItemStack is null! This is not an error with CitizensBooks," +
                 " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
         Validate.isTrue(book.getType() == Material.WRITTEN_BOOK, "The ItemStack is not a written book! This is not an error with CitizensBooks," +
                 " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
+        if (!this.plugin.getBookScheduler().isOwnedByCurrentThread(player)) {
+            // the inventory can only be changed by the thread that owns the player
+            this.plugin.getBookScheduler().runForEntity(player, () -> this.openBook(player, book));
+            return;
+        }
+        long start = this.plugin.getStats().start();
+        BookOpenEvent event = new BookOpenEvent();
+        event.begin();
+        player.closeInventory();
         int slot = player.getInventory().getHeldItemSlot();
         ItemStack old = player.getInventory().getItem(slot);
         PlayerInventory pi = player.getInventory();
         pi.setItem(slot, book);
         this.rightClick(player);
         pi.setItem(slot, old);
+        event.end();
+        if (event.shouldCommit()) {
+            event.player = player.getName();
+            event.pages = BookEvent.pages(book);
+            event.commit();
+        }
+        this.plugin.getStats().record(BookStats.Metric.OPEN_BOOK, start);
+    }
+
+    /**
+     * Open a book for player, from any thread.
+     * The book is opened on the main thread.
+     *
+     * @param player the player
+     * @param book   the book
+     * @return the future completed once the book was opened
+     * @throws NullPointerException     if the book is null
+     * @throws IllegalArgumentException if the book is not really a book
+     */
+    public CompletableFuture<Void> openBookAsync(Player player, ItemStack book) {
+        Validate.notNull(book, "The ItemStack is null! This is not an error with CitizensBooks," +
+                " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
+        Validate.isTrue(book.getType() == Material.WRITTEN_BOOK, "The ItemStack is not a written book! This is not an error with CitizensBooks," +
+                " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
+        return this.supplySync(player, () -> {
+            this.openBook(player, book);
+            return null;
+        });
+    }
+
+    /**
+     * Open a book for many players, spread over multiple ticks
+     * using the limits from config
+     *
+     * @param book    the book
+     * @param players the players
+     * @return the broadcast, already started
+     * @throws NullPointerException     if the book is null
+     * @throws IllegalArgumentException if the book is not really a book
+     */
+    public BookBroadcast broadcastBook(ItemStack book, Collection<? extends Player> players) {
+        return this.broadcastBook(book, players,
+                this.plugin.getSettingsSnapshot().getBroadcastPlayersPerTick(),
+                this.plugin.getSettingsSnapshot().getBroadcastMillisPerTick());
+    }
+
+    /**
+     * Open a book for many players, spread over multiple ticks
+     *
+     * @param book           the book
+     * @param players        the players
+     * @param playersPerTick maximum players served per tick, 0 or less for no limit
+     * @param millisPerTick  maximum time spent per tick, 0 or less for no limit
+     * @return the broadcast, already started
+     * @throws NullPointerException     if the book is null
+     * @throws IllegalArgumentException if the book is not really a book
+     */
+    public BookBroadcast broadcastBook(ItemStack book, Collection<? extends Player> players, int playersPerTick, long millisPerTick) {
+        Validate.notNull(book, "The ItemStack is null! This is not an error with CitizensBooks," +
+                " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
+        Validate.isTrue(book.getType() == Material.WRITTEN_BOOK, "The ItemStack is not a written book! This is not an error with CitizensBooks," +
+                " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
+        Validate.notNull(players, "The players collection is null! This is not an error with CitizensBooks," +
+                " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
+        return new BookBroadcast(this.plugin, book, players, playersPerTick, millisPerTick).start();
+    }
+
+    /**
+     * Check if the book has placeholders that PlaceholderAPI would replace
+     *
+     * @param book the book
+     * @return if the book needs to be rendered for every player
+     */
+    public boolean hasPlaceholders(ItemStack book) {
+        if (!this.plugin.isPlaceHolderEnabled())
+            return false;
+        if (!book.hasItemMeta())
+            return false;
+        BookMeta bookMeta = (BookMeta) book.getItemMeta();
+        if (bookMeta.hasTitle() && PlaceholderAPI.containsPlaceholders(bookMeta.getTitle()))
+            return true;
+        if (bookMeta.hasAuthor() && PlaceholderAPI.containsPlaceholders(bookMeta.getAuthor()))
+            return true;
+        if (bookMeta.hasPages())
+            for (String page : bookMeta.getPages())
+                if (PlaceholderAPI.containsPlaceholders(page))
+                    return true;
+        return false;
+    }
+
+    /**
+     * Replace the placeholders of a copy of the book, from any thread.
+     * The async-safe PlaceholderAPI placeholders are replaced on the I/O executor,
+     * or on the calling thread if its queue is full.
+     * If there are placeholders left that need the main thread, they are finished
+     * on the thread that owns the player. The NPC placeholders are replaced last,
+     * like {@link #placeholderHook(Player, ItemStack, NPC)} does.
+     *
+     * @param player the player
+     * @param book   the book
+     * @param npc    the NPC, or null
+     * @return the future completed with the rendered book
+     * @throws NullPointerException     if the book is null
+     * @throws IllegalArgumentException if the book is not really a book
+     */
+    public CompletableFuture<ItemStack> renderAsync(Player player, ItemStack book, NPC npc) {
+        Validate.notNull(book, "The ItemStack is null! This is not an error with CitizensBooks," +
+                " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
+        Validate.isTrue(book.getType() == Material.WRITTEN_BOOK, "The ItemStack is not a written book! This is not an error with CitizensBooks," +
+                " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
+        ItemStack copy = book.clone();
+        if (!this.plugin.isPlaceHolderEnabled() || !copy.hasItemMeta())
+            return CompletableFuture.completedFuture(copy);
+        NPCSnapshot snapshot = npc == null ? null : new NPCSnapshot(npc); // Citizens can only be used from the main thread
+        PlaceholderGuard guard = this.plugin.getPlaceholderGuard();
+        return this.plugin.getIOExecutor().supply(() -> new BookTemplate(copy)
+                .map(text -> guard.apply(player, text, true)))
+                .thenCompose(template -> template.anyMatch(guard::needsMainThread)
+                        ? this.supplySync(player, () -> template.map(text -> guard.apply(player, text)))
+                        : CompletableFuture.completedFuture(template))
+                .thenApply(template -> (snapshot == null ? template : template.map(snapshot::replace)).toBook()); // same order as placeholderHook
+    }
+
+    /**
+     * Render a copy of the book and open it.
+     * Books with enough pages are rendered with {@link #renderAsync(Player, ItemStack, NPC)},
+     * the small ones right away.
+     *
+     * @param player the player
+     * @param book   the book
+     * @param npc    the NPC, or null
+     * @throws NullPointerException     if the book is null
+     * @throws IllegalArgumentException if the book is not really a book
+     */
+    public void renderAndOpen(Player player, ItemStack book, NPC npc) {
+        Validate.notNull(book, "The ItemStack is null! This is not an error with CitizensBooks," +
+                " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
+        Validate.isTrue(book.getType() == Material.WRITTEN_BOOK, "The ItemStack is not a written book! This is not an error with CitizensBooks," +
+                " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
+        Settings settings = this.plugin.getSettingsSnapshot();
+        if (!settings.isAsyncRender() || new BookTemplate(book).getPageCount() < settings.getAsyncRenderMinPages()) {
+            this.openBook(player, this.placeholderHook(player, book.clone(), npc));
+            return;
+        }
+        this.renderAsync(player, book, npc).whenComplete((rendered, throwable) -> {
+            if (throwable != null)
+                this.plugin.getLogger().log(Level.WARNING, "Failed to render the book for " + player.getName() + "!", throwable);
+            else if (player.isOnline())
+                this.openBook(player, rendered);
+        });
     }
 
     public ItemStack placeholderHook(Player player, ItemStack book, NPC npc) {
@@ -267,53 +699,48 @@ public class CitizensBooksAPI {
                 " so please don't report it. Make sure the plugins that uses CitizensBooks as dependency are correctly configured.");
         if (!this.plugin.isPlaceHolderEnabled())
             return book;
-        if (book.hasItemMeta()) {
-            BookMeta bookMeta = (BookMeta) book.getItemMeta();
-            if (bookMeta.hasTitle()) {
-                if (npc == null) {
-                    bookMeta.setTitle(PlaceholderAPI.setPlaceholders(player, bookMeta.getTitle()));
-                } else {
-                    Location loc = npc.getStoredLocation();
-                    bookMeta.setTitle(PlaceholderAPI.setPlaceholders(player, bookMeta.getTitle())
-                            .replace("%npc_name%", npc.getName())
-                            .replace("%npc_id%", npc.getId() + "")
-                            .replace("%npc_loc_x%", loc.getX() + "")
-                            .replace("%npc_loc_y%", loc.getY() + "")
-                            .replace("%npc_loc_z%", loc.getZ() + "")
-                            .replace("%npc_loc_world%", loc.getWorld().getName()));
-                }
-            }
-            if (bookMeta.hasAuthor()) {
-                if (npc == null) {
-                    bookMeta.setAuthor(PlaceholderAPI.setPlaceholders(player, bookMeta.getAuthor()));
-                } else {
-                    Location loc = npc.getStoredLocation();
-                    bookMeta.setAuthor(PlaceholderAPI.setPlaceholders(player, bookMeta.getAuthor())
-                            .replace("%npc_name%", npc.getName())
-                            .replace("%npc_id%", npc.getId() + "")
-                            .replace("%npc_loc_x%", loc.getX() + "")
-                            .replace("%npc_loc_y%", loc.getY() + "")
-                            .replace("%npc_loc_z%", loc.getZ() + "")
-                            .replace("%npc_loc_world%", loc.getWorld().getName()));
-                }
-            }
-            if (bookMeta.hasPages()) {
-                if (npc == null) {
-                    bookMeta.setPages(PlaceholderAPI.setPlaceholders(player, bookMeta.getPages()));
-                } else {
-                    Location loc = npc.getStoredLocation();
-                    bookMeta.setPages(PlaceholderAPI.setPlaceholders(player, bookMeta.getPages()).stream().map(str -> str
-                            .replace("%npc_name%", npc.getName())
-                            .replace("%npc_id%", npc.getId() + "")
-                            .replace("%npc_loc_x%", loc.getX() + "")
-                            .replace("%npc_loc_y%", loc.getY() + "")
-                            .replace("%npc_loc_z%", loc.getZ() + "")
-                            .replace("%npc_loc_world%", loc.getWorld().getName())).collect(Collectors.toList()));
-                }
-            }
-            book.setItemMeta(bookMeta);
+        long start = this.plugin.getStats().start();
+        PlaceholderRenderEvent event = new PlaceholderRenderEvent();
+        event.begin();
+        NPCSnapshot snapshot = npc == null ? null : new NPCSnapshot(npc);
+        PlaceholderGuard guard = this.plugin.getPlaceholderGuard();
+        BookTemplate template = new BookTemplate(book).map(text -> guard.apply(player, text));
+        if (snapshot != null)
+            template.map(snapshot::replace); // the NPC placeholders go after PlaceholderAPI
+        ItemStack rendered = template.toBook();
+        event.end();
+        if (event.shouldCommit()) {
+            event.player = player == null ? null : player.getName();
+            event.npcId = npc == null ? -1 : npc.getId();
+            event.pages = BookEvent.pages(rendered);
+            event.commit();
         }
-        return book;
+        this.plugin.getStats().record(BookStats.Metric.PLACEHOLDER_HOOK, start);
+        return rendered;
+    }
+
+    private <T> CompletableFuture<T> supplyNow(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.completedFuture(supplier.get());
+        } catch (Exception ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    private <T> CompletableFuture<T> supplySync(Player player, Supplier<T> supplier) {
+        BookScheduler scheduler = this.plugin.getBookScheduler();
+        if (scheduler.isOwnedByCurrentThread(player))
+            return this.supplyNow(supplier);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (scheduler.runForEntity(player, () -> {
+            try {
+                future.complete(supplier.get());
+            } catch (Exception ex) {
+                future.completeExceptionally(ex);
+            }
+        }) == null)
+            future.completeExceptionally(new IllegalStateException("The player is no longer online!"));
+        return future;
     }
 
     public boolean hasPermission(CommandSender sender, String permission) {
@@ -32,13 +32,25 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.BookMeta;
 import org.bukkit.util.StringUtil;
+import ro.nicuch.citizensbooks.trait.BookTrait;
+import ro.nicuch.citizensbooks.utils.BookStats;
+import ro.nicuch.citizensbooks.utils.Histogram;
+import ro.nicuch.citizensbooks.utils.MemoryEstimator;
+import ro.nicuch.citizensbooks.utils.MemoryReport;
 import ro.nicuch.citizensbooks.utils.Message;
+import ro.nicuch.citizensbooks.utils.OpenSource;
+import ro.nicuch.citizensbooks.utils.PlaceholderGuard;
+import ro.nicuch.citizensbooks.utils.ReloadReport;
 import ro.nicuch.citizensbooks.utils.References;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
 
 public class CitizensBooksCommand implements TabExecutor {
     private final CitizensBooksPlugin plugin;
@@ -50,13 +62,17 @@ public class CitizensBooksCommand implements TabExecutor {
 
     @Override
     public boolean onCommand(CommandSender sender, Command cmd, String label, String[] args) {
-        Optional<NPC> npc = this.plugin.isCitizensEnabled() ? Optional.ofNullable(CitizensAPI.getDefaultNPCSelector().getSelected(sender)) : Optional.empty();
-        int npcId = this.plugin.isCitizensEnabled() ? npc.map(NPC::getId).orElse(0) : 0;//using only npc.map(NPC::getId()).orElse(0); causes NoClassFoundException
-
-        String bookPathBasedByHand = "save." + npcId + ".right_side"; //Default
+        long start = this.plugin.getStats().start();
+        try {
+            return this.execute(sender, args);
+        } finally {
+            this.plugin.getStats().record(BookStats.Metric.COMMAND, args.length > 0 ? args[0] : null, start);
+        }
+    }
 
-        if (args.length > 1 && "left".equalsIgnoreCase(args[1]))
-            bookPathBasedByHand = "save." + npcId + ".left_side";
+    private boolean execute(CommandSender sender, String[] args) {
+        Optional<NPC> npc = this.plugin.isCitizensEnabled() ? Optional.ofNullable(CitizensAPI.getDefaultNPCSelector().getSelected(sender)) : Optional.empty();
+        boolean rightSide = args.length <= 1 || !"left".equalsIgnoreCase(args[1]); //Right is the default
 
         if (args.length > 0) {
             switch (args[0]) {
@@ -103,13 +119,13 @@ public class CitizensBooksCommand implements TabExecutor {
                                                                 nbtItem.setString(References.NBTAPI_ITEM_RIGHT_KEY, filter_name);
                                                             }
                                                             this.api.getDistribution().setItemInHand(player, item);
-                                                            sender.sendMessage(this.plugin.getMessage(Message.FILTER_APPLIED_TO_ITEM).replace("%filter_name%", filter_name));
+                                                            sender.sendMessage(this.plugin.getMessage(Message.FILTER_APPLIED_TO_ITEM, "%filter_name%", filter_name));
                                                         } else
                                                             sender.sendMessage(this.plugin.getMessage(Message.NO_ITEM_IN_HAND));
                                                     } else
                                                         sender.sendMessage(this.plugin.getMessage(Message.FILTER_NOT_FOUND));
                                                 } else
-                                                    sender.sendMessage(this.plugin.getMessage(Message.FILTER_NAME_INVALID).replace("%invalid_filter_name%", filter_name));
+                                                    sender.sendMessage(this.plugin.getMessage(Message.FILTER_NAME_INVALID, "%invalid_filter_name%", filter_name));
                                             } else
                                                 sender.sendMessage(this.plugin.getMessage(Message.USAGE_ACTIONITEM_SET));
                                         } else
@@ -155,18 +171,26 @@ public class CitizensBooksCommand implements TabExecutor {
                             if (this.api.isValidName(filter_name)) {
                                 if (this.api.hasFilter(filter_name)) {
                                     if ("*".equals(args[2]) || "@a".equals(args[2]))
-                                        Bukkit.getOnlinePlayers().forEach(p -> this.api.openBook(p, this.api.placeholderHook(p, this.api.getFilter(filter_name), null)));
+                                        this.api.broadcastBook(this.api.getFilter(filter_name), Bukkit.getOnlinePlayers())
+                                                .onProgress(broadcast -> sender.sendMessage(this.plugin.getMessage(Message.FORCEOPEN_PROGRESS,
+                                                        "%opened%", broadcast.getProcessed() + "",
+                                                        "%total%", broadcast.getTotal() + "")), 20)
+                                                .onComplete(broadcast -> sender.sendMessage(this.plugin.getMessage(Message.FORCEOPEN_COMPLETED,
+                                                        "%opened%", broadcast.getOpened() + "",
+                                                        "%total%", broadcast.getTotal() + "",
+                                                        "%ticks%", broadcast.getTicks() + "")));
                                     else {
                                         Optional<Player> optionalPlayer = this.api.getPlayer(args[2]);
                                         if (optionalPlayer.isPresent()) {
-                                            this.api.openBook(optionalPlayer.get(), this.api.placeholderHook(optionalPlayer.get(), this.api.getFilter(filter_name), null));
+                                            this.plugin.getStats().opened(OpenSource.FORCEOPEN);
+                                            this.api.renderAndOpen(optionalPlayer.get(), this.api.getFilter(filter_name), null);
                                         } else
                                             sender.sendMessage(this.plugin.getMessage(Message.PLAYER_NOT_FOUND));
                                     }
                                 } else
                                     sender.sendMessage(this.plugin.getMessage(Message.FILTER_NOT_FOUND));
                             } else
-                                sender.sendMessage(this.plugin.getMessage(Message.FILTER_NAME_INVALID).replace("%invalid_filter_name%", filter_name));
+                                sender.sendMessage(this.plugin.getMessage(Message.FILTER_NAME_INVALID, "%invalid_filter_name%", filter_name));
                         } else
                             sender.sendMessage(this.plugin.getMessage(Message.USAGE_FORCEOPEN));
                     } else
@@ -175,6 +199,113 @@ public class CitizensBooksCommand implements TabExecutor {
                 case "about":
                     this.sendAbout(sender);
                     break;
+                case "placeholders":
+                    if (this.api.hasPermission(sender, "npcbook.command.placeholders")) {
+                        if (args.length > 1) {
+                            if ("reset".equalsIgnoreCase(args[1])) {
+                                this.plugin.getPlaceholderGuard().reset();
+                                sender.sendMessage(this.plugin.getMessage(Message.PLACEHOLDERS_RESET));
+                            } else
+                                sender.sendMessage(this.plugin.getMessage(Message.USAGE_PLACEHOLDERS));
+                        } else
+                            this.sendPlaceholders(sender);
+                    } else
+                        sender.sendMessage(this.plugin.getMessage(Message.NO_PERMISSION));
+                    break;
+                case "stats":
+                    if (this.api.hasPermission(sender, "npcbook.command.stats")) {
+                        BookStats stats = this.plugin.getStats();
+                        if (!stats.isEnabled()) {
+                            sender.sendMessage(this.plugin.getMessage(Message.STATS_DISABLED));
+                            break;
+                        }
+                        String window = args.length > 1 ? args[1].toLowerCase() : "all";
+                        if ("reset".equals(window)) {
+                            stats.reset();
+                            sender.sendMessage(this.plugin.getMessage(Message.STATS_RESET));
+                            break;
+                        }
+                        long seconds = this.getStatsWindow(window);
+                        if (seconds < 0) {
+                            sender.sendMessage(this.plugin.getMessage(Message.USAGE_STATS));
+                            break;
+                        }
+                        // the histograms are aggregated off the main thread
+                        this.plugin.getIOExecutor().supply(() -> stats.view(seconds)).whenComplete((view, throwable) -> this.plugin.getBookScheduler().runGlobal(() -> {
+                            if (throwable != null)
+                                this.plugin.getLogger().log(Level.WARNING, "Failed to aggregate the statistics!", throwable);
+                            else
+                                this.sendStats(sender, window, view);
+                        }));
+                    } else
+                        sender.sendMessage(this.plugin.getMessage(Message.NO_PERMISSION));
+                    break;
+                case "memory":
+                    if (this.api.hasPermission(sender, "npcbook.command.memory")) {
+                        // the books are collected here, but measured off the main thread
+                        Map<String, ItemStack> filters = new LinkedHashMap<>();
+                        this.api.getFilterLinks().forEach((name, link) -> filters.put("filter " + name, link.getBook()));
+                        Map<String, ItemStack> npcBooks = new LinkedHashMap<>();
+                        if (this.plugin.isCitizensEnabled())
+                            for (NPC each : CitizensAPI.getNPCRegistry()) {
+                                BookTrait trait = each.getTraitNullable(BookTrait.class);
+                                if (trait == null)
+                                    continue;
+                                if (trait.getBook(true) != null)
+                                    npcBooks.put("npc " + each.getId() + " right", trait.getBook(true));
+                                if (trait.getBook(false) != null)
+                                    npcBooks.put("npc " + each.getId() + " left", trait.getBook(false));
+                            }
+                        Map<String, ItemStack> joinBook = new LinkedHashMap<>();
+                        if (this.plugin.getSettings().isItemStack("join_book"))
+                            joinBook.put("join book", this.plugin.getSettings().getItemStack("join_book"));
+                        this.plugin.getIOExecutor().supply(() -> new MemoryReport.Builder(5)
+                                .books("filters", filters)
+                                .books("npc_books", npcBooks)
+                                .books("join_book", joinBook)
+                                .cache("click_cooldown", this.plugin.getClickLimiter().size(), this.plugin.getClickLimiter().estimateSize())
+                                .cache("join_book_cache", this.plugin.getJoinBookCache().size(), this.plugin.getJoinBookCache().estimateSize())
+                                .cache("placeholder_guard", this.plugin.getPlaceholderGuard().size(), this.plugin.getPlaceholderGuard().estimateSize())
+                                .build()
+                        ).whenComplete((report, throwable) -> this.plugin.getBookScheduler().runGlobal(() -> {
+                            if (throwable != null)
+                                this.plugin.getLogger().log(Level.WARNING, "Failed to estimate the memory use!", throwable);
+                            else
+                                this.sendMemory(sender, report);
+                        }));
+                    } else
+                        sender.sendMessage(this.plugin.getMessage(Message.NO_PERMISSION));
+                    break;
+                case "selftest":
+                    if (!this.isPlayer(sender)) {
+                        sender.sendMessage(this.plugin.getMessage(Message.CONSOLE_CANNOT_USE_COMMAND));
+                        break;
+                    }
+                    if (this.api.hasPermission(sender, "npcbook.command.selftest")) {
+                        if (args.length > 1) {
+                            String filter_name = args[1];
+                            if (this.api.isValidName(filter_name)) {
+                                if (this.api.hasFilter(filter_name)) {
+                                    int runs = 10;
+                                    if (args.length > 2)
+                                        try {
+                                            runs = Integer.parseInt(args[2]);
+                                        } catch (NumberFormatException ex) {
+                                            runs = 0;
+                                        }
+                                    if (runs >= 1 && runs <= 100)
+                                        this.selfTest((Player) sender, filter_name, runs);
+                                    else
+                                        sender.sendMessage(this.plugin.getMessage(Message.USAGE_SELFTEST));
+                                } else
+                                    sender.sendMessage(this.plugin.getMessage(Message.FILTER_NOT_FOUND));
+                            } else
+                                sender.sendMessage(this.plugin.getMessage(Message.FILTER_NAME_INVALID, "%invalid_filter_name%", filter_name));
+                        } else
+                            sender.sendMessage(this.plugin.getMessage(Message.USAGE_SELFTEST));
+                    } else
+                        sender.sendMessage(this.plugin.getMessage(Message.NO_PERMISSION));
+                    break;
                 case "reload":
                     if (this.api.hasPermission(sender, "npcbook.command.reload")) {
                         /*
@@ -184,9 +315,16 @@ public class CitizensBooksCommand implements TabExecutor {
                          * If config file is edited, the config is
                          * overwritten, so the edit is lost
                          */
-                        this.plugin.reloadSettings();
-                        this.api.reloadFilters(); // reload filters too
-                        sender.sendMessage(this.plugin.getMessage(Message.CONFIG_RELOADED));
+                        sender.sendMessage(this.plugin.getMessage(Message.RELOAD_STARTED));
+                        // the config and the filters are read on the I/O executor, then swapped in at once
+                        this.plugin.reloadAsync().whenComplete((report, throwable) -> this.plugin.getBookScheduler().runGlobal(() -> {
+                            if (throwable != null) {
+                                Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                                this.plugin.getLogger().log(Level.WARNING, "Failed to reload the config!", cause);
+                                sender.sendMessage(this.plugin.getMessage(Message.RELOAD_FAILED, "%error%", String.valueOf(cause.getMessage())));
+                            } else
+                                this.sendReloadReport(sender, report);
+                        }));
                     } else
                         sender.sendMessage(this.plugin.getMessage(Message.NO_PERMISSION));
                     break;
@@ -197,11 +335,24 @@ public class CitizensBooksCommand implements TabExecutor {
                     }
                     if (this.api.hasPermission(sender, "npcbook.command.set")) {
                         if (this.plugin.isCitizensEnabled()) {
-                            if (this.hasBookInHand((Player) sender)) {
+                            if (args.length > 2) {
+                                // only the filter name is stored, the book is looked up when it's opened
+                                String filter_name = args[2];
+                                if (this.api.isValidName(filter_name)) {
+                                    if (this.api.hasFilter(filter_name)) {
+                                        if (npc.isPresent()) {
+                                            npc.get().getOrAddTrait(BookTrait.class).setFilter(rightSide, filter_name); //Saved by Citizens with the NPC
+                                            sender.sendMessage(this.plugin.getMessage(Message.SET_BOOK_SUCCESSFULLY, "%npc%", npc.get().getFullName()));
+                                        } else
+                                            sender.sendMessage(this.plugin.getMessage(Message.NO_NPC_SELECTED));
+                                    } else
+                                        sender.sendMessage(this.plugin.getMessage(Message.FILTER_NOT_FOUND));
+                                } else
+                                    sender.sendMessage(this.plugin.getMessage(Message.FILTER_NAME_INVALID, "%invalid_filter_name%", filter_name));
+                            } else if (this.hasBookInHand((Player) sender)) {
                                 if (npc.isPresent()) {
-                                    this.plugin.getSettings().set(bookPathBasedByHand, this.getItemFromHand((Player) sender));
-                                    this.plugin.saveSettings(); //Allways saved
-                                    sender.sendMessage(this.plugin.getMessage(Message.SET_BOOK_SUCCESSFULLY).replace("%npc%", npc.get().getFullName()));
+                                    npc.get().getOrAddTrait(BookTrait.class).setBook(rightSide, this.getItemFromHand((Player) sender)); //Saved by Citizens with the NPC
+                                    sender.sendMessage(this.plugin.getMessage(Message.SET_BOOK_SUCCESSFULLY, "%npc%", npc.get().getFullName()));
                                 } else
                                     sender.sendMessage(this.plugin.getMessage(Message.NO_NPC_SELECTED));
                             } else
@@ -212,15 +363,30 @@ public class CitizensBooksCommand implements TabExecutor {
                         sender.sendMessage(this.plugin.getMessage(Message.NO_PERMISSION));
                     break;
                 case "setjoin":
-                    if (!this.isPlayer(sender)) {
+                    if (args.length <= 1 && !this.isPlayer(sender)) { // the console can set a filter, it has no book in hand
                         sender.sendMessage(this.plugin.getMessage(Message.CONSOLE_CANNOT_USE_COMMAND));
                         break;
                     }
                     if (this.api.hasPermission(sender, "npcbook.command.setjoin")) {
-                        if (this.hasBookInHand((Player) sender)) {
+                        if (args.length > 1) {
+                            // only the filter name is stored, the book is looked up when it's opened
+                            String filter_name = args[1];
+                            if (this.api.isValidName(filter_name)) {
+                                if (this.api.hasFilter(filter_name)) {
+                                    this.plugin.getSettings().set("join_book", null);
+                                    this.plugin.getSettings().set("join_book_filter", filter_name);
+                                    this.plugin.getSettings().set("join_book_last_change", System.currentTimeMillis());
+                                    this.plugin.applySettings(); //Always saved
+                                    sender.sendMessage(this.plugin.getMessage(Message.SET_JOIN_BOOK_SUCCESSFULLY));
+                                } else
+                                    sender.sendMessage(this.plugin.getMessage(Message.FILTER_NOT_FOUND));
+                            } else
+                                sender.sendMessage(this.plugin.getMessage(Message.FILTER_NAME_INVALID, "%invalid_filter_name%", filter_name));
+                        } else if (this.hasBookInHand((Player) sender)) {
                             this.plugin.getSettings().set("join_book", this.getItemFromHand((Player) sender));
+                            this.plugin.getSettings().set("join_book_filter", "");
                             this.plugin.getSettings().set("join_book_last_change", System.currentTimeMillis());
-                            this.plugin.saveSettings(); //Always saved
+                            this.plugin.applySettings(); //Always saved
                             sender.sendMessage(this.plugin.getMessage(Message.SET_JOIN_BOOK_SUCCESSFULLY));
                         } else
                             sender.sendMessage(this.plugin.getMessage(Message.NO_BOOK_IN_HAND));
@@ -231,11 +397,13 @@ public class CitizensBooksCommand implements TabExecutor {
                     if (this.api.hasPermission(sender, "npcbook.command.remove")) {
                         if (this.plugin.isCitizensEnabled()) {
                             if (npc.isPresent()) {
-                                /* if (this.plugin.getSettings().isItemStack("save." + npcId)) {} */
-                                // Useless check, we just remove the data if exist or not
-                                this.plugin.getSettings().set(bookPathBasedByHand, null);
-                                this.plugin.saveSettings(); // Save is not mandatory, because the value may exist
-                                sender.sendMessage(this.plugin.getMessage(Message.REMOVED_BOOK_SUCCESSFULLY).replace("%npc%", npc.get().getFullName()));
+                                BookTrait trait = npc.get().getTraitNullable(BookTrait.class);
+                                if (trait != null) {
+                                    trait.setBook(rightSide, null);
+                                    if (!trait.hasBooks())
+                                        npc.get().removeTrait(BookTrait.class); // nothing left to save
+                                }
+                                sender.sendMessage(this.plugin.getMessage(Message.REMOVED_BOOK_SUCCESSFULLY, "%npc%", npc.get().getFullName()));
                             } else
                                 sender.sendMessage(this.plugin.getMessage(Message.NO_NPC_SELECTED));
                         } else
@@ -246,8 +414,9 @@ public class CitizensBooksCommand implements TabExecutor {
                 case "remjoin":
                     if (this.api.hasPermission(sender, "npcbook.command.remjoin")) {
                         this.plugin.getSettings().set("join_book", null);
+                        this.plugin.getSettings().set("join_book_filter", "");
                         this.plugin.getSettings().set("join_book_last_change", 0);
-                        this.plugin.saveSettings(); //Always saved
+                        this.plugin.applySettings(); //Always saved
                         sender.sendMessage(this.plugin.getMessage(Message.REMOVED_JOIN_BOOK_SUCCESSFULLY));
                     } else
                         sender.sendMessage(this.plugin.getMessage(Message.NO_PERMISSION));
@@ -260,12 +429,13 @@ public class CitizensBooksCommand implements TabExecutor {
                     if (this.api.hasPermission(sender, "npcbook.command.getbook")) {
                         if (this.plugin.isCitizensEnabled()) {
                             if (npc.isPresent()) {
-                                if (this.plugin.getSettings().isItemStack(bookPathBasedByHand)) {
-                                    ItemStack book = this.plugin.getSettings().getItemStack(bookPathBasedByHand, new ItemStack(Material.WRITTEN_BOOK));
+                                BookTrait trait = npc.get().getTraitNullable(BookTrait.class);
+                                ItemStack book = trait == null ? null : trait.resolveBook(rightSide);
+                                if (book != null) {
                                     ((Player) sender).getInventory().addItem(book);
                                     sender.sendMessage(this.plugin.getMessage(Message.BOOK_RECIVED));
                                 } else
-                                    sender.sendMessage(this.plugin.getMessage(Message.NO_BOOK_FOR_NPC).replace("%npc%", npc.get().getFullName()));
+                                    sender.sendMessage(this.plugin.getMessage(Message.NO_BOOK_FOR_NPC, "%npc%", npc.get().getFullName()));
                             } else
                                 sender.sendMessage(
                                         this.plugin.getMessage(Message.NO_NPC_SELECTED));
@@ -297,12 +467,12 @@ public class CitizensBooksCommand implements TabExecutor {
                                 if (this.api.isValidName(filter_name)) {
                                     this.plugin.getSettings().set("commands." + command_name + ".filter_name", filter_name);
                                     this.plugin.getSettings().set("commands." + command_name + ".permission", args.length > 3 ? args[3] : "none"); //Optional permission
-                                    this.plugin.saveSettings();
-                                    sender.sendMessage(this.plugin.getMessage(Message.SET_CUSTOM_COMMAND_SUCCESSFULLY).replace("%command_name%", args[1]).replace("%filter_name%", filter_name));
+                                    this.plugin.applySettings();
+                                    sender.sendMessage(this.plugin.getMessage(Message.SET_CUSTOM_COMMAND_SUCCESSFULLY, "%command_name%", args[1], "%filter_name%", filter_name));
                                 } else
-                                    sender.sendMessage(this.plugin.getMessage(Message.FILTER_NAME_INVALID).replace("%invalid_filter_name%", filter_name));
+                                    sender.sendMessage(this.plugin.getMessage(Message.FILTER_NAME_INVALID, "%invalid_filter_name%", filter_name));
                             } else
-                                sender.sendMessage(this.plugin.getMessage(Message.COMMAND_NAME_INVALID).replace("%invalid_command_name%", command_name));
+                                sender.sendMessage(this.plugin.getMessage(Message.COMMAND_NAME_INVALID, "%invalid_command_name%", command_name));
                         } else
                             sender.sendMessage(this.plugin.getMessage(Message.USAGE_SETCMD));
                     } else
@@ -314,10 +484,10 @@ public class CitizensBooksCommand implements TabExecutor {
                             String command_name = args[1];
                             if (this.api.isValidName(command_name)) {
                                 this.plugin.getSettings().set("commands." + command_name, null);
-                                this.plugin.saveSettings();
-                                sender.sendMessage(this.plugin.getMessage(Message.REMOVED_CUSTOM_COMMAND_SUCCESSFULLY).replace("%command%", command_name));
+                                this.plugin.applySettings();
+                                sender.sendMessage(this.plugin.getMessage(Message.REMOVED_CUSTOM_COMMAND_SUCCESSFULLY, "%command%", command_name));
                             } else
-                                sender.sendMessage(this.plugin.getMessage(Message.COMMAND_NAME_INVALID).replace("%invalid_command_name%", command_name));
+                                sender.sendMessage(this.plugin.getMessage(Message.COMMAND_NAME_INVALID, "%invalid_command_name%", command_name));
                         } else
                             sender.sendMessage(this.plugin.getMessage(Message.USAGE_REMCMD));
                     } else
@@ -338,11 +508,11 @@ public class CitizensBooksCommand implements TabExecutor {
                                             if (this.api.isValidName(filter_name)) {
                                                 if (this.hasBookInHand((Player) sender)) {
                                                     this.api.createFilter(filter_name, this.getItemFromHand((Player) sender));
-                                                    sender.sendMessage(this.plugin.getMessage(Message.FILTER_SAVED).replace("%filter_name%", filter_name));
+                                                    sender.sendMessage(this.plugin.getMessage(Message.FILTER_SAVED, "%filter_name%", filter_name));
                                                 } else
                                                     sender.sendMessage(this.plugin.getMessage(Message.NO_BOOK_IN_HAND));
                                             } else
-                                                sender.sendMessage(this.plugin.getMessage(Message.FILTER_NAME_INVALID).replace("%invalid_filter_name%", filter_name));
+                                                sender.sendMessage(this.plugin.getMessage(Message.FILTER_NAME_INVALID, "%invalid_filter_name%", filter_name));
                                         } else
                                             sender.sendMessage(this.plugin.getMessage(Message.USAGE_FILTER_SET));
                                     } else
@@ -354,9 +524,9 @@ public class CitizensBooksCommand implements TabExecutor {
                                             String filter_name = args[2];
                                             if (this.api.isValidName(filter_name)) {
                                                 this.api.removeFilter(filter_name);
-                                                sender.sendMessage(this.plugin.getMessage(Message.FILTER_REMOVED).replace("%filter_name%", filter_name));
+                                                sender.sendMessage(this.plugin.getMessage(Message.FILTER_REMOVED, "%filter_name%", filter_name));
                                             } else
-                                                sender.sendMessage(this.plugin.getMessage(Message.FILTER_NAME_INVALID).replace("%invalid_filter_name%", filter_name));
+                                                sender.sendMessage(this.plugin.getMessage(Message.FILTER_NAME_INVALID, "%invalid_filter_name%", filter_name));
                                         } else
                                             sender.sendMessage(this.plugin.getMessage(Message.USAGE_FILTER_REMOVE));
                                     } else
@@ -379,7 +549,7 @@ public class CitizensBooksCommand implements TabExecutor {
                                                 } else
                                                     sender.sendMessage(this.plugin.getMessage(Message.NO_BOOK_FOR_FILTER));
                                             } else
-                                                sender.sendMessage(this.plugin.getMessage(Message.FILTER_NAME_INVALID).replace("%invalid_filter_name%", filter_name));
+                                                sender.sendMessage(this.plugin.getMessage(Message.FILTER_NAME_INVALID, "%invalid_filter_name%", filter_name));
                                         } else
                                             sender.sendMessage(this.plugin.getMessage(Message.USAGE_FILTER_GETBOOK));
                                     } else
@@ -440,6 +610,14 @@ public class CitizensBooksCommand implements TabExecutor {
                 commands.add("forceopen");
             if (this.api.hasPermission(sender, "npcbook.command.actionitem"))
                 commands.add("actionitem");
+            if (this.api.hasPermission(sender, "npcbook.command.placeholders"))
+                commands.add("placeholders");
+            if (this.api.hasPermission(sender, "npcbook.command.stats"))
+                commands.add("stats");
+            if (this.api.hasPermission(sender, "npcbook.command.selftest"))
+                commands.add("selftest");
+            if (this.api.hasPermission(sender, "npcbook.command.memory"))
+                commands.add("memory");
             StringUtil.copyPartialMatches(args[0], commands, completions);
         } else if (args.length == 2) {
             switch (args[0]) {
@@ -464,7 +642,7 @@ public class CitizensBooksCommand implements TabExecutor {
                     break;
                 case "remcmd":
                     if (this.api.hasPermission(sender, "npcbook.command.remcmd"))
-                        commands.addAll(this.plugin.getSettings().getConfigurationSection("commands").getKeys(false));
+                        commands.addAll(this.plugin.getSettingsSnapshot().getCommands().keySet());
                     break;
                 case "set":
                     if (this.api.hasPermission(sender, "npcbook.command.set"))
@@ -478,9 +656,26 @@ public class CitizensBooksCommand implements TabExecutor {
                     if (this.api.hasPermission(sender, "npcbook.command.getbook"))
                         commands.addAll(List.of("right", "left"));
                     break;
+                case "setjoin":
+                    if (this.api.hasPermission(sender, "npcbook.command.setjoin"))
+                        commands.addAll(this.api.getFilters());
+                    break;
                 case "help":
                     if (this.api.hasPermission(sender, "npcbook.command"))
-                        commands.addAll(List.of("1", "2", "3"));
+                        commands.addAll(List.of("1", "2", "3", "4"));
+                    break;
+                case "placeholders":
+                    if (this.api.hasPermission(sender, "npcbook.command.placeholders"))
+                        commands.add("reset");
+                    break;
+                case "stats":
+                    if (this.api.hasPermission(sender, "npcbook.command.stats"))
+                        commands.addAll(List.of("reset", "1m", "5m", "15m"));
+                    break;
+                case "selftest":
+                    if (this.api.hasPermission(sender, "npcbook.command.selftest"))
+                        commands.addAll(this.api.getFilters());
+                    break;
                 default:
                     break;
             }
@@ -505,6 +700,10 @@ public class CitizensBooksCommand implements TabExecutor {
                     if (this.api.hasPermission(sender, "npcbook.command.setcmd"))
                         commands.addAll(this.api.getFilters());
                     break;
+                case "set":
+                    if (this.api.hasPermission(sender, "npcbook.command.set"))
+                        commands.addAll(this.api.getFilters());
+                    break;
                 case "actionitem":
                 case "ai":
                     switch (args[1]) {
@@ -585,42 +784,205 @@ public class CitizensBooksCommand implements TabExecutor {
     }
 
     private void sendHelp(CommandSender sender, int page) {
-        if (page < 1 || page > 3) page = 1;
+        if (page < 1 || page > 4) page = 1;
         sender.sendMessage("");
-        sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_INFO).replace("%page%", page + ""));
+        sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_INFO, "%page%", page + ""));
         sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_ARGUMENTS));
         sender.sendMessage("");
         if (page == 2) {
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_RELOAD).split("\\$"));
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_FORCEOPEN).split("\\$"));
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_GETBOOK).split("\\$"));
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_OPENBOOK).split("\\$"));
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_SETCMD).split("\\$"));
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_REMCMD).split("\\$"));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_RELOAD));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_FORCEOPEN));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_GETBOOK));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_OPENBOOK));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_SETCMD));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_REMCMD));
         } else if (page == 3) {
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_FILTER_SET).split("\\$"));
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_FILTER_REMOVE).split("\\$"));
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_FILTER_GETBOOK).split("\\$"));
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_ACTIONITEM_SET).split("\\$"));
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_ACTIONITEM_REMOVE).split("\\$"));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_FILTER_SET));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_FILTER_REMOVE));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_FILTER_GETBOOK));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_ACTIONITEM_SET));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_ACTIONITEM_REMOVE));
+        } else if (page == 4) {
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_PLACEHOLDERS));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_STATS));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_SELFTEST));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_MEMORY));
         } else {
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_HELP).split("\\$"));
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_ABOUT).split("\\$"));
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_SET).split("\\$"));
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_REMOVE).split("\\$"));
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_SETJOIN).split("\\$"));
-            sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_REMJOIN).split("\\$"));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_HELP));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_ABOUT));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_SET));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_REMOVE));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_SETJOIN));
+            sender.sendMessage(this.plugin.getMessageLines(Message.HELP_REMJOIN));
         }
         sender.sendMessage("");
     }
 
+    private void sendReloadReport(CommandSender sender, ReloadReport report) {
+        sender.sendMessage(this.plugin.getMessage(Message.CONFIG_RELOADED));
+        if (!report.hasChanges()) {
+            sender.sendMessage(this.plugin.getMessage(Message.RELOAD_NO_CHANGES));
+            return;
+        }
+        for (Map.Entry<ReloadReport.Category, ReloadReport.Diff> entry : report.getDiffs().entrySet()) {
+            ReloadReport.Diff diff = entry.getValue();
+            if (diff.isEmpty())
+                continue;
+            List<String> names = new ArrayList<>();
+            diff.getAdded().forEach(name -> names.add("+" + name));
+            diff.getChanged().forEach(name -> names.add("~" + name));
+            diff.getRemoved().forEach(name -> names.add("-" + name));
+            String shown = names.size() > 10 ? String.join(" ", names.subList(0, 10)) + " ..." : String.join(" ", names);
+            sender.sendMessage(this.plugin.getMessageNoHeader(Message.RELOAD_CHANGES,
+                    "%category%", entry.getKey().getDisplayName(),
+                    "%added%", diff.getAdded().size() + "",
+                    "%changed%", diff.getChanged().size() + "",
+                    "%removed%", diff.getRemoved().size() + "",
+                    "%names%", shown));
+        }
+    }
+
+    private void sendPlaceholders(CommandSender sender) {
+        PlaceholderGuard guard = this.plugin.getPlaceholderGuard();
+        List<PlaceholderGuard.Entry> offenders = guard.getOffenders();
+        if (offenders.isEmpty()) {
+            sender.sendMessage(this.plugin.getMessage(Message.PLACEHOLDERS_NONE));
+            return;
+        }
+        sender.sendMessage(this.plugin.getMessage(Message.PLACEHOLDERS_HEADER, "%budget%", guard.getBudgetMillis() + ""));
+        for (PlaceholderGuard.Entry entry : offenders)
+            sender.sendMessage(this.plugin.getMessageNoHeader(Message.PLACEHOLDERS_ENTRY,
+                    "%placeholder%", "%" + entry.getIdentifier() + "_*%",
+                    "%state%", entry.getState().name().toLowerCase().replace('_', '-'),
+                    "%average%", String.format("%.2f", entry.getAverageMillis()),
+                    "%max%", String.format("%.2f", entry.getMaxMillis()),
+                    "%slow%", entry.getSlowCalls() + "",
+                    "%calls%", entry.getCalls() + "",
+                    "%skipped%", entry.getSkipped() + ""));
+    }
+
+    /**
+     * @param window all, 1m, 5m or 15m
+     * @return the window in seconds, 0 for all, or -1 if invalid
+     */
+    private long getStatsWindow(String window) {
+        switch (window) {
+            case "all":
+                return 0;
+            case "1m":
+                return 60;
+            case "5m":
+                return 5 * 60;
+            case "15m":
+                return 15 * 60;
+            default:
+                return -1;
+        }
+    }
+
+    private void sendStats(CommandSender sender, String window, BookStats.View view) {
+        if (view.getEntries().isEmpty() && view.getCaches().isEmpty()) {
+            sender.sendMessage(this.plugin.getMessage(Message.STATS_NONE));
+            return;
+        }
+        sender.sendMessage(this.plugin.getMessage(Message.STATS_HEADER,
+                "%window%", window,
+                "%seconds%", String.format("%.0f", view.getSeconds())));
+        for (BookStats.View.Entry entry : view.getEntries())
+            sender.sendMessage(this.plugin.getMessageNoHeader(Message.STATS_ENTRY,
+                    "%metric%", entry.getMetric(),
+                    "%count%", entry.getCount() + "",
+                    "%rate%", String.format("%.2f", entry.getRate()),
+                    "%p50%", String.format("%.2f", entry.getP50Millis()),
+                    "%p99%", String.format("%.2f", entry.getP99Millis()),
+                    "%max%", String.format("%.2f", entry.getMaxMillis())));
+        for (BookStats.View.CacheEntry cache : view.getCaches())
+            sender.sendMessage(this.plugin.getMessageNoHeader(Message.STATS_CACHE,
+                    "%cache%", cache.getCache(),
+                    "%hit_rate%", String.format("%.1f", cache.getHitRate()),
+                    "%hits%", cache.getHits() + "",
+                    "%total%", cache.getTotal() + ""));
+    }
+
+    /**
+     * Render and open the filter many times for the player, on the main thread,
+     * and report what a single open costs
+     */
+    private void selfTest(Player player, String filterName, int runs) {
+        Histogram render = new Histogram();
+        Histogram open = new Histogram();
+        ItemStack filter = this.api.getFilter(filterName);
+        long started = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            ItemStack book = this.api.placeholderHook(player, filter.clone(), null);
+            long rendered = System.nanoTime();
+            this.api.openBook(player, book);
+            render.record(rendered - start);
+            open.record(System.nanoTime() - rendered);
+        }
+        double totalMillis = (System.nanoTime() - started) / 1_000_000D;
+        player.sendMessage(this.plugin.getMessage(Message.SELFTEST_HEADER,
+                "%filter_name%", filterName,
+                "%runs%", runs + "",
+                "%total%", String.format("%.2f", totalMillis)));
+        this.sendSelfTestEntry(player, "render", render.snapshot());
+        this.sendSelfTestEntry(player, "open", open.snapshot());
+        double perOpen = totalMillis / runs;
+        player.sendMessage(this.plugin.getMessageNoHeader(Message.SELFTEST_SUMMARY,
+                "%average%", String.format("%.2f", perOpen),
+                "%tick_percent%", String.format("%.1f", perOpen * 100D / 50D),
+                "%budget_percent%", String.format("%.1f", perOpen * 100D / this.plugin.getTickBudget().getBudgetMillis())));
+    }
+
+    private void sendSelfTestEntry(CommandSender sender, String step, Histogram.Snapshot snapshot) {
+        sender.sendMessage(this.plugin.getMessageNoHeader(Message.SELFTEST_ENTRY,
+                "%step%", step,
+                "%average%", String.format("%.2f", snapshot.getSum() / (double) snapshot.getCount() / 1_000_000D),
+                "%p50%", String.format("%.2f", snapshot.getPercentile(50) / 1_000_000D),
+                "%p99%", String.format("%.2f", snapshot.getPercentile(99) / 1_000_000D),
+                "%max%", String.format("%.2f", snapshot.getMax() / 1_000_000D)));
+    }
+
+    private void sendMemory(CommandSender sender, MemoryReport report) {
+        sender.sendMessage(this.plugin.getMessage(Message.MEMORY_HEADER, "%total%", MemoryEstimator.format(report.getTotalBytes())));
+        for (MemoryReport.Category category : report.getCategories())
+            sender.sendMessage(this.plugin.getMessageNoHeader(Message.MEMORY_ENTRY,
+                    "%category%", category.getName(),
+                    "%entries%", category.getEntries() + "",
+                    "%size%", MemoryEstimator.format(category.getBytes())));
+        if (!report.getLargest().isEmpty()) {
+            sender.sendMessage(this.plugin.getMessageNoHeader(Message.MEMORY_LARGEST));
+            for (MemoryReport.Book book : report.getLargest())
+                sender.sendMessage(this.plugin.getMessageNoHeader(Message.MEMORY_BOOK,
+                        "%book%", book.getName(),
+                        "%size%", MemoryEstimator.format(book.getBytes()),
+                        "%pages%", book.getPages() + ""));
+        }
+        if (report.getDuplicates().isEmpty() && report.getDuplicatedPages() == 0) {
+            sender.sendMessage(this.plugin.getMessageNoHeader(Message.MEMORY_NO_DUPLICATES));
+            return;
+        }
+        for (MemoryReport.Duplicate duplicate : report.getDuplicates()) {
+            List<String> names = duplicate.getNames();
+            String shown = names.size() > 5 ? String.join(", ", names.subList(0, 5)) + " ..." : String.join(", ", names);
+            sender.sendMessage(this.plugin.getMessageNoHeader(Message.MEMORY_DUPLICATE,
+                    "%books%", shown,
+                    "%wasted%", MemoryEstimator.format(duplicate.getWastedBytes())));
+        }
+        if (report.getDuplicatedPages() > 0)
+            sender.sendMessage(this.plugin.getMessageNoHeader(Message.MEMORY_DUPLICATED_PAGES,
+                    "%pages%", report.getDuplicatedPages() + "",
+                    "%wasted%", MemoryEstimator.format(report.getDuplicatedPagesBytes())));
+    }
+
     private void sendFilterHelp(CommandSender sender) {
         sender.sendMessage(ChatColor.GRAY + "" + ChatColor.STRIKETHROUGH + "+----------------------------------+");
         sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_ARGUMENTS));
         sender.sendMessage("");
-        sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_FILTER_SET).split("\\$"));
-        sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_FILTER_REMOVE).split("\\$"));
-        sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_FILTER_GETBOOK).split("\\$"));
+        sender.sendMessage(this.plugin.getMessageLines(Message.HELP_FILTER_SET));
+        sender.sendMessage(this.plugin.getMessageLines(Message.HELP_FILTER_REMOVE));
+        sender.sendMessage(this.plugin.getMessageLines(Message.HELP_FILTER_GETBOOK));
         sender.sendMessage("");
         sender.sendMessage(ChatColor.GRAY + "" + ChatColor.STRIKETHROUGH + "+----------------------------------+");
     }
@@ -629,8 +991,8 @@ public class CitizensBooksCommand implements TabExecutor {
         sender.sendMessage(ChatColor.GRAY + "" + ChatColor.STRIKETHROUGH + "+----------------------------------+");
         sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_ARGUMENTS));
         sender.sendMessage("");
-        sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_ACTIONITEM_SET).split("\\$"));
-        sender.sendMessage(this.plugin.getMessageNoHeader(Message.HELP_ACTIONITEM_REMOVE).split("\\$"));
+        sender.sendMessage(this.plugin.getMessageLines(Message.HELP_ACTIONITEM_SET));
+        sender.sendMessage(this.plugin.getMessageLines(Message.HELP_ACTIONITEM_REMOVE));
         sender.sendMessage("");
         sender.sendMessage(ChatColor.GRAY + "" + ChatColor.STRIKETHROUGH + "+----------------------------------+");
     }
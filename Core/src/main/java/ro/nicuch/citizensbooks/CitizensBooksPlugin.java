@@ -24,40 +24,128 @@ import me.lucko.commodore.CommodoreProvider;
 import me.lucko.commodore.file.CommodoreFileFormat;
 import net.luckperms.api.LuckPerms;
 import net.milkbowl.vault.permission.Permission;
-import org.bukkit.ChatColor;
 import org.bukkit.command.PluginCommand;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.PluginManager;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.plugin.java.JavaPluginLoader;
 import ro.nicuch.citizensbooks.bstats.Metrics;
+import ro.nicuch.citizensbooks.jfr.ReloadEvent;
+import ro.nicuch.citizensbooks.jfr.SettingsSaveEvent;
+import ro.nicuch.citizensbooks.listeners.ActionItemActions;
 import ro.nicuch.citizensbooks.listeners.AuthmeActions;
 import ro.nicuch.citizensbooks.listeners.CitizensActions;
+import ro.nicuch.citizensbooks.listeners.CommandActions;
 import ro.nicuch.citizensbooks.listeners.PlayerActions;
+import ro.nicuch.citizensbooks.listeners.QuitActions;
+import ro.nicuch.citizensbooks.scheduler.BookOpenQueue;
+import ro.nicuch.citizensbooks.scheduler.BookScheduler;
+import ro.nicuch.citizensbooks.scheduler.TickBudget;
+import ro.nicuch.citizensbooks.scheduler.TickMonitor;
+import ro.nicuch.citizensbooks.trait.BookTrait;
+import ro.nicuch.citizensbooks.trait.BookTraitMigration;
+import ro.nicuch.citizensbooks.utils.BookLink;
+import ro.nicuch.citizensbooks.utils.BookStats;
+import ro.nicuch.citizensbooks.utils.ClickLimiter;
+import ro.nicuch.citizensbooks.utils.IOExecutor;
+import ro.nicuch.citizensbooks.utils.JoinBookCache;
+import ro.nicuch.citizensbooks.utils.MessageTable;
+import ro.nicuch.citizensbooks.utils.PlaceholderGuard;
+import ro.nicuch.citizensbooks.utils.PrometheusServer;
+import ro.nicuch.citizensbooks.utils.ReloadReport;
+import ro.nicuch.citizensbooks.utils.Settings;
 import ro.nicuch.citizensbooks.utils.Message;
 import ro.nicuch.citizensbooks.utils.UpdateChecker;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
 
 public class CitizensBooksPlugin extends JavaPlugin {
     private Permission vaultPerms;
     private LuckPerms luckPerms;
+    private final BookScheduler scheduler = BookScheduler.create(this);
     private final CitizensBooksAPI api = new CitizensBooksAPI(this);
+    private final ClickLimiter clickLimiter = new ClickLimiter();
+    private final PlaceholderGuard placeholderGuard = new PlaceholderGuard();
+    private final TickBudget tickBudget = new TickBudget(this);
+    private final BookStats stats = new BookStats(this.tickBudget);
+    private final PrometheusServer prometheusServer = new PrometheusServer(this);
+    private final JoinBookCache joinBookCache = new JoinBookCache(this);
+    private final TickMonitor tickMonitor = new TickMonitor(this);
+    private final BookOpenQueue openQueue = new BookOpenQueue(this, this.tickMonitor);
     private YamlConfiguration settings;
+    private volatile MessageTable messages;
+    private volatile Settings settingsSnapshot = Settings.load(new YamlConfiguration());
+    private IOExecutor ioExecutor;
+    private final AtomicReference<String> pendingSettingsSave = new AtomicReference<>();
+    private final Object settingsFileLock = new Object();
+    private long settingsGeneration = 0; // changed by applySettings, on the global thread
     private boolean usePlaceholderAPI, useAuthMe, useCitizens, useLuckPerms, useVault, useNBTAPI;
     public final int configVersion = 9;
+    // compared separately, or changed by the plugin itself
+    private static final Set<String> UNCOMPARED_SETTINGS = Set.of("save", "commands", "join_book", "join_book_last_change", "join_book_last_seen_by_players");
     private PlayerActions playerActionsListener;
+    private QuitActions quitActionsListener;
+    private CommandActions commandActionsListener;
+    private CitizensActions citizensActionsListener;
+    private ActionItemActions actionItemActionsListener;
+    private AuthmeActions authmeActionsListener;
+    private UpdateChecker updateChecker;
+    private final Set<Listener> registeredListeners = new HashSet<>();
+
+    public CitizensBooksPlugin() {
+        super();
+    }
+
+    /**
+     * Create the plugin outside of a server, used by the benchmarks.
+     * Nothing is enabled, the caller decides what is loaded.
+     */
+    protected CitizensBooksPlugin(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file) {
+        super(loader, description, dataFolder, file);
+    }
 
     @Override
     public void onEnable() {
         try {
             this.getLogger().info("============== BEGIN LOAD ==============");
             this.reloadSettings();
+            this.ioExecutor = new IOExecutor("CitizensBooks-IO",
+                    this.settings.getInt("io_executor.threads", 2),
+                    this.settings.getInt("io_executor.queue_capacity", 1024),
+                    this.settings.getBoolean("io_executor.virtual_threads", true));
+            if (this.ioExecutor.isVirtual())
+                this.getLogger().info("Using virtual threads for I/O!");
             if (this.api.loadDistribution()) {
                 this.api.reloadFilters(this.getLogger());
                 //bStats Metrics, by default enabled
                 new Metrics(this);
+                this.scheduler.runAsyncTimer(this.clickLimiter::cleanup, 20L, 20L);
+                this.scheduler.runGlobalTimer(this.joinBookCache::flush, 100L, 100L);
+                this.scheduler.runAsyncTimer(this.stats::sample, BookStats.SAMPLE_TICKS, BookStats.SAMPLE_TICKS);
+                this.tickMonitor.start(this::onTick);
+                try {
+                    this.prometheusServer.start(this.settings.getConfigurationSection("prometheus"));
+                } catch (IOException ex) {
+                    this.getLogger().log(Level.WARNING, "Failed to start the Prometheus endpoint!", ex);
+                }
                 PluginManager manager = this.getServer().getPluginManager();
                 if (!manager.isPluginEnabled("LuckPerms")) {
                     this.getLogger().info("LuckPerms not found!");
@@ -90,25 +178,30 @@ public class CitizensBooksPlugin extends JavaPlugin {
                     this.getLogger().info("PlaceholderAPI found, try hooking!");
                     this.usePlaceholderAPI = true;
                 }
-                manager.registerEvents((this.playerActionsListener = new PlayerActions(this)), this);
+                this.playerActionsListener = new PlayerActions(this);
+                this.quitActionsListener = new QuitActions(this);
+                this.commandActionsListener = new CommandActions(this);
                 if (!manager.isPluginEnabled("Citizens"))
                     this.getLogger().info("Citizens not found!");
                 else {
                     this.getLogger().info("Citizens found, try hooking!");
-                    manager.registerEvents(new CitizensActions(this), this);
+                    this.citizensActionsListener = new CitizensActions(this);
                     this.useCitizens = true;
+                    BookTrait.register(this);
+                    new BookTraitMigration(this).start(); // the books from the old save section
                 }
                 if (!manager.isPluginEnabled("Authme"))
                     this.getLogger().info("Authme not found!");
                 else {
                     this.getLogger().info("Authme found, try hooking!");
-                    manager.registerEvents(new AuthmeActions(this), this);
+                    this.authmeActionsListener = new AuthmeActions(this);
                     this.useAuthMe = true;
                 }
                 if (!manager.isPluginEnabled("NBTAPI"))
                     this.getLogger().info("NBTAPI not found!");
                 else {
                     this.getLogger().info("NBTAPI found, try hooking!");
+                    this.actionItemActionsListener = new ActionItemActions(this);
                     this.useNBTAPI = true;
                 }
                 PluginCommand npcBookCommand = this.getCommand("npcbook");
@@ -122,8 +215,10 @@ public class CitizensBooksPlugin extends JavaPlugin {
                 } else
                     this.getLogger().info("Brigardier is not supported on this version!");
                 //Update checker, by default enabled
-                if (this.settings.getBoolean("update_check", true))
-                    manager.registerEvents(new UpdateChecker(this), this);
+                if (this.settingsSnapshot.isUpdateCheck())
+                    this.updateChecker = new UpdateChecker(this, this.settings.getConfigurationSection("update_checker"));
+                this.playerActionsListener.onReload();
+                this.updateListeners();
             } else {
                 this.getLogger().info("Disabling the plugin!");
                 this.setEnabled(false);
@@ -137,6 +232,66 @@ public class CitizensBooksPlugin extends JavaPlugin {
         }
     }
 
+    @Override
+    public void onDisable() {
+        if (this.playerActionsListener != null)
+            this.playerActionsListener.onDisable();
+        HandlerList.unregisterAll(this);
+        this.registeredListeners.clear();
+        this.joinBookCache.flush(); // before the I/O executor stops
+        this.tickMonitor.stop();
+        this.prometheusServer.stop();
+        if (this.ioExecutor != null)
+            this.ioExecutor.shutdown(this.getLogger(), 10, TimeUnit.SECONDS); // the last saves are written before we stop
+    }
+
+    /**
+     * Called on the global thread at the start of every tick
+     */
+    protected void onTick() {
+        this.tickBudget.endTick();
+        long start = this.stats.start();
+        this.openQueue.drain();
+        this.stats.record(BookStats.Metric.OPEN_QUEUE, start);
+    }
+
+    /**
+     * Register only the listeners of the features that are in use,
+     * so unused features don't cost anything when events are fired.
+     * Should be called every time the settings or the filters are changed.
+     */
+    public void updateListeners() {
+        if (this.playerActionsListener == null)
+            return; // not loaded yet
+        if (!this.scheduler.isGlobalThread()) {
+            this.scheduler.runGlobal(this::updateListeners);
+            return;
+        }
+        Settings snapshot = this.settingsSnapshot;
+        boolean hasJoinBook = snapshot.hasJoinBook();
+        this.setListenerRegistered(this.playerActionsListener, hasJoinBook && !this.useAuthMe);
+        // the click cooldowns, the deferred opens and the last known placeholder values are kept until the player quits
+        this.setListenerRegistered(this.quitActionsListener, this.clickLimiter.isEnabled() || this.tickMonitor.isEnabled()
+                || (this.usePlaceholderAPI && this.placeholderGuard.isEnabled()));
+        if (this.authmeActionsListener != null)
+            this.setListenerRegistered(this.authmeActionsListener, hasJoinBook);
+        if (this.citizensActionsListener != null)
+            this.setListenerRegistered(this.citizensActionsListener, BookTrait.getBookCount() > 0);
+        this.setListenerRegistered(this.commandActionsListener, !snapshot.getCommands().isEmpty());
+        if (this.actionItemActionsListener != null)
+            this.setListenerRegistered(this.actionItemActionsListener, !this.api.getFilters().isEmpty());
+        if (this.updateChecker != null)
+            this.setListenerRegistered(this.updateChecker, snapshot.isUpdateCheck() && UpdateChecker.updateAvailable());
+    }
+
+    private void setListenerRegistered(Listener listener, boolean registered) {
+        if (registered) {
+            if (this.registeredListeners.add(listener))
+                this.getServer().getPluginManager().registerEvents(listener, this);
+        } else if (this.registeredListeners.remove(listener))
+            HandlerList.unregisterAll(listener);
+    }
+
     public CitizensBooksAPI getAPI() {
         return this.api;
     }
@@ -145,6 +300,58 @@ public class CitizensBooksPlugin extends JavaPlugin {
         return this.settings;
     }
 
+    /**
+     * Get the settings used by the event handlers, safe to use from any thread
+     *
+     * @return the settings snapshot
+     */
+    public Settings getSettingsSnapshot() {
+        return this.settingsSnapshot;
+    }
+
+    /**
+     * Save the settings and publish a new snapshot, after they were changed
+     */
+    public void applySettings() {
+        this.settingsGeneration++;
+        this.saveSettings();
+        this.settingsSnapshot = Settings.load(this.settings);
+        this.joinBookCache.update(this.settingsSnapshot);
+        this.updateListeners();
+    }
+
+    public BookScheduler getBookScheduler() {
+        return this.scheduler;
+    }
+
+    public ClickLimiter getClickLimiter() {
+        return this.clickLimiter;
+    }
+
+    public JoinBookCache getJoinBookCache() {
+        return this.joinBookCache;
+    }
+
+    public PlaceholderGuard getPlaceholderGuard() {
+        return this.placeholderGuard;
+    }
+
+    public BookStats getStats() {
+        return this.stats;
+    }
+
+    public TickBudget getTickBudget() {
+        return this.tickBudget;
+    }
+
+    public TickMonitor getTickMonitor() {
+        return this.tickMonitor;
+    }
+
+    public BookOpenQueue getOpenQueue() {
+        return this.openQueue;
+    }
+
     private void registerCompletions(Commodore commodore, PluginCommand command) {
         try (InputStream is = this.getResource("command.commodore")) {
             if (is == null)
@@ -164,33 +371,180 @@ public class CitizensBooksPlugin extends JavaPlugin {
                 this.saveResource("config.yml", false);
                 this.getLogger().info("A new config.yml was created!");
             }
-            this.settings = YamlConfiguration.loadConfiguration(config);
+            YamlConfiguration settings = YamlConfiguration.loadConfiguration(config);
             //Load config.yml first
-            if (this.settings.isInt("version") && this.settings.getInt("version") != this.configVersion) {
+            if (settings.isInt("version") && settings.getInt("version") != this.configVersion) {
                 boolean renamed = config.renameTo(new File(
                         this.getDataFolder() + File.separator + "config_" + System.currentTimeMillis() + ".yml"));
                 if (renamed) {
                     this.getLogger().info("A new config.yml was generated!");
                     this.saveResource("config.yml", true);
                     //Load again the config
-                    this.settings = YamlConfiguration.loadConfiguration(config);
+                    settings = YamlConfiguration.loadConfiguration(config);
                 } else
                     this.getLogger().info("Failed to generate a new config!");
             }
-            this.playerActionsListener.onReload();
+            this.publishSettings(settings, Settings.load(settings), new MessageTable(settings));
         } catch (Exception ex) {
             this.printError(ex); //Saving files can cause IOException
         }
     }
 
+    /**
+     * Reload the settings and the filters without blocking the main thread.
+     * Everything is read and checked on the I/O executor, then swapped in on
+     * the global thread in one step. If anything fails, nothing is changed.
+     * If the settings were changed by a command meanwhile, they are read again.
+     * Should be called from the global thread.
+     *
+     * @return the future completed with the changes, after they were applied
+     */
+    public CompletableFuture<ReloadReport> reloadAsync() {
+        Settings oldSnapshot = this.settingsSnapshot;
+        Map<String, Object> oldValues = ReloadReport.flatten(this.settings, UNCOMPARED_SETTINGS);
+        Map<String, BookLink> oldFilters = this.api.getFilterLinks();
+        Set<String> pendingFilters = this.api.getPendingFilterFiles(); // read after the filters
+        long generation = this.settingsGeneration;
+        return this.ioExecutor.supply(() -> {
+            ReloadEvent event = new ReloadEvent();
+            event.begin();
+            this.writeSettings(); // a pending save must be on the disk before it's read back
+            YamlConfiguration settings = new YamlConfiguration();
+            settings.load(new File(this.getDataFolder() + File.separator + "config.yml")); // fails if the file is not valid
+            if (settings.isInt("version") && settings.getInt("version") != this.configVersion)
+                throw new IllegalStateException("The config version is " + settings.getInt("version") + " but "
+                        + this.configVersion + " is needed, restart the server to generate a new config!");
+            Settings snapshot = Settings.load(settings);
+            MessageTable messages = new MessageTable(settings);
+            Map<String, BookLink> filters = this.api.loadFilters(this.getLogger(), oldFilters);
+            ReloadReport report = new ReloadReport();
+            report.compare(ReloadReport.Category.SETTINGS, oldValues, ReloadReport.flatten(settings, UNCOMPARED_SETTINGS), Objects::equals);
+            report.compare(ReloadReport.Category.JOIN_BOOK, this.joinBookMap(oldSnapshot), this.joinBookMap(snapshot), ItemStack::equals);
+            report.compare(ReloadReport.Category.COMMANDS, oldSnapshot.getCommands(), snapshot.getCommands(), (oldCommand, newCommand) ->
+                    oldCommand.getFilterName().equals(newCommand.getFilterName()) && Objects.equals(oldCommand.getPermission(), newCommand.getPermission()));
+            report.compare(ReloadReport.Category.FILTERS, oldFilters, filters, (oldLink, newLink) -> oldLink.getBook().equals(newLink.getBook()));
+            event.end();
+            if (event.shouldCommit()) {
+                event.filters = filters.size();
+                event.changed = report.hasChanges();
+                event.commit();
+            }
+            return new LoadedState(settings, snapshot, messages, filters, report);
+        }).thenCompose(loaded -> {
+            CompletableFuture<ReloadReport> future = new CompletableFuture<>();
+            this.scheduler.executeGlobal(() -> {
+                if (this.settingsGeneration != generation) {
+                    // the loaded file doesn't have the new changes, the pending save is written first
+                    this.reloadAsync().whenComplete((report, throwable) -> {
+                        if (throwable != null)
+                            future.completeExceptionally(throwable);
+                        else
+                            future.complete(report);
+                    });
+                    return;
+                }
+                try {
+                    // the players that saw the join book meanwhile are kept
+                    ConfigurationSection lastSeen = this.settings.getConfigurationSection("join_book_last_seen_by_players");
+                    if (lastSeen != null)
+                        for (String key : lastSeen.getKeys(false))
+                            loaded.settings.set("join_book_last_seen_by_players." + key, lastSeen.get(key));
+                    this.publishSettings(loaded.settings, loaded.snapshot, loaded.messages);
+                    this.api.publishFilters(loaded.filters, oldFilters, pendingFilters);
+                    future.complete(loaded.report);
+                } catch (Exception ex) {
+                    future.completeExceptionally(ex);
+                }
+            });
+            return future;
+        });
+    }
+
+    private static final class LoadedState {
+        private final YamlConfiguration settings;
+        private final Settings snapshot;
+        private final MessageTable messages;
+        private final Map<String, BookLink> filters;
+        private final ReloadReport report;
+
+        private LoadedState(YamlConfiguration settings, Settings snapshot, MessageTable messages, Map<String, BookLink> filters, ReloadReport report) {
+            this.settings = settings;
+            this.snapshot = snapshot;
+            this.messages = messages;
+            this.filters = filters;
+            this.report = report;
+        }
+    }
+
+    private Map<String, ItemStack> joinBookMap(Settings snapshot) {
+        return snapshot.getJoinBook() != null ? Map.of("join_book", snapshot.getJoinBook()) : Map.of(); // a filter is compared as a setting
+    }
+
+    private void publishSettings(YamlConfiguration settings, Settings snapshot, MessageTable messages) {
+        this.settings = settings;
+        this.settingsSnapshot = snapshot;
+        this.messages = messages;
+        this.clickLimiter.reload(settings.getConfigurationSection("click_cooldown"));
+        this.placeholderGuard.reload(settings.getConfigurationSection("placeholder_guard"));
+        this.placeholderGuard.reloadAsyncSafe(snapshot.getAsyncSafeExpansions());
+        this.stats.reload(settings.getConfigurationSection("stats"));
+        this.tickBudget.reload(settings.getConfigurationSection("tick_budget"));
+        this.tickMonitor.reload(settings.getConfigurationSection("back_pressure"));
+        this.openQueue.reload(settings.getConfigurationSection("back_pressure"));
+        this.joinBookCache.reload();
+        if (this.playerActionsListener != null)
+            this.playerActionsListener.onReload();
+        this.updateListeners();
+    }
+
+    /**
+     * Save the settings on the I/O executor.
+     * Only the serialization is done on the calling thread, and saves
+     * requested while a write is pending are merged into that write.
+     */
     public void saveSettings() {
+        long start = this.stats.start();
         try {
-            this.settings.save(new File(this.getDataFolder() + File.separator + "config.yml"));
+            if (this.pendingSettingsSave.getAndSet(this.settings.saveToString()) != null)
+                return; // the pending write will use the new data
+            if (this.ioExecutor == null)
+                this.writeSettings();
+            else
+                this.ioExecutor.execute(this::writeSettings);
         } catch (Exception ex) {
-            this.printError(ex); //Saving files can cause IOException
+            this.printError(ex);
+        } finally {
+            this.stats.record(BookStats.Metric.SAVE_SETTINGS, start);
         }
     }
 
+    private void writeSettings() {
+        synchronized (this.settingsFileLock) {
+            String data = this.pendingSettingsSave.getAndSet(null);
+            if (data == null)
+                return;
+            long start = this.stats.start();
+            SettingsSaveEvent event = new SettingsSaveEvent();
+            event.begin();
+            try {
+                Files.writeString(new File(this.getDataFolder() + File.separator + "config.yml").toPath(), data, StandardCharsets.UTF_8);
+            } catch (Exception ex) {
+                this.printError(ex); //Saving files can cause IOException
+            } finally {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.size = data.length();
+                    event.commit();
+                }
+                this.stats.record(BookStats.Metric.WRITE_SETTINGS, start);
+            }
+        }
+    }
+
+    public IOExecutor getIOExecutor() {
+        return this.ioExecutor;
+    }
+
     public LuckPerms getLuckPermissions() {
         return this.luckPerms;
     }
@@ -223,14 +577,29 @@ public class CitizensBooksPlugin extends JavaPlugin {
         return this.useNBTAPI;
     }
 
-    public String getMessage(Message msg) {
-        return ChatColor.translateAlternateColorCodes('&',
-                this.settings.getString(Message.HEADER.getPath(), Message.HEADER.getDefault()))
-                + ChatColor.translateAlternateColorCodes('&', this.settings.getString(msg.getPath(), msg.getDefault()));
+    /**
+     * Get the message with the header
+     *
+     * @param msg   the message
+     * @param slots pairs of slot and value, e.g. {@code "%npc%", name}
+     * @return the message
+     */
+    public String getMessage(Message msg, String... slots) {
+        return this.messages.get(msg, true, slots);
+    }
+
+    public String getMessageNoHeader(Message msg, String... slots) {
+        return this.messages.get(msg, false, slots);
     }
 
-    public String getMessageNoHeader(Message msg) {
-        return ChatColor.translateAlternateColorCodes('&', this.settings.getString(msg.getPath(), msg.getPath()));
+    /**
+     * Get the lines of a help message, split at {@code $}
+     *
+     * @param msg the message
+     * @return the lines, must not be changed
+     */
+    public String[] getMessageLines(Message msg) {
+        return this.messages.getLines(msg);
     }
 
     /*
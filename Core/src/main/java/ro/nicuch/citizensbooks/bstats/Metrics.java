@@ -8,6 +8,8 @@ import org.bukkit.plugin.ServicePriority;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import ro.nicuch.citizensbooks.CitizensBooksPlugin;
+import ro.nicuch.citizensbooks.trait.BookTrait;
+import ro.nicuch.citizensbooks.utils.OpenSource;
 
 import javax.net.ssl.HttpsURLConnection;
 import java.io.ByteArrayOutputStream;
@@ -22,6 +24,7 @@ import java.util.Collection;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.zip.GZIPOutputStream;
 
@@ -62,6 +65,9 @@ public class Metrics {
     // The plugin
     private final CitizensBooksPlugin plugin;
 
+    // The books opened until the last submission, the chart shows the difference
+    private final AtomicLong lastOpened = new AtomicLong();
+
     /**
      * Class constructor.
      *
@@ -106,7 +112,7 @@ public class Metrics {
         logFailedRequests = config.getBoolean("logFailedRequests", false);
         if (config.getBoolean("enabled", true)) {
 
-            if (plugin.getSettings().getBoolean("metrics", true))
+            if (plugin.getSettingsSnapshot().isMetrics())
                 plugin.getLogger().info("bStats Metrics starting...");
 
             boolean found = false;
@@ -140,9 +146,9 @@ public class Metrics {
                     timer.cancel();
                     return;
                 }
-                // Nevertheless we want our code to run in the Bukkit main thread, so we have to use the Bukkit scheduler
-                // Don't be afraid! The connection to the bStats server is still async, only the stats collection is sync ;)
-                Bukkit.getScheduler().runTask(plugin, () -> submitData());
+                // The plugin data is read from thread-safe counters, so nothing needs the main thread
+                // The scan, the compression and the request run on the I/O executor, the timer thread only hands them over
+                plugin.getIOExecutor().execute(() -> submitData());
             }
         }, 1000 * 60 * 5, 1000 * 60 * 30);
         // Submit the data every 30 minutes, first time after 5 minutes to give other plugins enough time to start
@@ -152,14 +158,15 @@ public class Metrics {
 
     /**
      * Gets the plugin specific data.
-     * This method is called using Reflection.
+     * This method is called using Reflection, from any thread.
+     * It only reads counters and the settings snapshot, both thread-safe.
      *
      * @return The plugin specific data.
      */
 	public JSONObject getPluginData() {
         JSONObject data = new JSONObject();
 
-        if (this.plugin.getSettings().getBoolean("metrics", true)) { //Checking if my plugin will send data
+        if (this.plugin.getSettingsSnapshot().isMetrics()) { //Checking if my plugin will send data
 
             String pluginName = plugin.getDescription().getName();
             String pluginVersion = plugin.getDescription().getVersion();
@@ -167,12 +174,45 @@ public class Metrics {
             data.put("pluginName", pluginName); // Append the name of the plugin
             data.put("pluginVersion", pluginVersion); // Append the version of the plugin
             JSONArray customCharts = new JSONArray();
+            customCharts.add(this.getSingleLineChart("rejected_book_opens", this.plugin.getClickLimiter().pollRejected()));
+            customCharts.add(this.getSingleLineChart("deferred_book_opens", this.plugin.getOpenQueue().pollDeferred()));
+            customCharts.add(this.getSingleLineChart("filter_count", this.plugin.getAPI().getFilters().size()));
+            customCharts.add(this.getSingleLineChart("npc_book_count", this.plugin.isCitizensEnabled() ? BookTrait.getBookCount() : 0));
+            customCharts.add(this.getSingleLineChart("books_opened", this.pollOpened()));
             data.put("customCharts", customCharts);
 
         }
         return data;
     }
 
+    /**
+     * Gets the books opened since the last call.
+     *
+     * @return The books opened since the last call.
+     */
+    private long pollOpened() {
+        long opened = 0;
+        for (OpenSource source : OpenSource.values())
+            opened += this.plugin.getStats().getOpened(source);
+        return opened - this.lastOpened.getAndSet(opened);
+    }
+
+    /**
+     * Gets the data of a single line chart.
+     *
+     * @param chartId The id of the chart.
+     * @param value   The value of the chart.
+     * @return The chart data.
+     */
+    private JSONObject getSingleLineChart(String chartId, long value) {
+        JSONObject chart = new JSONObject();
+        chart.put("chartId", chartId);
+        JSONObject chartData = new JSONObject();
+        chartData.put("value", value);
+        chart.put("data", chartData);
+        return chart;
+    }
+
     /**
      * Gets the server specific data.
      *
@@ -221,6 +261,7 @@ public class Metrics {
 
     /**
      * Collects the data and sends it afterwards.
+     * Must be called from the I/O executor, it does blocking work.
      */
     private void submitData() {
         final JSONObject data = getServerData();
@@ -243,19 +284,16 @@ public class Metrics {
 
         data.put("plugins", pluginData);
 
-        // Create a new thread for the connection to the bStats server
-        new Thread(() -> {
-            try {
-                // Send the data
-                sendData(data);
-            } catch (Exception e) {
-                // Something went wrong! :(
-                if (logFailedRequests) {
-                    plugin.getLogger().log(Level.WARNING, "Could not submit plugin stats of " + plugin.getName(), e);
-                }
+        // We are already on the I/O executor, no need for another thread
+        try {
+            // Send the data
+            sendData(data);
+        } catch (Exception e) {
+            // Something went wrong! :(
+            if (logFailedRequests) {
+                plugin.getLogger().log(Level.WARNING, "Could not submit plugin stats of " + plugin.getName(), e);
             }
         }
-        ).start();
     }
 
     /**
@@ -276,6 +314,10 @@ public class Metrics {
         // Compress the data to save bandwidth
         byte[] compressedData = compress(data.toString());
 
+        // Don't hold an I/O thread forever if bStats doesn't answer
+        connection.setConnectTimeout(10000);
+        connection.setReadTimeout(10000);
+
         // Add headers
         connection.setRequestMethod("POST");
         connection.addRequestProperty("Accept", "application/json");
@@ -0,0 +1,51 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.StackTrace;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BookMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+
+/**
+ * The base of the Java Flight Recorder events of CitizensBooks.
+ * <p>
+ * The events are created, begun and ended around the work, and the fields
+ * are only filled if {@link #shouldCommit()} is true, so nothing is computed
+ * while no recording is running. The threshold and the stack traces can be
+ * changed in the JFR settings, like for the JDK events.
+ */
+@Category("CitizensBooks")
+@StackTrace(false)
+public abstract class BookEvent extends Event {
+
+    /**
+     * @param book the book
+     * @return the pages of the book, or 0 if it's not a book
+     */
+    public static int pages(ItemStack book) {
+        if (book == null)
+            return 0;
+        ItemMeta meta = book.getItemMeta();
+        return meta instanceof BookMeta ? ((BookMeta) meta).getPageCount() : 0;
+    }
+}
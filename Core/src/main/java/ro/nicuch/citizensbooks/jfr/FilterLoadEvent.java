@@ -0,0 +1,44 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("citizensbooks.FilterLoad")
+@Label("Filter Load")
+@Description("A filter read from its file")
+@Threshold("1 ms")
+public class FilterLoadEvent extends BookEvent {
+    @Label("Filter Name")
+    public String filterName;
+
+    @Label("File")
+    public String file;
+
+    @Label("Pages")
+    public int pages;
+
+    @Label("Loaded")
+    @Description("False if the file couldn't be read")
+    public boolean loaded;
+}
@@ -0,0 +1,80 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.listeners;
+
+import de.tr7zw.nbtapi.NBTItem;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.ItemStack;
+import ro.nicuch.citizensbooks.CitizensBooksAPI;
+import ro.nicuch.citizensbooks.CitizensBooksPlugin;
+import ro.nicuch.citizensbooks.utils.BookStats;
+import ro.nicuch.citizensbooks.utils.OpenSource;
+import ro.nicuch.citizensbooks.utils.References;
+
+public class ActionItemActions implements Listener {
+    private final CitizensBooksPlugin plugin;
+    private final CitizensBooksAPI api;
+
+    public ActionItemActions(CitizensBooksPlugin plugin) {
+        this.api = (this.plugin = plugin).getAPI();
+    }
+
+    @EventHandler(priority = EventPriority.LOW)
+    public void onClickWithItem(PlayerInteractEvent event) {
+        long start = this.plugin.getStats().start();
+        String filterName = null;
+        try {
+            if (!event.hasItem())
+                return;
+            ItemStack item = event.getItem();
+            NBTItem nbtItem = new NBTItem(item);
+            switch (event.getAction()) {
+                case LEFT_CLICK_AIR:
+                case LEFT_CLICK_BLOCK:
+                    filterName = nbtItem.getString(References.NBTAPI_ITEM_LEFT_KEY);
+                    break;
+                case RIGHT_CLICK_AIR:
+                case RIGHT_CLICK_BLOCK:
+                    filterName = nbtItem.getString(References.NBTAPI_ITEM_RIGHT_KEY);
+                    break;
+                default:
+                    break;
+            }
+            if (filterName == null || filterName.isEmpty())
+                return;
+            if (!this.api.hasFilter(filterName))
+                return;
+            if (!this.plugin.getClickLimiter().check(event.getPlayer().getUniqueId(), OpenSource.ACTION_ITEM)) {
+                event.setCancelled(true); // the item was used for the book
+                return;
+            }
+            ItemStack book = this.api.getFilter(filterName);
+            this.plugin.getClickLimiter().record(event.getPlayer().getUniqueId(), OpenSource.ACTION_ITEM);
+            this.plugin.getStats().opened(OpenSource.ACTION_ITEM);
+            this.api.renderAndOpen(event.getPlayer(), book, null);
+            event.setCancelled(true);
+        } finally {
+            this.plugin.getStats().record(BookStats.Metric.ACTION_ITEM, filterName, start);
+        }
+    }
+}
@@ -7,6 +7,9 @@ import org.bukkit.event.Listener;
 import org.bukkit.inventory.ItemStack;
 import ro.nicuch.citizensbooks.CitizensBooksAPI;
 import ro.nicuch.citizensbooks.CitizensBooksPlugin;
+import ro.nicuch.citizensbooks.utils.BookStats;
+import ro.nicuch.citizensbooks.utils.JoinBookCache;
+import ro.nicuch.citizensbooks.utils.OpenSource;
 
 public class AuthmeActions implements Listener {
     private final CitizensBooksPlugin plugin;
@@ -18,19 +21,22 @@ public class AuthmeActions implements Listener {
 
     @EventHandler
     public void onLogin(LoginEvent event) {
-        if (!this.plugin.getSettings().isItemStack("join_book"))
-            return;
-        if (this.api.hasPermission(event.getPlayer(), "npcbook.nojoinbook"))
-            return;
-        Player player = event.getPlayer();
-        if (this.plugin.getSettings().isLong("join_book_last_seen_by_players." + player.getUniqueId().toString()))
-            if (this.plugin.getSettings().getLong("join_book_last_seen_by_players." + player.getUniqueId().toString(), 0) >= this.plugin.getSettings().getLong("join_book_last_change", 0))
+        long start = this.plugin.getStats().start();
+        try {
+            Player player = event.getPlayer();
+            JoinBookCache.State state = this.plugin.getJoinBookCache().get(player.getUniqueId());
+            if (state == null)
                 return;
-        this.plugin.getSettings().set("join_book_last_seen_by_players." + player.getUniqueId().toString(), System.currentTimeMillis());
-        this.plugin.saveSettings();
-        ItemStack book = this.plugin.getSettings().getItemStack("join_book");
-        if (book == null)
-            return;
-        this.api.openBook(event.getPlayer(), this.api.placeholderHook(player, book, null));
+            if (this.api.hasPermission(player, "npcbook.nojoinbook"))
+                return;
+            if (state.isSeen())
+                return;
+            this.plugin.getJoinBookCache().markSeen(player.getUniqueId());
+            ItemStack book = state.getBook();
+            // held back while the server is overloaded
+            this.plugin.getOpenQueue().open(player, () -> this.api.placeholderHook(player, book, null), OpenSource.JOIN);
+        } finally {
+            this.plugin.getStats().record(BookStats.Metric.AUTHME_LOGIN, start);
+        }
     }
 }
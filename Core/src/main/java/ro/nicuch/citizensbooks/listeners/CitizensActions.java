@@ -19,9 +19,7 @@
 
 package ro.nicuch.citizensbooks.listeners;
 
-import net.citizensnpcs.api.event.NPCCloneEvent;
 import net.citizensnpcs.api.event.NPCLeftClickEvent;
-import org.bukkit.Material;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
@@ -31,6 +29,9 @@ import net.citizensnpcs.api.event.NPCRightClickEvent;
 import ro.nicuch.citizensbooks.events.BookNPCClickEvent;
 import ro.nicuch.citizensbooks.CitizensBooksAPI;
 import ro.nicuch.citizensbooks.CitizensBooksPlugin;
+import ro.nicuch.citizensbooks.trait.BookTrait;
+import ro.nicuch.citizensbooks.utils.BookStats;
+import ro.nicuch.citizensbooks.utils.OpenSource;
 
 public class CitizensActions implements Listener {
     private final CitizensBooksPlugin plugin;
@@ -42,54 +43,63 @@ public class CitizensActions implements Listener {
 
     @EventHandler(ignoreCancelled = true, priority = EventPriority.LOW)
     public void rightClick(NPCRightClickEvent event) {
-        int npcId = event.getNPC().getId();
-        if (!this.plugin.getSettings().isItemStack("save." + npcId + ".right_side"))
-            return;
-        ItemStack book = this.plugin.getSettings().getItemStack("save." + npcId + ".right_side", new ItemStack(Material.WRITTEN_BOOK));
-        BookNPCClickEvent e = new BookNPCClickEvent(event.getClicker(), event.getNPC(), book, BookNPCClickEvent.ClickType.RIGHT);
-        this.plugin.getServer().getPluginManager().callEvent(e);
-        if (e.isCancelled())
-            return;
-        book = e.getBook();
-        if (e.usePlaceHolders())
-            this.api.openBook(event.getClicker(), this.api.placeholderHook(event.getClicker(), book, event.getNPC()));
-        else
-            this.api.openBook(event.getClicker(), book);
-        event.setCancelled(true);
+        long start = this.plugin.getStats().start();
+        try {
+            BookTrait trait = event.getNPC().getTraitNullable(BookTrait.class);
+            if (trait == null)
+                return;
+            ItemStack book = trait.resolveBook(true); // a copy, the filters are looked up here
+            if (book == null)
+                return;
+            if (!this.plugin.getClickLimiter().check(event.getClicker().getUniqueId(), OpenSource.NPC)) {
+                event.setCancelled(true); // the click was meant for the book
+                return;
+            }
+            BookNPCClickEvent e = new BookNPCClickEvent(event.getClicker(), event.getNPC(), book, BookNPCClickEvent.ClickType.RIGHT);
+            this.plugin.getServer().getPluginManager().callEvent(e);
+            if (e.isCancelled())
+                return;
+            book = e.getBook();
+            this.plugin.getClickLimiter().record(event.getClicker().getUniqueId(), OpenSource.NPC);
+            this.plugin.getStats().opened(OpenSource.NPC);
+            if (e.usePlaceHolders())
+                this.api.renderAndOpen(event.getClicker(), book, event.getNPC());
+            else
+                this.api.openBook(event.getClicker(), book);
+            event.setCancelled(true);
+        } finally {
+            this.plugin.getStats().record(BookStats.Metric.NPC_RIGHT_CLICK, event.getNPC().getId(), start);
+        }
     }
 
     @EventHandler(ignoreCancelled = true, priority = EventPriority.LOW)
     public void leftCLick(NPCLeftClickEvent event) {
-        int npcId = event.getNPC().getId();
-        if (!this.plugin.getSettings().isItemStack("save." + npcId + ".left_side"))
-            return;
-        ItemStack book = this.plugin.getSettings().getItemStack("save." + npcId + ".left_side", new ItemStack(Material.WRITTEN_BOOK));
-        BookNPCClickEvent e = new BookNPCClickEvent(event.getClicker(), event.getNPC(), book, BookNPCClickEvent.ClickType.LEFT);
-        this.plugin.getServer().getPluginManager().callEvent(e);
-        if (e.isCancelled())
-            return;
-        book = e.getBook();
-        if (e.usePlaceHolders())
-            this.api.openBook(event.getClicker(), this.api.placeholderHook(event.getClicker(), book, event.getNPC()));
-        else
-            this.api.openBook(event.getClicker(), book);
-        event.setCancelled(true);
-    }
-
-    @EventHandler
-    public void clone(NPCCloneEvent event) {
-        int npcId = event.getNPC().getId();
-        int cloneId = event.getClone().getId();
-        ItemStack left_book = null;
-        ItemStack right_book = null;
-        if (this.plugin.getSettings().isItemStack("save." + npcId + ".left_side"))
-            left_book = this.plugin.getSettings().getItemStack("save." + npcId + ".left_side");
-        if (this.plugin.getSettings().isItemStack("save." + npcId + ".right_side"))
-            right_book = this.plugin.getSettings().getItemStack("save." + npcId + ".right_side");
-        if (left_book != null) this.plugin.getSettings().set("save." + cloneId + ".left_side",
-                left_book);
-        if (right_book != null) this.plugin.getSettings().set("save." + cloneId + ".right_side",
-                right_book);
-        this.plugin.saveSettings(); //Allways saved
+        long start = this.plugin.getStats().start();
+        try {
+            BookTrait trait = event.getNPC().getTraitNullable(BookTrait.class);
+            if (trait == null)
+                return;
+            ItemStack book = trait.resolveBook(false); // a copy, the filters are looked up here
+            if (book == null)
+                return;
+            if (!this.plugin.getClickLimiter().check(event.getClicker().getUniqueId(), OpenSource.NPC)) {
+                event.setCancelled(true); // the click was meant for the book
+                return;
+            }
+            BookNPCClickEvent e = new BookNPCClickEvent(event.getClicker(), event.getNPC(), book, BookNPCClickEvent.ClickType.LEFT);
+            this.plugin.getServer().getPluginManager().callEvent(e);
+            if (e.isCancelled())
+                return;
+            book = e.getBook();
+            this.plugin.getClickLimiter().record(event.getClicker().getUniqueId(), OpenSource.NPC);
+            this.plugin.getStats().opened(OpenSource.NPC);
+            if (e.usePlaceHolders())
+                this.api.renderAndOpen(event.getClicker(), book, event.getNPC());
+            else
+                this.api.openBook(event.getClicker(), book);
+            event.setCancelled(true);
+        } finally {
+            this.plugin.getStats().record(BookStats.Metric.NPC_LEFT_CLICK, event.getNPC().getId(), start);
+        }
     }
 }
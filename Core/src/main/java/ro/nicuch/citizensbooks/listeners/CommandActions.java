@@ -0,0 +1,71 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.listeners;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.bukkit.inventory.ItemStack;
+import ro.nicuch.citizensbooks.CitizensBooksAPI;
+import ro.nicuch.citizensbooks.CitizensBooksPlugin;
+import ro.nicuch.citizensbooks.utils.BookStats;
+import ro.nicuch.citizensbooks.utils.Message;
+import ro.nicuch.citizensbooks.utils.OpenSource;
+import ro.nicuch.citizensbooks.utils.Settings;
+
+public class CommandActions implements Listener {
+    private final CitizensBooksPlugin plugin;
+    private final CitizensBooksAPI api;
+
+    public CommandActions(CitizensBooksPlugin plugin) {
+        this.api = (this.plugin = plugin).getAPI();
+    }
+
+    @EventHandler
+    public void onCommand(PlayerCommandPreprocessEvent event) {
+        long start = this.plugin.getStats().start();
+        String filterName = null;
+        try {
+            Player player = event.getPlayer();
+            String command = event.getMessage().substring(1).split(" ")[0];
+            Settings.CustomCommand customCommand = this.plugin.getSettingsSnapshot().getCommand(command);
+            if (customCommand == null)
+                return;
+            event.setCancelled(true);
+            if (!this.plugin.getClickLimiter().check(player.getUniqueId(), OpenSource.COMMAND))
+                return;
+            filterName = customCommand.getFilterName();
+            String permission = customCommand.getPermission();
+            if (!(permission == null || this.api.hasPermission(player, permission)))
+                return;
+            if (!this.api.hasFilter(filterName)) {
+                player.sendMessage(this.plugin.getMessage(Message.NO_BOOK_FOR_FILTER));
+                return;
+            }
+            ItemStack book = this.api.getFilter(filterName);
+            this.plugin.getClickLimiter().record(player.getUniqueId(), OpenSource.COMMAND);
+            this.plugin.getStats().opened(OpenSource.COMMAND);
+            this.api.renderAndOpen(player, book, null);
+        } finally {
+            this.plugin.getStats().record(BookStats.Metric.CUSTOM_COMMAND, filterName, start);
+        }
+    }
+}
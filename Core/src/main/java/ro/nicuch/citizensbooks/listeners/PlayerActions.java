@@ -19,135 +19,84 @@
 
 package ro.nicuch.citizensbooks.listeners;
 
-import de.tr7zw.nbtapi.NBTItem;
-import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
-import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
-import org.bukkit.event.player.PlayerCommandPreprocessEvent;
-import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.scheduler.BukkitTask;
 import ro.nicuch.citizensbooks.CitizensBooksAPI;
 import ro.nicuch.citizensbooks.CitizensBooksPlugin;
-import ro.nicuch.citizensbooks.utils.DelayHashMap;
-import ro.nicuch.citizensbooks.utils.DelayMap;
-import ro.nicuch.citizensbooks.utils.Message;
-import ro.nicuch.citizensbooks.utils.References;
-
-import java.util.UUID;
+import ro.nicuch.citizensbooks.scheduler.BookTask;
+import ro.nicuch.citizensbooks.scheduler.DelayedTasks;
+import ro.nicuch.citizensbooks.utils.BookStats;
+import ro.nicuch.citizensbooks.utils.JoinBookCache;
+import ro.nicuch.citizensbooks.utils.OpenSource;
+import ro.nicuch.citizensbooks.utils.Settings;
 
 public class PlayerActions implements Listener {
     private final CitizensBooksPlugin plugin;
     private final CitizensBooksAPI api;
-    private BukkitTask cleanupTask = null;
-    private final DelayMap<UUID, BukkitTask> delayedPlayers = new DelayHashMap<>();
+    private final DelayedTasks delayedPlayers;
+    private BookTask cleanupTask = null;
 
     public PlayerActions(CitizensBooksPlugin plugin) {
         this.plugin = plugin;
         this.api = this.plugin.getAPI();
-
+        this.delayedPlayers = new DelayedTasks(this.plugin.getBookScheduler());
     }
 
     public void onDisable() {
         if (this.cleanupTask != null)
             this.cleanupTask.cancel();
+        this.cleanupTask = null;
     }
 
     public void onReload() {
-        if (this.plugin.getSettings().getBoolean("join_book_enable_delay", false))
-            this.cleanupTask = Bukkit.getScheduler().runTaskTimer(this.plugin, this.delayedPlayers::cleanup, 1L, 1L);
-    }
-
-    @EventHandler
-    public void onCommand(PlayerCommandPreprocessEvent event) {
-        Player player = event.getPlayer();
-        String command = event.getMessage().substring(1).split(" ")[0];
-        if (!this.plugin.getSettings().isString("commands." + command + ".filter_name"))
-            return;
-        event.setCancelled(true);
-        String filterName = this.plugin.getSettings().getString("commands." + command + ".filter_name");
-        String permission = this.plugin.getSettings().isString("commands." + command + ".permission") ? this.plugin.getSettings().getString("commands." + command + ".permission") : "none";
-        if (!(permission.equalsIgnoreCase("none") || this.api.hasPermission(player, permission)))
-            return;
-        if (!this.api.hasFilter(filterName)) {
-            player.sendMessage(this.plugin.getMessage(Message.NO_BOOK_FOR_FILTER));
-            return;
-        }
-        ItemStack book = this.api.getFilter(filterName);
-        this.api.openBook(event.getPlayer(), this.api.placeholderHook(player, book, null));
+        this.onDisable();
+        if (this.plugin.getSettingsSnapshot().isJoinBookDelayEnabled())
+            this.cleanupTask = this.plugin.getBookScheduler().runGlobalTimer(this.delayedPlayers::cleanup, 1L, 1L);
     }
 
     @EventHandler
     public void onJoin(PlayerJoinEvent event) {
-        if (this.plugin.isAuthmeEnabled())
-            return;
-        if (!this.plugin.getSettings().isItemStack("join_book"))
-            return;
-        if (this.api.hasPermission(event.getPlayer(), "npcbook.nojoinbook"))
-            return;
-        Player player = event.getPlayer();
-        if (!this.plugin.getSettings().getBoolean("join_book_always_show", false)) {
-            if (this.plugin.getSettings().isLong("join_book_last_seen_by_players." + player.getUniqueId().toString()))
-                if (this.plugin.getSettings().getLong("join_book_last_seen_by_players." + player.getUniqueId().toString(), 0) >= this.plugin.getSettings().getLong("join_book_last_change", 0))
+        long start = this.plugin.getStats().start();
+        try {
+            Player player = event.getPlayer();
+            JoinBookCache.State state = this.plugin.getJoinBookCache().get(player.getUniqueId());
+            if (state == null)
+                return;
+            if (this.api.hasPermission(player, "npcbook.nojoinbook"))
+                return;
+            Settings settings = this.plugin.getSettingsSnapshot();
+            if (!settings.isJoinBookAlwaysShow()) {
+                if (state.isSeen())
                     return;
-            this.plugin.getSettings().set("join_book_last_seen_by_players." + player.getUniqueId().toString(), System.currentTimeMillis());
-            this.plugin.saveSettings();
+                this.plugin.getJoinBookCache().markSeen(player.getUniqueId());
+            }
+            ItemStack book = state.getBook();
+            if (settings.isJoinBookDelayEnabled()) {
+                int delay = settings.getJoinBookDelay();
+                if (delay <= 0)
+                    this.openJoinBook(player, book);
+                else
+                    this.delayedPlayers.schedule(player, () -> this.openJoinBook(player, book), delay); // 0 ticks by default
+            } else
+                this.openJoinBook(player, book);
+        } finally {
+            this.plugin.getStats().record(BookStats.Metric.PLAYER_JOIN, start);
         }
-        ItemStack book = this.plugin.getSettings().getItemStack("join_book");
-        if (book == null)
-            return;
-        if (this.plugin.getSettings().getBoolean("join_book_enable_delay", false)) {
-            int delay = this.plugin.getSettings().getInt("join_book_delay", 0);
-            if (delay <= 0)
-                this.api.openBook(event.getPlayer(), this.api.placeholderHook(player, book, null));
-            else
-                this.delayedPlayers.put(player.getUniqueId(),
-                        Bukkit.getScheduler().runTaskLater(this.plugin, () -> this.api.openBook(event.getPlayer(), this.api.placeholderHook(player, book, null)), delay)); // 0 ticks by default
-        } else
-            this.api.openBook(event.getPlayer(), this.api.placeholderHook(player, book, null));
     }
 
-    @EventHandler
-    public void onQuit(PlayerQuitEvent event) {
-        if (this.plugin.getSettings().getBoolean("join_book_enable_delay", false))
-            if (this.delayedPlayers.containsKey(event.getPlayer().getUniqueId())) {
-                BukkitTask task = this.delayedPlayers.remove(event.getPlayer().getUniqueId());
-                if (task == null) return;
-                task.cancel();
-            }
+    private void openJoinBook(Player player, ItemStack book) {
+        // held back while the server is overloaded
+        this.plugin.getOpenQueue().open(player, () -> this.api.placeholderHook(player, book, null), OpenSource.JOIN); // the book is already a copy
     }
 
-    @EventHandler(priority = EventPriority.LOW)
-    public void onClickWithItem(PlayerInteractEvent event) {
-        if (!this.plugin.isNBTAPIEnabled())
-            return;
-        if (!event.hasItem())
-            return;
-        ItemStack item = event.getItem();
-        NBTItem nbtItem = new NBTItem(item);
-        String filterName = null;
-        switch (event.getAction()) {
-            case LEFT_CLICK_AIR:
-            case LEFT_CLICK_BLOCK:
-                filterName = nbtItem.getString(References.NBTAPI_ITEM_LEFT_KEY);
-                break;
-            case RIGHT_CLICK_AIR:
-            case RIGHT_CLICK_BLOCK:
-                filterName = nbtItem.getString(References.NBTAPI_ITEM_RIGHT_KEY);
-                break;
-            default:
-                break;
-        }
-        if (filterName == null || filterName.isEmpty())
-            return;
-        if (!this.api.hasFilter(filterName))
-            return;
-        ItemStack book = this.api.getFilter(filterName);
-        this.api.openBook(event.getPlayer(), this.api.placeholderHook(event.getPlayer(), book, null));
-        event.setCancelled(true);
+    @EventHandler
+    public void onQuit(PlayerQuitEvent event) {
+        // the caches are cleared by QuitActions
+        if (this.plugin.getSettingsSnapshot().isJoinBookDelayEnabled())
+            this.delayedPlayers.cancel(event.getPlayer().getUniqueId());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,49 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+package ro.nicuch.citizensbooks.listeners;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import ro.nicuch.citizensbooks.CitizensBooksPlugin;
+import ro.nicuch.citizensbooks.utils.BookStats;
+
+/**
+ * Forgets the player when they quit, registered while the click cooldowns,
+ * the deferred opens or the last known placeholder values can hold entries for them
+ */
+public class QuitActions implements Listener {
+    private final CitizensBooksPlugin plugin;
+
+    public QuitActions(CitizensBooksPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler
+    public void onQuit(PlayerQuitEvent event) {
+        long start = this.plugin.getStats().start();
+        try {
+            this.plugin.getClickLimiter().forget(event.getPlayer().getUniqueId());
+            this.plugin.getOpenQueue().forget(event.getPlayer().getUniqueId());
+            this.plugin.getPlaceholderGuard().forget(event.getPlayer().getUniqueId());
+        } finally {
+            this.plugin.getStats().record(BookStats.Metric.PLAYER_QUIT, start);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.scheduler;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import ro.nicuch.citizensbooks.CitizensBooksPlugin;
+import ro.nicuch.citizensbooks.utils.OpenSource;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Opens books by priority.
+ * <p>
+ * Books from interactive sources are opened right away. Books from deferrable
+ * sources are held back while the server is overloaded, one per player, and
+ * are opened a few per tick once the server recovers. The book is rendered
+ * only when it's opened, so no work is done for it during the lag.
+ */
+public class BookOpenQueue {
+    private final CitizensBooksPlugin plugin;
+    private final TickMonitor monitor;
+    private final Map<UUID, DeferredOpen> deferred = new LinkedHashMap<>(); // guarded by itself
+    private final LongAdder deferredCount = new LongAdder();
+    private final LongAdder deferredTotal = new LongAdder();
+    private final LongAdder expiredTotal = new LongAdder();
+    private int opensPerTick = 5;
+    private long maxWaitNanos = TimeUnit.SECONDS.toNanos(60);
+
+    public BookOpenQueue(CitizensBooksPlugin plugin, TickMonitor monitor) {
+        this.plugin = plugin;
+        this.monitor = monitor;
+    }
+
+    public void reload(ConfigurationSection section) {
+        this.opensPerTick = Math.max(1, section == null ? 5 : section.getInt("opens_per_tick", 5));
+        this.maxWaitNanos = TimeUnit.SECONDS.toNanos(Math.max(1, section == null ? 60 : section.getLong("max_wait_seconds", 60)));
+    }
+
+    /**
+     * Open the book now, or later if the source is deferrable and the server is overloaded
+     *
+     * @param player the player
+     * @param book   renders the book, called on the thread that owns the player
+     * @param source where the book is opened from
+     * @return true if the book was opened now
+     */
+    public boolean open(Player player, Supplier<ItemStack> book, OpenSource source) {
+        this.plugin.getStats().opened(source);
+        if (!source.isDeferrable() || !this.monitor.isOverloaded()) {
+            this.plugin.getAPI().openBook(player, book.get());
+            return true;
+        }
+        synchronized (this.deferred) {
+            this.deferred.remove(player.getUniqueId()); // the newest book goes last
+            this.deferred.put(player.getUniqueId(), new DeferredOpen(book, System.nanoTime()));
+        }
+        this.deferredCount.increment();
+        this.deferredTotal.increment();
+        return false;
+    }
+
+    /**
+     * Open some of the deferred books, called on the global thread every tick
+     */
+    public void drain() {
+        if (this.monitor.isOverloaded())
+            return;
+        long now = System.nanoTime();
+        int opened = 0;
+        while (opened < this.opensPerTick) {
+            UUID uuid;
+            DeferredOpen open;
+            synchronized (this.deferred) {
+                if (this.deferred.isEmpty())
+                    return;
+                Iterator<Map.Entry<UUID, DeferredOpen>> iterator = this.deferred.entrySet().iterator();
+                Map.Entry<UUID, DeferredOpen> entry = iterator.next();
+                iterator.remove();
+                uuid = entry.getKey();
+                open = entry.getValue();
+            }
+            if (now - open.since > this.maxWaitNanos) {
+                this.expiredTotal.increment();
+                continue; // too late, the player doesn't expect it anymore
+            }
+            Player player = Bukkit.getPlayer(uuid);
+            if (player == null || !player.isOnline())
+                continue;
+            this.plugin.getBookScheduler().executeForEntity(player, () -> this.plugin.getAPI().openBook(player, open.book.get()));
+            opened++;
+        }
+    }
+
+    public void forget(UUID uuid) {
+        synchronized (this.deferred) {
+            this.deferred.remove(uuid);
+        }
+    }
+
+    public int size() {
+        synchronized (this.deferred) {
+            return this.deferred.size();
+        }
+    }
+
+    /**
+     * Get the deferred opens since the last call
+     *
+     * @return the deferred opens
+     */
+    public long pollDeferred() {
+        return this.deferredCount.sumThenReset();
+    }
+
+    public long getDeferredTotal() {
+        return this.deferredTotal.sum();
+    }
+
+    public long getExpiredTotal() {
+        return this.expiredTotal.sum();
+    }
+
+    private static final class DeferredOpen {
+        private final Supplier<ItemStack> book;
+        private final long since;
+
+        private DeferredOpen(Supplier<ItemStack> book, long since) {
+            this.book = book;
+            this.since = since;
+        }
+    }
+}
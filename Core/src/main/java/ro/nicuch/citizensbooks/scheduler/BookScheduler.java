@@ -0,0 +1,91 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.scheduler;
+
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Schedules the work of the plugin without assuming a single main thread.
+ * <p>
+ * Global tasks run on the main thread, or on the global region thread on
+ * region threaded servers. Entity tasks run on the thread that owns the
+ * entity. Delays and periods are in ticks.
+ */
+public interface BookScheduler {
+
+    BookTask runGlobal(Runnable task);
+
+    BookTask runGlobalLater(Runnable task, long delay);
+
+    BookTask runGlobalTimer(Runnable task, long delay, long period);
+
+    /**
+     * Run the task on the thread that owns the entity
+     *
+     * @param entity the entity
+     * @param task   the task
+     * @return the task, or null if the entity was removed
+     */
+    BookTask runForEntity(Entity entity, Runnable task);
+
+    BookTask runForEntityLater(Entity entity, Runnable task, long delay);
+
+    BookTask runAsync(Runnable task);
+
+    BookTask runAsyncTimer(Runnable task, long delay, long period);
+
+    boolean isOwnedByCurrentThread(Entity entity);
+
+    boolean isGlobalThread();
+
+    /**
+     * Run the task now if the current thread owns the entity,
+     * otherwise schedule it on the owner thread
+     *
+     * @param entity the entity
+     * @param task   the task
+     */
+    default void executeForEntity(Entity entity, Runnable task) {
+        if (this.isOwnedByCurrentThread(entity))
+            task.run();
+        else
+            this.runForEntity(entity, task);
+    }
+
+    /**
+     * Run the task now if the current thread is the global one,
+     * otherwise schedule it
+     *
+     * @param task the task
+     */
+    default void executeGlobal(Runnable task) {
+        if (this.isGlobalThread())
+            task.run();
+        else
+            this.runGlobal(task);
+    }
+
+    static BookScheduler create(Plugin plugin) {
+        if (RegionBookScheduler.isSupported())
+            return new RegionBookScheduler(plugin);
+        return new BukkitBookScheduler(plugin);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.scheduler;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * The classic scheduler, everything that isn't async runs on the main thread.
+ */
+public class BukkitBookScheduler implements BookScheduler {
+    private final Plugin plugin;
+    private final BukkitScheduler scheduler = Bukkit.getScheduler();
+
+    public BukkitBookScheduler(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public BookTask runGlobal(Runnable task) {
+        return this.wrap(this.scheduler.runTask(this.plugin, task));
+    }
+
+    @Override
+    public BookTask runGlobalLater(Runnable task, long delay) {
+        return this.wrap(this.scheduler.runTaskLater(this.plugin, task, delay));
+    }
+
+    @Override
+    public BookTask runGlobalTimer(Runnable task, long delay, long period) {
+        return this.wrap(this.scheduler.runTaskTimer(this.plugin, task, delay, period));
+    }
+
+    @Override
+    public BookTask runForEntity(Entity entity, Runnable task) {
+        return this.runGlobal(task);
+    }
+
+    @Override
+    public BookTask runForEntityLater(Entity entity, Runnable task, long delay) {
+        return this.runGlobalLater(task, delay);
+    }
+
+    @Override
+    public BookTask runAsync(Runnable task) {
+        return this.wrap(this.scheduler.runTaskAsynchronously(this.plugin, task));
+    }
+
+    @Override
+    public BookTask runAsyncTimer(Runnable task, long delay, long period) {
+        return this.wrap(this.scheduler.runTaskTimerAsynchronously(this.plugin, task, delay, period));
+    }
+
+    @Override
+    public boolean isOwnedByCurrentThread(Entity entity) {
+        return Bukkit.isPrimaryThread();
+    }
+
+    @Override
+    public boolean isGlobalThread() {
+        return Bukkit.isPrimaryThread();
+    }
+
+    private BookTask wrap(BukkitTask task) {
+        return new BookTask() {
+            @Override
+            public void cancel() {
+                task.cancel();
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return task.isCancelled();
+            }
+        };
+    }
+}
@@ -0,0 +1,72 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+package ro.nicuch.citizensbooks.scheduler;
+
+import org.bukkit.entity.Entity;
+import ro.nicuch.citizensbooks.utils.DelayHashMap;
+import ro.nicuch.citizensbooks.utils.DelayMap;
+
+import java.util.UUID;
+
+/**
+ * Delayed tasks of entities, one per entity, that can be cancelled by the entity id.
+ * <p>
+ * The tasks are forgotten after a while by {@link #cleanup()}, which should run
+ * on the global thread.
+ */
+public class DelayedTasks {
+    private final BookScheduler scheduler;
+    private final DelayMap<UUID, BookTask> tasks = new DelayHashMap<>();
+
+    public DelayedTasks(BookScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Run the task later on the thread that owns the entity
+     *
+     * @param entity the entity
+     * @param task   the task
+     * @param delay  the delay in ticks
+     * @return false if the entity was removed and the task will not run
+     */
+    public boolean schedule(Entity entity, Runnable task, long delay) {
+        BookTask scheduled = this.scheduler.runForEntityLater(entity, task, delay);
+        if (scheduled == null)
+            return false; // there is nothing to cancel later
+        BookTask previous = this.tasks.put(entity.getUniqueId(), scheduled);
+        if (previous != null)
+            previous.cancel();
+        return true;
+    }
+
+    public void cancel(UUID uuid) {
+        BookTask task = this.tasks.remove(uuid);
+        if (task != null)
+            task.cancel();
+    }
+
+    public boolean isScheduled(UUID uuid) {
+        return this.tasks.containsKey(uuid);
+    }
+
+    public void cleanup() {
+        this.tasks.cleanup();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.scheduler;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The scheduler for region threaded servers (Folia), where there is no main thread.
+ * <p>
+ * The region schedulers are not part of the Bukkit API we compile against,
+ * so they are called by reflection.
+ */
+public class RegionBookScheduler implements BookScheduler {
+    private static final String SCHEDULER_PACKAGE = "io.papermc.paper.threadedregions.scheduler.";
+    private final Plugin plugin;
+    private final Object globalScheduler, asyncScheduler;
+    private final Method globalRun, globalRunDelayed, globalRunAtFixedRate;
+    private final Method entityGetScheduler, entityRun, entityRunDelayed;
+    private final Method asyncRunNow, asyncRunAtFixedRate;
+    private final Method taskCancel, taskIsCancelled;
+    private final Method isOwnedByCurrentRegion, isGlobalTickThread;
+
+    public static boolean isSupported() {
+        return isSupported("io.papermc.paper.threadedregions.RegionizedServer");
+    }
+
+    static boolean isSupported(String serverClass) {
+        try {
+            Class.forName(serverClass);
+            return true;
+        } catch (ClassNotFoundException ex) {
+            return false;
+        }
+    }
+
+    public RegionBookScheduler(Plugin plugin) {
+        this.plugin = plugin;
+        try {
+            Class<?> globalClass = Class.forName(SCHEDULER_PACKAGE + "GlobalRegionScheduler");
+            Class<?> entityClass = Class.forName(SCHEDULER_PACKAGE + "EntityScheduler");
+            Class<?> asyncClass = Class.forName(SCHEDULER_PACKAGE + "AsyncScheduler");
+            Class<?> taskClass = Class.forName(SCHEDULER_PACKAGE + "ScheduledTask");
+            this.globalScheduler = Bukkit.class.getMethod("getGlobalRegionScheduler").invoke(null);
+            this.asyncScheduler = Bukkit.class.getMethod("getAsyncScheduler").invoke(null);
+            this.globalRun = globalClass.getMethod("run", Plugin.class, Consumer.class);
+            this.globalRunDelayed = globalClass.getMethod("runDelayed", Plugin.class, Consumer.class, long.class);
+            this.globalRunAtFixedRate = globalClass.getMethod("runAtFixedRate", Plugin.class, Consumer.class, long.class, long.class);
+            this.entityGetScheduler = Entity.class.getMethod("getScheduler");
+            this.entityRun = entityClass.getMethod("run", Plugin.class, Consumer.class, Runnable.class);
+            this.entityRunDelayed = entityClass.getMethod("runDelayed", Plugin.class, Consumer.class, Runnable.class, long.class);
+            this.asyncRunNow = asyncClass.getMethod("runNow", Plugin.class, Consumer.class);
+            this.asyncRunAtFixedRate = asyncClass.getMethod("runAtFixedRate", Plugin.class, Consumer.class, long.class, long.class, TimeUnit.class);
+            this.taskCancel = taskClass.getMethod("cancel");
+            this.taskIsCancelled = taskClass.getMethod("isCancelled");
+            this.isOwnedByCurrentRegion = Bukkit.class.getMethod("isOwnedByCurrentRegion", Entity.class);
+            this.isGlobalTickThread = Bukkit.class.getMethod("isGlobalTickThread");
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("The region schedulers could not be found!", ex);
+        }
+    }
+
+    @Override
+    public BookTask runGlobal(Runnable task) {
+        return this.wrap(this.invoke(this.globalRun, this.globalScheduler, this.plugin, this.consumer(task)));
+    }
+
+    @Override
+    public BookTask runGlobalLater(Runnable task, long delay) {
+        if (delay <= 0)
+            return this.runGlobal(task);
+        return this.wrap(this.invoke(this.globalRunDelayed, this.globalScheduler, this.plugin, this.consumer(task), delay));
+    }
+
+    @Override
+    public BookTask runGlobalTimer(Runnable task, long delay, long period) {
+        return this.wrap(this.invoke(this.globalRunAtFixedRate, this.globalScheduler, this.plugin, this.consumer(task), Math.max(1L, delay), period));
+    }
+
+    @Override
+    public BookTask runForEntity(Entity entity, Runnable task) {
+        Object scheduler = this.invoke(this.entityGetScheduler, entity);
+        return this.wrap(this.invoke(this.entityRun, scheduler, this.plugin, this.consumer(task), null));
+    }
+
+    @Override
+    public BookTask runForEntityLater(Entity entity, Runnable task, long delay) {
+        if (delay <= 0)
+            return this.runForEntity(entity, task);
+        Object scheduler = this.invoke(this.entityGetScheduler, entity);
+        return this.wrap(this.invoke(this.entityRunDelayed, scheduler, this.plugin, this.consumer(task), null, delay));
+    }
+
+    @Override
+    public BookTask runAsync(Runnable task) {
+        return this.wrap(this.invoke(this.asyncRunNow, this.asyncScheduler, this.plugin, this.consumer(task)));
+    }
+
+    @Override
+    public BookTask runAsyncTimer(Runnable task, long delay, long period) {
+        // the async scheduler doesn't use ticks
+        return this.wrap(this.invoke(this.asyncRunAtFixedRate, this.asyncScheduler, this.plugin, this.consumer(task),
+                delay * 50L, Math.max(1L, period) * 50L, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public boolean isOwnedByCurrentThread(Entity entity) {
+        return (boolean) this.invoke(this.isOwnedByCurrentRegion, null, entity);
+    }
+
+    @Override
+    public boolean isGlobalThread() {
+        return (boolean) this.invoke(this.isGlobalTickThread, null);
+    }
+
+    private Consumer<Object> consumer(Runnable task) {
+        return scheduledTask -> task.run();
+    }
+
+    private Object invoke(Method method, Object instance, Object... args) {
+        try {
+            return method.invoke(instance, args);
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            throw new IllegalStateException(ex.getCause());
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private BookTask wrap(Object task) {
+        if (task == null)
+            return null; // the entity was removed
+        return new BookTask() {
+            @Override
+            public void cancel() {
+                RegionBookScheduler.this.invoke(RegionBookScheduler.this.taskCancel, task);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return (boolean) RegionBookScheduler.this.invoke(RegionBookScheduler.this.taskIsCancelled, task);
+            }
+        };
+    }
+}
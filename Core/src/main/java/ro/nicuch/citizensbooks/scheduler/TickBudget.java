@@ -0,0 +1,167 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.scheduler;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.configuration.ConfigurationSection;
+import ro.nicuch.citizensbooks.CitizensBooksPlugin;
+import ro.nicuch.citizensbooks.utils.BookStats;
+import ro.nicuch.citizensbooks.utils.Message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accounts the main thread time used by CitizensBooks in every tick.
+ * <p>
+ * The listeners, the commands and the tasks of the plugin charge their time
+ * when they finish, the books they open are already included. At the start of
+ * every tick the previous tick is closed, and if it went over the budget the
+ * staff is told which handlers, filters and NPCs used the most time.
+ * Only the time used on the global thread is accounted; on region threaded
+ * servers the regions tick in parallel and have no shared tick to charge.
+ * Everything except {@link #isEnabled()} and {@link #charge} must be called
+ * on the global thread.
+ */
+public class TickBudget {
+    private static final double NANOS_PER_MILLI = 1_000_000D;
+    private static final int TOP_CONTRIBUTORS = 3;
+
+    private final CitizensBooksPlugin plugin;
+    private final Map<String, Long> contributors = new HashMap<>();
+    private volatile boolean enabled;
+    private long budgetNanos, alertCooldownMillis, lastAlertMillis;
+    private boolean notifyStaff;
+    private long[] window = new long[100];
+    private int index, count;
+    private long sum, tickNanos, overruns;
+
+    public TickBudget(CitizensBooksPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    public void reload(ConfigurationSection section) {
+        this.enabled = section != null && section.getBoolean("enabled", false); // the configs older than the section don't have it
+        this.budgetNanos = (long) (Math.max(0.1D, section == null ? 5D : section.getDouble("budget_millis", 5D)) * NANOS_PER_MILLI);
+        this.alertCooldownMillis = TimeUnit.SECONDS.toMillis(Math.max(0, section == null ? 60 : section.getLong("alert_cooldown_seconds", 60)));
+        this.notifyStaff = section != null && section.getBoolean("notify_staff", false);
+        int windowTicks = Math.max(1, section == null ? 100 : section.getInt("window_ticks", 100));
+        if (windowTicks != this.window.length) {
+            this.window = new long[windowTicks];
+            this.index = 0;
+            this.count = 0;
+            this.sum = 0;
+        }
+        this.tickNanos = 0;
+        this.contributors.clear();
+    }
+
+    /**
+     * Safe to call from any thread
+     *
+     * @return if the time is accounted
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Charge the time to the current tick, ignored if not called on the global thread
+     *
+     * @param metric  what was running
+     * @param subject the filter or the NPC, or null
+     * @param nanos   the time used
+     */
+    public void charge(BookStats.Metric metric, Object subject, long nanos) {
+        if (!this.plugin.getBookScheduler().isGlobalThread())
+            return; // endTick and the other charges run on the global thread
+        this.tickNanos += nanos;
+        this.contributors.merge(subject == null ? metric.getKey() : metric.getKey() + " " + subject, nanos, Long::sum);
+    }
+
+    /**
+     * Close the previous tick, called at the start of every tick
+     */
+    public void endTick() {
+        if (!this.enabled)
+            return;
+        long used = this.tickNanos;
+        if (this.count == this.window.length)
+            this.sum -= this.window[this.index];
+        else
+            this.count++;
+        this.window[this.index] = used;
+        this.sum += used;
+        this.index = (this.index + 1) % this.window.length;
+        if (used > this.budgetNanos) {
+            this.overruns++;
+            long now = System.currentTimeMillis();
+            if (now - this.lastAlertMillis >= this.alertCooldownMillis) {
+                this.lastAlertMillis = now;
+                this.alert(used);
+            }
+        }
+        this.tickNanos = 0;
+        if (!this.contributors.isEmpty())
+            this.contributors.clear();
+    }
+
+    private void alert(long used) {
+        List<Map.Entry<String, Long>> top = new ArrayList<>(this.contributors.entrySet());
+        top.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : top.subList(0, Math.min(TOP_CONTRIBUTORS, top.size())))
+            names.add(entry.getKey() + " " + String.format("%.2f", entry.getValue() / NANOS_PER_MILLI) + "ms");
+        String message = this.plugin.getMessage(Message.BUDGET_OVERRUN,
+                "%used%", String.format("%.2f", used / NANOS_PER_MILLI),
+                "%budget%", String.format("%.2f", this.budgetNanos / NANOS_PER_MILLI),
+                "%average%", String.format("%.2f", this.getAverageMillis()),
+                "%window%", this.count + "",
+                "%overruns%", this.overruns + "",
+                "%top%", names.isEmpty() ? "-" : String.join(", ", names));
+        this.plugin.getLogger().warning(ChatColor.stripColor(message));
+        if (this.notifyStaff)
+            Bukkit.getOnlinePlayers().stream()
+                    .filter(player -> this.plugin.getAPI().hasPermission(player, "npcbook.notify.budget"))
+                    .forEach(player -> player.sendMessage(message));
+    }
+
+    public double getBudgetMillis() {
+        return this.budgetNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return the average time used per tick, over the window
+     */
+    public double getAverageMillis() {
+        return this.count == 0 ? 0 : this.sum / (double) this.count / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return the ticks that went over the budget since the plugin was enabled
+     */
+    public long getOverruns() {
+        return this.overruns;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.scheduler;
+
+import org.bukkit.configuration.ConfigurationSection;
+import ro.nicuch.citizensbooks.CitizensBooksPlugin;
+
+/**
+ * Watches the server tick length over a sliding window.
+ * <p>
+ * The time between two ticks of the global thread is measured, so a healthy
+ * server reports about 50ms and anything above means the server is lagging.
+ * The server is overloaded once the average goes over the threshold, and it
+ * stays overloaded until the average goes under the resume value.
+ */
+public class TickMonitor {
+    private static final double NANOS_PER_MILLI = 1_000_000D;
+
+    private final CitizensBooksPlugin plugin;
+    private BookTask task;
+    private Runnable tickListener;
+    private boolean enabled;
+    private double threshold, resume;
+    private long[] window = new long[100];
+    private int index, count;
+    private long sum, lastTick;
+    private volatile double averageTickMillis = 50D;
+    private volatile boolean overloaded;
+
+    public TickMonitor(CitizensBooksPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    public synchronized void reload(ConfigurationSection section) {
+        this.enabled = section != null && section.getBoolean("enabled", false); // the configs older than the section don't have it
+        this.threshold = section == null ? 60D : section.getDouble("tick_threshold", 60D);
+        this.resume = Math.min(this.threshold, section == null ? 52D : section.getDouble("tick_resume", 52D));
+        int windowTicks = Math.max(1, section == null ? 100 : section.getInt("window_ticks", 100));
+        if (windowTicks != this.window.length) {
+            this.window = new long[windowTicks];
+            this.index = 0;
+            this.count = 0;
+            this.sum = 0;
+        }
+        if (!this.enabled)
+            this.overloaded = false;
+    }
+
+    /**
+     * Start measuring the ticks
+     *
+     * @param tickListener called on the global thread every tick, after the measurement
+     */
+    public void start(Runnable tickListener) {
+        this.tickListener = tickListener;
+        if (this.task == null)
+            this.task = this.plugin.getBookScheduler().runGlobalTimer(this::tick, 1L, 1L);
+    }
+
+    public void stop() {
+        if (this.task != null)
+            this.task.cancel();
+        this.task = null;
+    }
+
+    private void tick() {
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (this.lastTick != 0) {
+                long length = now - this.lastTick;
+                if (this.count == this.window.length)
+                    this.sum -= this.window[this.index];
+                else
+                    this.count++;
+                this.window[this.index] = length;
+                this.sum += length;
+                this.index = (this.index + 1) % this.window.length;
+                this.averageTickMillis = this.sum / (double) this.count / NANOS_PER_MILLI;
+            }
+            this.lastTick = now;
+            if (this.enabled)
+                this.overloaded = this.averageTickMillis > (this.overloaded ? this.resume : this.threshold);
+        }
+        if (this.tickListener != null)
+            this.tickListener.run();
+    }
+
+    public synchronized boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Check if deferrable work should be held back, safe to call from any thread
+     *
+     * @return if the server is overloaded
+     */
+    public boolean isOverloaded() {
+        return this.overloaded;
+    }
+
+    public double getAverageTickMillis() {
+        return this.averageTickMillis;
+    }
+}
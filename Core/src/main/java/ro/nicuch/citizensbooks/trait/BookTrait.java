@@ -0,0 +1,263 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+package ro.nicuch.citizensbooks.trait;
+
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.event.CitizensReloadEvent;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.trait.Trait;
+import net.citizensnpcs.api.trait.TraitInfo;
+import net.citizensnpcs.api.trait.TraitName;
+import net.citizensnpcs.api.util.DataKey;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.inventory.ItemStack;
+import ro.nicuch.citizensbooks.CitizensBooksPlugin;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * The books of an NPC, saved with the NPC in the Citizens store,
+ * so they follow the NPC when it is cloned, removed or its id is reused.
+ * <p>
+ * A slot holds a book, or the name of a filter that is looked up when the
+ * book is opened. A reference costs only the name, so many NPCs can share
+ * one filter, and editing the filter changes the book of all of them.
+ */
+@TraitName("citizensbooks")
+public class BookTrait extends Trait {
+    private static final AtomicInteger BOOKS = new AtomicInteger();
+    private final CitizensBooksPlugin plugin;
+    private ItemStack rightBook;
+    private ItemStack leftBook;
+    //The books are serialized when they are set, the Citizens saves only write the text
+    private String rightData;
+    private String leftData;
+    private String rightFilter;
+    private String leftFilter;
+    private int counted;
+
+    public BookTrait(CitizensBooksPlugin plugin) {
+        super("citizensbooks");
+        this.plugin = plugin;
+    }
+
+    public static void register(CitizensBooksPlugin plugin) {
+        CitizensAPI.getTraitFactory().registerTrait(TraitInfo.create(BookTrait.class).withSupplier(() -> new BookTrait(plugin)));
+        plugin.getServer().getPluginManager().registerEvents(new ReloadListener(plugin), plugin);
+    }
+
+    /**
+     * Count the books again from the NPCs of the registry.
+     * A Citizens reload loads new traits without removing the old ones,
+     * so the books of the old traits must not be counted anymore.
+     *
+     * @param plugin the plugin
+     */
+    public static void recountAll(CitizensBooksPlugin plugin) {
+        int total = 0;
+        for (NPC npc : CitizensAPI.getNPCRegistry()) {
+            BookTrait trait = npc.getTraitNullable(BookTrait.class);
+            if (trait != null)
+                total += trait.counted;
+        }
+        int old = BOOKS.getAndSet(total);
+        if ((old == 0) != (total == 0))
+            plugin.updateListeners();
+    }
+
+    /**
+     * Safe to call from any thread
+     *
+     * @return the slots of all the NPCs that hold a book or a filter
+     */
+    public static int getBookCount() {
+        return BOOKS.get();
+    }
+
+    /**
+     * Get the book stored in the slot, the item is not copied
+     *
+     * @param right the right click book, or the left click book
+     * @return the book, or null if there is none or the slot holds a filter
+     */
+    public ItemStack getBook(boolean right) {
+        return right ? this.rightBook : this.leftBook;
+    }
+
+    /**
+     * @param right the right click slot, or the left click slot
+     * @return the filter name, or null if the slot doesn't hold a filter
+     */
+    public String getFilter(boolean right) {
+        return right ? this.rightFilter : this.leftFilter;
+    }
+
+    /**
+     * Get the book to open, the filter is looked up if the slot holds one
+     *
+     * @param right the right click book, or the left click book
+     * @return a copy of the book, or null if there is none or the filter doesn't exist
+     */
+    public ItemStack resolveBook(boolean right) {
+        String filterName = this.getFilter(right);
+        if (filterName != null)
+            return this.plugin.getAPI().hasFilter(filterName) ? this.plugin.getAPI().getFilter(filterName) : null;
+        ItemStack book = this.getBook(right);
+        return book == null ? null : book.clone();
+    }
+
+    /**
+     * Set the book, the filter of the slot is removed
+     *
+     * @param right the right click book, or the left click book
+     * @param book  the book, or null to empty the slot
+     */
+    public void setBook(boolean right, ItemStack book) {
+        ItemStack copy = book == null ? null : book.clone();
+        String data = copy == null ? null : serialize(copy);
+        if (right) {
+            this.rightBook = copy;
+            this.rightData = data;
+            this.rightFilter = null;
+        } else {
+            this.leftBook = copy;
+            this.leftData = data;
+            this.leftFilter = null;
+        }
+        this.recount();
+    }
+
+    /**
+     * Set a filter reference, the book of the slot is removed
+     *
+     * @param right      the right click slot, or the left click slot
+     * @param filterName the filter name, or null to empty the slot
+     */
+    public void setFilter(boolean right, String filterName) {
+        if (right) {
+            this.rightBook = null;
+            this.rightData = null;
+            this.rightFilter = filterName;
+        } else {
+            this.leftBook = null;
+            this.leftData = null;
+            this.leftFilter = filterName;
+        }
+        this.recount();
+    }
+
+    /**
+     * @param right the right click slot, or the left click slot
+     * @return if the slot holds a book or a filter
+     */
+    public boolean isSet(boolean right) {
+        return this.getBook(right) != null || this.getFilter(right) != null;
+    }
+
+    public boolean hasBooks() {
+        return this.isSet(true) || this.isSet(false);
+    }
+
+    @Override
+    public void load(DataKey key) {
+        this.rightData = key.getString("right_side", null);
+        this.leftData = key.getString("left_side", null);
+        this.rightBook = this.deserialize(this.rightData);
+        this.leftBook = this.deserialize(this.leftData);
+        this.rightFilter = key.getString("right_filter", null);
+        this.leftFilter = key.getString("left_filter", null);
+        this.recount();
+    }
+
+    @Override
+    public void save(DataKey key) {
+        if (this.rightData == null)
+            key.removeKey("right_side");
+        else
+            key.setString("right_side", this.rightData);
+        if (this.leftData == null)
+            key.removeKey("left_side");
+        else
+            key.setString("left_side", this.leftData);
+        if (this.rightFilter == null)
+            key.removeKey("right_filter");
+        else
+            key.setString("right_filter", this.rightFilter);
+        if (this.leftFilter == null)
+            key.removeKey("left_filter");
+        else
+            key.setString("left_filter", this.leftFilter);
+    }
+
+    @Override
+    public void onRemove() {
+        this.rightBook = this.leftBook = null;
+        this.rightData = this.leftData = null;
+        this.rightFilter = this.leftFilter = null;
+        this.recount();
+    }
+
+    private void recount() {
+        int books = (this.isSet(true) ? 1 : 0) + (this.isSet(false) ? 1 : 0);
+        if (books == this.counted)
+            return;
+        int change = books - this.counted;
+        int total = BOOKS.addAndGet(change);
+        this.counted = books;
+        if (total == change || total == 0)
+            this.plugin.updateListeners(); // the first book was added or the last one was removed
+    }
+
+    private static String serialize(ItemStack book) {
+        YamlConfiguration yaml = new YamlConfiguration();
+        yaml.set("book", book);
+        return yaml.saveToString();
+    }
+
+    private ItemStack deserialize(String data) {
+        if (data == null)
+            return null;
+        YamlConfiguration yaml = new YamlConfiguration();
+        try {
+            yaml.loadFromString(data);
+        } catch (InvalidConfigurationException ex) {
+            // the data is kept as it is, so it can be fixed by hand
+            this.plugin.getLogger().log(Level.WARNING, "Failed to load a book of the NPC " + (this.npc == null ? "?" : this.npc.getId()) + ", the book is ignored!", ex);
+            return null;
+        }
+        return yaml.getItemStack("book");
+    }
+
+    private static class ReloadListener implements Listener {
+        private final CitizensBooksPlugin plugin;
+
+        private ReloadListener(CitizensBooksPlugin plugin) {
+            this.plugin = plugin;
+        }
+
+        @EventHandler
+        public void onCitizensReload(CitizensReloadEvent event) {
+            recountAll(this.plugin);
+        }
+    }
+}
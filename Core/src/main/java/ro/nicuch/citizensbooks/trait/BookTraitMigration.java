@@ -0,0 +1,96 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+package ro.nicuch.citizensbooks.trait;
+
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.event.CitizensEnableEvent;
+import net.citizensnpcs.api.npc.NPC;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import ro.nicuch.citizensbooks.CitizensBooksPlugin;
+
+/**
+ * Moves the NPC books from the save section of the config to the {@link BookTrait}.
+ * The books of the NPCs that don't exist are left in the config.
+ */
+public class BookTraitMigration implements Listener {
+    private final CitizensBooksPlugin plugin;
+
+    public BookTraitMigration(CitizensBooksPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Migrate now if the NPCs are loaded, or after Citizens loads them
+     */
+    public void start() {
+        ConfigurationSection save = this.plugin.getSettings().getConfigurationSection("save");
+        if (save == null || save.getKeys(false).isEmpty())
+            return; // nothing to migrate
+        if (CitizensAPI.getNPCRegistry().iterator().hasNext())
+            this.migrate();
+        else
+            this.plugin.getServer().getPluginManager().registerEvents(this, this.plugin);
+    }
+
+    @EventHandler
+    public void onCitizensEnable(CitizensEnableEvent event) {
+        HandlerList.unregisterAll(this);
+        this.migrate();
+    }
+
+    private void migrate() {
+        ConfigurationSection save = this.plugin.getSettings().getConfigurationSection("save");
+        if (save == null)
+            return;
+        int migrated = 0;
+        for (String key : save.getKeys(false)) {
+            NPC npc;
+            try {
+                npc = CitizensAPI.getNPCRegistry().getById(Integer.parseInt(key));
+            } catch (NumberFormatException ex) {
+                continue; // not an NPC id, the settings were edited
+            }
+            if (npc == null)
+                continue;
+            BookTrait trait = npc.getOrAddTrait(BookTrait.class);
+            //The books set after the update are newer, they are not replaced
+            if (save.isItemStack(key + ".right_side") && !trait.isSet(true))
+                trait.setBook(true, save.getItemStack(key + ".right_side"));
+            if (save.isItemStack(key + ".left_side") && !trait.isSet(false))
+                trait.setBook(false, save.getItemStack(key + ".left_side"));
+            if (!trait.hasBooks())
+                npc.removeTrait(BookTrait.class);
+            save.set(key, null);
+            migrated++;
+        }
+        if (migrated == 0)
+            return;
+        CitizensAPI.getNPCRegistry().saveToStore(); // the books must be in the Citizens store before they are removed from the config
+        int left = save.getKeys(false).size();
+        if (left == 0)
+            this.plugin.getSettings().set("save", null);
+        this.plugin.applySettings();
+        this.plugin.getLogger().info("Moved the books of " + migrated + " NPC(s) to Citizens!");
+        if (left > 0)
+            this.plugin.getLogger().info("The books of " + left + " missing NPC(s) were left in the save section of the config.");
+    }
+}
@@ -0,0 +1,201 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.utils;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import ro.nicuch.citizensbooks.CitizensBooksAPI;
+import ro.nicuch.citizensbooks.CitizensBooksPlugin;
+import ro.nicuch.citizensbooks.scheduler.BookTask;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Opens a book for many players, spread over multiple ticks.
+ * <p>
+ * Every tick at most {@code playersPerTick} players are served, and the tick
+ * stops early once {@code millisPerTick} were spent. If the book doesn't have
+ * placeholders, it's rendered once and the same result is shared. The
+ * broadcast is paused while the server is overloaded.
+ */
+public class BookBroadcast {
+    private final CitizensBooksPlugin plugin;
+    private final CitizensBooksAPI api;
+    private final ItemStack book;
+    private final Deque<UUID> pending = new ArrayDeque<>();
+    private final int total;
+    private final int playersPerTick;
+    private final long nanosPerTick;
+    private final boolean perPlayerRender;
+    private volatile ItemStack sharedBook;
+    private Consumer<BookBroadcast> progressListener;
+    private Consumer<BookBroadcast> completeListener;
+    private int progressInterval = 20;
+    private int opened, skipped, ticks, pausedTicks;
+    private boolean done;
+    private BookTask task;
+
+    /**
+     * @param plugin         the plugin
+     * @param book           the book
+     * @param players        the players that will receive the book
+     * @param playersPerTick maximum players served per tick, 0 or less for no limit
+     * @param millisPerTick  maximum time spent per tick, 0 or less for no limit
+     */
+    public BookBroadcast(CitizensBooksPlugin plugin, ItemStack book, Collection<? extends Player> players, int playersPerTick, long millisPerTick) {
+        this.plugin = plugin;
+        this.api = plugin.getAPI();
+        this.book = book;
+        for (Player player : players)
+            this.pending.add(player.getUniqueId());
+        this.total = this.pending.size();
+        this.playersPerTick = playersPerTick > 0 ? playersPerTick : Integer.MAX_VALUE;
+        this.nanosPerTick = millisPerTick > 0 ? TimeUnit.MILLISECONDS.toNanos(millisPerTick) : Long.MAX_VALUE;
+        this.perPlayerRender = this.api.hasPlaceholders(book);
+    }
+
+    /**
+     * Set the listener called every few ticks while the broadcast is running
+     *
+     * @param listener the listener
+     * @param interval the interval in ticks
+     * @return this broadcast
+     */
+    public BookBroadcast onProgress(Consumer<BookBroadcast> listener, int interval) {
+        this.progressListener = listener;
+        this.progressInterval = Math.max(1, interval);
+        return this;
+    }
+
+    /**
+     * Set the listener called once every player was served
+     *
+     * @param listener the listener
+     * @return this broadcast
+     */
+    public BookBroadcast onComplete(Consumer<BookBroadcast> listener) {
+        this.completeListener = listener;
+        return this;
+    }
+
+    /**
+     * Start the broadcast, the first players are served on the next tick
+     *
+     * @return this broadcast
+     */
+    public BookBroadcast start() {
+        if (this.task == null)
+            this.task = this.plugin.getBookScheduler().runGlobalTimer(this::tick, 1L, 1L);
+        return this;
+    }
+
+    /**
+     * Stop the broadcast, the players that weren't served yet are skipped
+     */
+    public void cancel() {
+        if (this.task != null)
+            this.task.cancel();
+        this.skipped += this.pending.size();
+        this.pending.clear();
+        this.done = true;
+    }
+
+    private void tick() {
+        long start = this.plugin.getStats().start();
+        try {
+            this.serve();
+        } finally {
+            this.plugin.getStats().record(BookStats.Metric.BROADCAST, start);
+        }
+    }
+
+    private void serve() {
+        this.ticks++;
+        if (this.plugin.getTickMonitor().isOverloaded()) {
+            this.pausedTicks++;
+            return; // the broadcast books are deferrable
+        }
+        long start = System.nanoTime();
+        int served = 0;
+        while (!this.pending.isEmpty() && served < this.playersPerTick) {
+            Player player = Bukkit.getPlayer(this.pending.poll());
+            if (player == null || !player.isOnline())
+                this.skipped++;
+            else {
+                // on region threaded servers the player may be owned by another thread
+                this.plugin.getBookScheduler().executeForEntity(player, () -> this.api.openBook(player, this.render(player)));
+                this.opened++;
+                this.plugin.getStats().opened(OpenSource.FORCEOPEN);
+            }
+            served++;
+            if (System.nanoTime() - start >= this.nanosPerTick)
+                break; // at least one player is served every tick
+        }
+        if (this.pending.isEmpty()) {
+            this.task.cancel();
+            this.done = true;
+            if (this.completeListener != null)
+                this.completeListener.accept(this);
+        } else if (this.progressListener != null && this.ticks % this.progressInterval == 0)
+            this.progressListener.accept(this);
+    }
+
+    private ItemStack render(Player player) {
+        if (this.perPlayerRender)
+            return this.api.placeholderHook(player, this.book.clone(), null);
+        if (this.sharedBook == null)
+            this.sharedBook = this.api.placeholderHook(player, this.book.clone(), null);
+        return this.sharedBook;
+    }
+
+    public int getTotal() {
+        return this.total;
+    }
+
+    public int getOpened() {
+        return this.opened;
+    }
+
+    public int getSkipped() {
+        return this.skipped;
+    }
+
+    public int getProcessed() {
+        return this.opened + this.skipped;
+    }
+
+    public int getTicks() {
+        return this.ticks;
+    }
+
+    public int getPausedTicks() {
+        return this.pausedTicks;
+    }
+
+    public boolean isDone() {
+        return this.done;
+    }
+}
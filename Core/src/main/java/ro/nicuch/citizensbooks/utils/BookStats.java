@@ -0,0 +1,394 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.utils;
+
+import org.bukkit.configuration.ConfigurationSection;
+import ro.nicuch.citizensbooks.scheduler.TickBudget;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms of the hot paths and the hit rate of the caches.
+ * <p>
+ * Recording is lock-free and costs two {@link System#nanoTime()} calls, so it
+ * can be done from the main thread. A timer copies the histograms off the main
+ * thread every 30 seconds, the windows are the difference between the live
+ * histograms and an older copy.
+ */
+public class BookStats {
+    public static final long SAMPLE_TICKS = 30 * 20;
+    private static final int MAX_SAMPLES = 31; // enough for 15 minutes
+
+    public enum Metric {
+        OPEN_BOOK("open_book", false),
+        PLACEHOLDER_HOOK("placeholder_hook", false),
+        FILTER_LOOKUP("filter_lookup", false),
+        CREATE_FILTER("create_filter", false),
+        WRITE_FILTER("write_filter", false),
+        RELOAD_FILTERS("reload_filters", false),
+        SAVE_SETTINGS("save_settings", false),
+        WRITE_SETTINGS("write_settings", false),
+        NPC_RIGHT_CLICK("npc_right_click", true),
+        NPC_LEFT_CLICK("npc_left_click", true),
+        PLAYER_JOIN("player_join", true),
+        PLAYER_QUIT("player_quit", true),
+        AUTHME_LOGIN("authme_login", true),
+        CUSTOM_COMMAND("custom_command", true),
+        ACTION_ITEM("action_item", true),
+        COMMAND("command", true),
+        OPEN_QUEUE("open_queue", true),
+        BROADCAST("broadcast", true);
+
+        private final String key;
+        private final boolean root;
+
+        Metric(String key, boolean root) {
+            this.key = key;
+            this.root = root;
+        }
+
+        public String getKey() {
+            return this.key;
+        }
+
+        /**
+         * The listeners, the commands and the tasks are roots, the rest
+         * is called by them and is already included in their time
+         *
+         * @return if the time is charged to the tick budget
+         */
+        public boolean isRoot() {
+            return this.root;
+        }
+    }
+
+    public enum Cache {
+        FILTER_LOOKUP("filter_lookup"); // found or missing
+
+        private final String key;
+
+        Cache(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return this.key;
+        }
+    }
+
+    private final Histogram[] histograms = new Histogram[Metric.values().length];
+    private final LongAdder[] hits = new LongAdder[Cache.values().length];
+    private final LongAdder[] misses = new LongAdder[Cache.values().length];
+    private final LongAdder[] opened = new LongAdder[OpenSource.values().length];
+    private final Deque<Sample> samples = new ArrayDeque<>();
+    private final TickBudget budget;
+    private volatile boolean enabled = true;
+    private volatile long resetMillis = System.currentTimeMillis();
+
+    public BookStats(TickBudget budget) {
+        this.budget = budget;
+        for (int i = 0; i < this.histograms.length; i++)
+            this.histograms[i] = new Histogram();
+        for (int i = 0; i < this.hits.length; i++) {
+            this.hits[i] = new LongAdder();
+            this.misses[i] = new LongAdder();
+        }
+        for (int i = 0; i < this.opened.length; i++)
+            this.opened[i] = new LongAdder();
+    }
+
+    public void reload(ConfigurationSection section) {
+        this.enabled = section != null && section.getBoolean("enabled", false); // the configs older than the section don't have it
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * @return the start time, or 0 if neither the statistics nor the tick budget are enabled
+     */
+    public long start() {
+        return this.enabled || this.budget.isEnabled() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the time passed since start, from any thread
+     *
+     * @param metric the metric
+     * @param start  the value returned by {@link #start()}
+     */
+    public void record(Metric metric, long start) {
+        this.record(metric, null, start);
+    }
+
+    /**
+     * Record the time passed since start, from any thread.
+     * The time of the roots is also charged to the tick budget, if on the global thread.
+     *
+     * @param metric  the metric
+     * @param subject the filter or the NPC, named in the tick budget alerts, or null
+     * @param start   the value returned by {@link #start()}
+     */
+    public void record(Metric metric, Object subject, long start) {
+        if (start == 0)
+            return;
+        long nanos = System.nanoTime() - start;
+        if (this.enabled)
+            this.histograms[metric.ordinal()].record(nanos);
+        if (metric.isRoot() && this.budget.isEnabled())
+            this.budget.charge(metric, subject, nanos);
+    }
+
+    public void hit(Cache cache) {
+        if (this.enabled)
+            this.hits[cache.ordinal()].increment();
+    }
+
+    public void miss(Cache cache) {
+        if (this.enabled)
+            this.misses[cache.ordinal()].increment();
+    }
+
+    /**
+     * Count a book opened, even if the statistics are disabled
+     *
+     * @param source where the book was opened from
+     */
+    public void opened(OpenSource source) {
+        this.opened[source.ordinal()].increment();
+    }
+
+    /**
+     * @param source where the books were opened from
+     * @return the books opened since the plugin was enabled
+     */
+    public long getOpened(OpenSource source) {
+        return this.opened[source.ordinal()].sum();
+    }
+
+    public long getHits(Cache cache) {
+        return this.hits[cache.ordinal()].sum();
+    }
+
+    public long getMisses(Cache cache) {
+        return this.misses[cache.ordinal()].sum();
+    }
+
+    /**
+     * Copy the live histogram, from any thread
+     *
+     * @param metric the metric
+     * @return the values recorded since the last reset
+     */
+    public Histogram.Snapshot snapshot(Metric metric) {
+        return this.histograms[metric.ordinal()].snapshot();
+    }
+
+    public synchronized void reset() {
+        for (Histogram histogram : this.histograms)
+            histogram.reset();
+        for (int i = 0; i < this.hits.length; i++) {
+            this.hits[i].reset();
+            this.misses[i].reset();
+        }
+        this.samples.clear();
+        this.resetMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Copy the histograms for the windows, called by an async timer every {@link #SAMPLE_TICKS}
+     */
+    public synchronized void sample() {
+        this.samples.addLast(this.takeSample(System.currentTimeMillis()));
+        while (this.samples.size() > MAX_SAMPLES)
+            this.samples.removeFirst();
+    }
+
+    private Sample takeSample(long now) {
+        Histogram.Snapshot[] snapshots = new Histogram.Snapshot[this.histograms.length];
+        for (int i = 0; i < snapshots.length; i++)
+            snapshots[i] = this.histograms[i].snapshot();
+        long[] hits = new long[this.hits.length];
+        long[] misses = new long[this.misses.length];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = this.hits[i].sum();
+            misses[i] = this.misses[i].sum();
+        }
+        return new Sample(now, snapshots, hits, misses);
+    }
+
+    /**
+     * Aggregate the statistics, better done off the main thread
+     *
+     * @param windowSeconds the window, or 0 for everything since the last reset
+     * @return the view
+     */
+    public synchronized View view(long windowSeconds) {
+        long now = System.currentTimeMillis();
+        Sample current = this.takeSample(now);
+        Sample base = null;
+        if (windowSeconds > 0) {
+            long from = now - TimeUnit.SECONDS.toMillis(windowSeconds);
+            // the newest sample that is old enough, or the oldest one if the window isn't covered yet
+            Iterator<Sample> iterator = this.samples.descendingIterator();
+            while (iterator.hasNext()) {
+                base = iterator.next();
+                if (base.millis <= from)
+                    break;
+            }
+        }
+        long since = base == null ? this.resetMillis : base.millis;
+        double seconds = Math.max(1, now - since) / 1000D;
+        List<View.Entry> entries = new ArrayList<>();
+        for (Metric metric : Metric.values()) {
+            Histogram.Snapshot snapshot = current.snapshots[metric.ordinal()];
+            if (base != null)
+                snapshot = snapshot.since(base.snapshots[metric.ordinal()]);
+            if (snapshot.getCount() > 0)
+                entries.add(new View.Entry(metric.getKey(), snapshot, seconds));
+        }
+        List<View.CacheEntry> caches = new ArrayList<>();
+        for (Cache cache : Cache.values()) {
+            int i = cache.ordinal();
+            long hits = current.hits[i] - (base == null ? 0 : base.hits[i]);
+            long total = hits + current.misses[i] - (base == null ? 0 : base.misses[i]);
+            if (total > 0)
+                caches.add(new View.CacheEntry(cache.getKey(), hits, total));
+        }
+        return new View(seconds, entries, caches);
+    }
+
+    private static final class Sample {
+        private final long millis;
+        private final Histogram.Snapshot[] snapshots;
+        private final long[] hits, misses;
+
+        private Sample(long millis, Histogram.Snapshot[] snapshots, long[] hits, long[] misses) {
+            this.millis = millis;
+            this.snapshots = snapshots;
+            this.hits = hits;
+            this.misses = misses;
+        }
+    }
+
+    public static final class View {
+        private final double seconds;
+        private final List<Entry> entries;
+        private final List<CacheEntry> caches;
+
+        private View(double seconds, List<Entry> entries, List<CacheEntry> caches) {
+            this.seconds = seconds;
+            this.entries = Collections.unmodifiableList(entries);
+            this.caches = Collections.unmodifiableList(caches);
+        }
+
+        /**
+         * @return the seconds covered by the view
+         */
+        public double getSeconds() {
+            return this.seconds;
+        }
+
+        public List<Entry> getEntries() {
+            return this.entries;
+        }
+
+        public List<CacheEntry> getCaches() {
+            return this.caches;
+        }
+
+        public static final class Entry {
+            private final String metric;
+            private final long count;
+            private final double rate, p50Millis, p99Millis, maxMillis;
+
+            private Entry(String metric, Histogram.Snapshot snapshot, double seconds) {
+                this.metric = metric;
+                this.count = snapshot.getCount();
+                this.rate = this.count / seconds;
+                this.p50Millis = snapshot.getPercentile(50) / 1_000_000D;
+                this.p99Millis = snapshot.getPercentile(99) / 1_000_000D;
+                this.maxMillis = snapshot.getMax() / 1_000_000D;
+            }
+
+            public String getMetric() {
+                return this.metric;
+            }
+
+            public long getCount() {
+                return this.count;
+            }
+
+            /**
+             * @return the calls per second
+             */
+            public double getRate() {
+                return this.rate;
+            }
+
+            public double getP50Millis() {
+                return this.p50Millis;
+            }
+
+            public double getP99Millis() {
+                return this.p99Millis;
+            }
+
+            public double getMaxMillis() {
+                return this.maxMillis;
+            }
+        }
+
+        public static final class CacheEntry {
+            private final String cache;
+            private final long hits, total;
+
+            private CacheEntry(String cache, long hits, long total) {
+                this.cache = cache;
+                this.hits = hits;
+                this.total = total;
+            }
+
+            public String getCache() {
+                return this.cache;
+            }
+
+            public long getHits() {
+                return this.hits;
+            }
+
+            public long getTotal() {
+                return this.total;
+            }
+
+            public double getHitRate() {
+                return this.total == 0 ? 0 : this.hits * 100D / this.total;
+            }
+        }
+    }
+}
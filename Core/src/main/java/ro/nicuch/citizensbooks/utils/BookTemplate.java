@@ -0,0 +1,102 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.utils;
+
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BookMeta;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * The texts of a book, so they can be rendered in multiple passes,
+ * possibly on different threads, and written back to the book once.
+ */
+public class BookTemplate {
+    private final ItemStack book;
+    private final BookMeta meta;
+    private String title, author;
+    private final List<String> pages;
+
+    /**
+     * @param book the book that receives the result, it should be a copy
+     */
+    public BookTemplate(ItemStack book) {
+        this.book = book;
+        this.meta = book.hasItemMeta() ? (BookMeta) book.getItemMeta() : null;
+        if (this.meta == null) {
+            this.pages = new ArrayList<>();
+            return;
+        }
+        this.title = this.meta.hasTitle() ? this.meta.getTitle() : null;
+        this.author = this.meta.hasAuthor() ? this.meta.getAuthor() : null;
+        this.pages = this.meta.hasPages() ? new ArrayList<>(this.meta.getPages()) : new ArrayList<>();
+    }
+
+    /**
+     * Replace every text of the book
+     *
+     * @param operator the replacement
+     * @return this template
+     */
+    public BookTemplate map(UnaryOperator<String> operator) {
+        if (this.title != null)
+            this.title = operator.apply(this.title);
+        if (this.author != null)
+            this.author = operator.apply(this.author);
+        this.pages.replaceAll(operator);
+        return this;
+    }
+
+    public boolean anyMatch(Predicate<String> predicate) {
+        if (this.title != null && predicate.test(this.title))
+            return true;
+        if (this.author != null && predicate.test(this.author))
+            return true;
+        for (String page : this.pages)
+            if (predicate.test(page))
+                return true;
+        return false;
+    }
+
+    public int getPageCount() {
+        return this.pages.size();
+    }
+
+    /**
+     * Write the texts back to the book
+     *
+     * @return the book
+     */
+    public ItemStack toBook() {
+        if (this.meta == null)
+            return this.book;
+        if (this.title != null)
+            this.meta.setTitle(this.title);
+        if (this.author != null)
+            this.meta.setAuthor(this.author);
+        if (this.meta.hasPages())
+            this.meta.setPages(this.pages);
+        this.book.setItemMeta(this.meta);
+        return this.book;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.utils;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-player cooldowns between opened books.
+ * <p>
+ * Every player has a {@code long[]} with the time when each source is allowed
+ * to open a book again, so a suppressed click is a single comparison. The last
+ * slot is the time when every cooldown is over, after that the entry is
+ * ignored and it is removed by {@link #cleanup()}, or when the player quits.
+ * The arrays are replaced, never changed, so they can be read from any thread.
+ */
+public class ClickLimiter {
+    private static final OpenSource[] SOURCES = OpenSource.values();
+    private static final int EXPIRES = SOURCES.length;
+
+    private final Map<UUID, long[]> nextAllowed = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder rejectedTotal = new LongAdder();
+    private volatile long playerCooldown;
+    private volatile long[] sourceCooldowns = new long[SOURCES.length];
+    private volatile long lifeTime;
+
+    public void reload(ConfigurationSection section) {
+        long playerCooldown = section == null ? 0 : Math.max(0, section.getLong("player", 0));
+        long[] sourceCooldowns = new long[SOURCES.length];
+        long max = playerCooldown;
+        for (OpenSource source : SOURCES) {
+            long cooldown = section == null ? 0 : Math.max(0, section.getLong(source.getKey(), 0));
+            sourceCooldowns[source.ordinal()] = cooldown;
+            max = Math.max(max, cooldown);
+        }
+        this.playerCooldown = playerCooldown;
+        this.sourceCooldowns = sourceCooldowns;
+        this.lifeTime = max;
+        if (max == 0)
+            this.nextAllowed.clear();
+    }
+
+    public boolean isEnabled() {
+        return this.lifeTime > 0;
+    }
+
+    /**
+     * Check if the player is allowed to open a book from the given source.
+     * Rejected clicks are counted.
+     *
+     * @param uuid   the player
+     * @param source where the book is opened from
+     * @return if the book can be opened
+     */
+    public boolean check(UUID uuid, OpenSource source) {
+        long[] times = this.nextAllowed.get(uuid);
+        if (times == null || System.currentTimeMillis() >= times[source.ordinal()])
+            return true;
+        this.rejected.increment();
+        this.rejectedTotal.increment();
+        return false;
+    }
+
+    /**
+     * Start the cooldowns after the player opened a book from the given source
+     *
+     * @param uuid   the player
+     * @param source where the book was opened from
+     */
+    public void record(UUID uuid, OpenSource source) {
+        if (this.lifeTime <= 0)
+            return;
+        long now = System.currentTimeMillis();
+        long playerNext = now + this.playerCooldown;
+        int index = source.ordinal();
+        long sourceNext = now + this.sourceCooldowns[index];
+        this.nextAllowed.compute(uuid, (key, old) -> {
+            long[] times = old == null || now >= old[EXPIRES] ? new long[SOURCES.length + 1] : old.clone();
+            for (int i = 0; i < SOURCES.length; i++)
+                if (times[i] < playerNext)
+                    times[i] = playerNext;
+            times[index] = Math.max(times[index], sourceNext);
+            times[EXPIRES] = Math.max(times[EXPIRES], times[index]);
+            return times;
+        });
+    }
+
+    public void forget(UUID uuid) {
+        this.nextAllowed.remove(uuid);
+    }
+
+    /**
+     * Remove the players with no cooldown left, from any thread
+     */
+    public void cleanup() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<UUID, long[]> entry : this.nextAllowed.entrySet())
+            if (now >= entry.getValue()[EXPIRES])
+                this.nextAllowed.remove(entry.getKey(), entry.getValue()); // not if a click renewed it meanwhile
+    }
+
+    public int size() {
+        return this.nextAllowed.size();
+    }
+
+    /**
+     * @return the estimated heap use, in bytes
+     */
+    public long estimateSize() {
+        int size = this.nextAllowed.size();
+        return MemoryEstimator.map(size) + MemoryEstimator.uuids(size) + size * MemoryEstimator.longArray(SOURCES.length + 1);
+    }
+
+    /**
+     * Get the rejected clicks since the last call
+     *
+     * @return the rejected clicks
+     */
+    public long pollRejected() {
+        return this.rejected.sumThenReset();
+    }
+
+    public long getRejectedTotal() {
+        return this.rejectedTotal.sum();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds.
+ * <p>
+ * Values below 16 have their own bucket, the rest are split in powers of two
+ * with 8 buckets each, so a value is known within 12.5%. Recording is a few
+ * atomic increments, the percentiles are computed from a {@link Snapshot}.
+ */
+public class Histogram {
+    private static final int SUB_BUCKETS = 8;
+    private static final int MAX_EXPONENT = 40; // about 18 minutes
+    static final int BUCKETS = 16 + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+
+    static int indexOf(long value) {
+        if (value < 16)
+            return (int) Math.max(0, value);
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT)
+            return BUCKETS - 1;
+        int subBucket = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+        return 16 + (exponent - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the highest value that falls in the bucket
+     */
+    static long valueOf(int index) {
+        if (index < 16)
+            return index;
+        int exponent = (index - 16) / SUB_BUCKETS + 4;
+        int subBucket = (index - 16) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - 3)) - 1;
+    }
+
+    public void record(long nanos) {
+        this.counts.incrementAndGet(indexOf(nanos));
+        this.sum.addAndGet(nanos);
+        long max = this.max.get();
+        while (nanos > max && !this.max.compareAndSet(max, nanos))
+            max = this.max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            this.counts.set(i, 0);
+        this.max.set(0);
+        this.sum.set(0);
+    }
+
+    /**
+     * Copy the counts, from any thread
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = this.counts.get(i);
+        return new Snapshot(counts, this.sum.get(), this.max.get());
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count, sum, max;
+
+        private Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            this.sum = sum;
+            long count = 0;
+            for (long bucket : counts)
+                count += bucket;
+            this.count = count;
+            this.max = max;
+        }
+
+        /**
+         * The values recorded since the older snapshot.
+         * The maximum is the highest bucket of the difference.
+         *
+         * @param older the older snapshot
+         * @return the difference
+         */
+        public Snapshot since(Snapshot older) {
+            long[] counts = new long[BUCKETS];
+            int highest = -1;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = Math.max(0, this.counts[i] - older.counts[i]);
+                if (counts[i] > 0)
+                    highest = i;
+            }
+            return new Snapshot(counts, Math.max(0, this.sum - older.sum), highest < 0 ? 0 : Math.min(this.max, valueOf(highest)));
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * @return the sum of the values, in nanoseconds
+         */
+        public long getSum() {
+            return this.sum;
+        }
+
+        public long getMax() {
+            return this.max;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the value in nanoseconds, 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile) {
+            if (this.count == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100D * this.count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += this.counts[i];
+                if (seen >= rank)
+                    return Math.min(valueOf(i), this.max);
+            }
+            return this.max;
+        }
+    }
+}
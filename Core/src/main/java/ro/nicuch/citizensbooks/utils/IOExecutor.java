@@ -0,0 +1,154 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * The executor used for every disk and network operation of the plugin.
+ * <p>
+ * The amount of queued tasks is bounded, when the queue is full the task runs
+ * on the calling thread, so nothing is dropped. On Java 21+ every task can get
+ * its own virtual thread, so many small file operations don't hold platform threads.
+ */
+public class IOExecutor implements Executor {
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final boolean virtual;
+
+    /**
+     * @param name           the thread name prefix
+     * @param threads        the platform threads, if virtual threads are not used
+     * @param capacity       the maximum queued and running tasks
+     * @param virtualThreads if virtual threads should be used when available
+     */
+    public IOExecutor(String name, int threads, int capacity, boolean virtualThreads) {
+        ExecutorService virtualExecutor = virtualThreads ? createVirtualExecutor(name) : null;
+        if (virtualExecutor != null) {
+            this.delegate = virtualExecutor;
+            this.virtual = true;
+        } else {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads),
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new NamedThreadFactory(name));
+            executor.allowCoreThreadTimeOut(true);
+            this.delegate = executor;
+            this.virtual = false;
+        }
+        this.permits = new Semaphore(Math.max(1, capacity));
+    }
+
+    private static ExecutorService createVirtualExecutor(String name) {
+        if (Runtime.version().feature() < 21)
+            return null;
+        try {
+            // Thread.ofVirtual().name(name + "-", 1).factory(), without compiling against Java 21
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(@NotNull Runnable task) {
+        if (!this.permits.tryAcquire()) {
+            task.run(); // the queue is full, slow down the caller instead of dropping the task
+            return;
+        }
+        this.pending.incrementAndGet();
+        try {
+            this.delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    this.pending.decrementAndGet();
+                    this.permits.release();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // already shut down
+            this.pending.decrementAndGet();
+            this.permits.release();
+            task.run();
+        }
+    }
+
+    public <T> CompletableFuture<T> supply(Callable<T> callable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        this.execute(() -> {
+            try {
+                future.complete(callable.call());
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
+            }
+        });
+        return future;
+    }
+
+    public CompletableFuture<Void> run(Runnable runnable) {
+        return this.supply(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Get the tasks that are queued or running
+     *
+     * @return the pending tasks
+     */
+    public int getPending() {
+        return this.pending.get();
+    }
+
+    public boolean isVirtual() {
+        return this.virtual;
+    }
+
+    /**
+     * Stop accepting tasks and wait for the pending ones to finish
+     *
+     * @param logger  the logger
+     * @param timeout the maximum time to wait
+     * @param unit    the time unit
+     */
+    public void shutdown(Logger logger, long timeout, TimeUnit unit) {
+        this.delegate.shutdown();
+        try {
+            if (!this.delegate.awaitTermination(timeout, unit)) {
+                logger.warning("Some I/O operations didn't finish in time, " + this.pending.get() + " were dropped!");
+                this.delegate.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            this.delegate.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
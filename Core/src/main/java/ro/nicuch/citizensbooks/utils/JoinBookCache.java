@@ -0,0 +1,186 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.utils;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.inventory.ItemStack;
+import ro.nicuch.citizensbooks.CitizensBooksAPI;
+import ro.nicuch.citizensbooks.CitizensBooksPlugin;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The join book state, readable from any thread.
+ * <p>
+ * The join handlers look up the seen state here instead of in the settings.
+ * The players that see the join book are only written to the settings by
+ * {@link #flush()}, so a login storm doesn't save the settings on every join.
+ */
+public class JoinBookCache {
+    private final CitizensBooksPlugin plugin;
+    private final Map<UUID, Long> lastSeen = new ConcurrentHashMap<>();
+    private final Set<UUID> unsaved = ConcurrentHashMap.newKeySet();
+    private volatile ItemStack joinBook;
+    private volatile String joinBookFilter;
+    private volatile long lastChange;
+
+    public JoinBookCache(CitizensBooksPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Copy the join book state from the settings, called on the global thread
+     */
+    public void reload() {
+        this.update(this.plugin.getSettingsSnapshot());
+        YamlConfiguration settings = this.plugin.getSettings();
+        // not written yet, they would be lost
+        for (UUID uuid : this.unsaved) {
+            Long seen = this.lastSeen.get(uuid);
+            if (seen != null)
+                settings.set("join_book_last_seen_by_players." + uuid.toString(), seen);
+        }
+        this.lastSeen.clear();
+        ConfigurationSection section = settings.getConfigurationSection("join_book_last_seen_by_players");
+        if (section != null)
+            for (String key : section.getKeys(false))
+                if (section.isLong(key))
+                    try {
+                        this.lastSeen.put(UUID.fromString(key), section.getLong(key));
+                    } catch (IllegalArgumentException ignore) {
+                        // not an uuid, the settings were edited
+                    }
+    }
+
+    /**
+     * Use the join book from the new settings
+     *
+     * @param settings the settings
+     */
+    public void update(Settings settings) {
+        this.joinBook = settings.getJoinBook();
+        this.joinBookFilter = settings.getJoinBookFilter();
+        this.lastChange = settings.getJoinBookLastChange();
+    }
+
+    /**
+     * Get the join book state of a player, from any thread
+     *
+     * @param uuid the player
+     * @return the state, or null if there is no join book
+     */
+    public State get(UUID uuid) {
+        ItemStack book = this.resolveBook();
+        if (book == null)
+            return null;
+        long lastChange = this.lastChange;
+        Long seen = this.lastSeen.get(uuid);
+        return new State(book, seen != null && seen >= lastChange);
+    }
+
+    /**
+     * @return a copy of the join book, looked up if it's a filter, or null
+     */
+    private ItemStack resolveBook() {
+        String filterName = this.joinBookFilter;
+        if (filterName != null) {
+            CitizensBooksAPI api = this.plugin.getAPI();
+            return api.hasFilter(filterName) ? api.getFilter(filterName) : null;
+        }
+        ItemStack book = this.joinBook;
+        return book == null ? null : book.clone();
+    }
+
+    /**
+     * Mark the join book as seen by the player, from any thread.
+     * The settings are updated by the next {@link #flush()}.
+     *
+     * @param uuid the player
+     */
+    public void markSeen(UUID uuid) {
+        this.lastSeen.put(uuid, System.currentTimeMillis());
+        this.unsaved.add(uuid);
+    }
+
+    /**
+     * Write the players that saw the join book since the last flush
+     * to the settings and save them, called on the global thread
+     */
+    public void flush() {
+        if (this.unsaved.isEmpty())
+            return;
+        YamlConfiguration settings = this.plugin.getSettings();
+        Iterator<UUID> iterator = this.unsaved.iterator();
+        while (iterator.hasNext()) {
+            UUID uuid = iterator.next();
+            iterator.remove();
+            Long seen = this.lastSeen.get(uuid);
+            if (seen != null)
+                settings.set("join_book_last_seen_by_players." + uuid.toString(), seen);
+        }
+        this.plugin.saveSettings();
+    }
+
+    /**
+     * @return the players that saw the join book
+     */
+    public int size() {
+        return this.lastSeen.size();
+    }
+
+    /**
+     * @return the estimated heap use of the players that saw the join book, in bytes
+     */
+    public long estimateSize() {
+        int lastSeen = this.lastSeen.size();
+        int unsaved = this.unsaved.size();
+        return MemoryEstimator.map(lastSeen) + MemoryEstimator.uuids(lastSeen) + MemoryEstimator.boxedLongs(lastSeen)
+                + MemoryEstimator.map(unsaved);
+    }
+
+    public static final class State {
+        private final ItemStack book;
+        private final boolean seen;
+
+        private State(ItemStack book, boolean seen) {
+            this.book = book;
+            this.seen = seen;
+        }
+
+        /**
+         * @return a copy of the join book, not rendered yet
+         */
+        public ItemStack getBook() {
+            return this.book;
+        }
+
+        /**
+         * @return if the player has already seen the current join book
+         */
+        public boolean isSeen() {
+            return this.seen;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.utils;
+
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BookMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Estimates the retained heap size of the objects we keep, from their structure.
+ * <p>
+ * The sizes are for a 64-bit JVM with compressed references, and the internals
+ * of the server (like the chat components of a book page) are approximated.
+ * Good enough to compare books and caches, not to replace a heap dump.
+ */
+public final class MemoryEstimator {
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final long STRING = align(OBJECT_HEADER + REFERENCE + 4 + 1 + 1); // value, hash, coder, hashIsZero
+    private static final long UUID = align(OBJECT_HEADER + 8 + 8);
+    private static final long BOXED_LONG = align(OBJECT_HEADER + 8);
+    private static final long MAP_NODE = align(OBJECT_HEADER + 4 + REFERENCE * 3); // hash, key, value, next
+    private static final long ITEM_STACK = align(OBJECT_HEADER + REFERENCE * 2 + 4 + 2); // type, meta, amount, durability
+    private static final long BOOK_META = 96; // the common item meta fields, the title, author, generation and the pages
+    private static final long PAGE_COMPONENT = 64; // the text component that holds a page
+    private static final long DELAYED_KEY = align(OBJECT_HEADER + REFERENCE + 8);
+
+    private MemoryEstimator() {
+    }
+
+    public static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    public static long string(String text) {
+        if (text == null)
+            return 0;
+        boolean latin1 = true;
+        for (int i = 0; i < text.length() && latin1; i++)
+            latin1 = text.charAt(i) < 256;
+        return STRING + align(ARRAY_HEADER + (long) text.length() * (latin1 ? 1 : 2));
+    }
+
+    /**
+     * @param size the elements
+     * @return the list without its elements
+     */
+    public static long list(int size) {
+        return align(OBJECT_HEADER + 4 + 4 + REFERENCE) + align(ARRAY_HEADER + (long) size * REFERENCE);
+    }
+
+    /**
+     * @param size the entries
+     * @return the hash map without its keys and values
+     */
+    public static long map(int size) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) Math.ceil(size / 0.75D)) - 1) << 1;
+        return align(OBJECT_HEADER + 4 * 4 + REFERENCE * 4) + align(ARRAY_HEADER + (long) capacity * REFERENCE) + size * MAP_NODE;
+    }
+
+    /**
+     * A {@link DelayHashMap} keeps the values and the delayed keys in two maps, and the keys in a queue
+     *
+     * @param size the entries
+     * @return the delay map without its keys and values
+     */
+    public static long delayMap(int size) {
+        return map(size) * 2 + size * DELAYED_KEY + align(ARRAY_HEADER + (long) size * REFERENCE);
+    }
+
+    public static long uuids(int size) {
+        return size * UUID;
+    }
+
+    public static long boxedLongs(int size) {
+        return size * BOXED_LONG;
+    }
+
+    public static long longArray(int length) {
+        return align(ARRAY_HEADER + length * 8L);
+    }
+
+    public static long strings(Collection<String> texts) {
+        long size = 0;
+        for (String text : texts)
+            size += string(text);
+        return size;
+    }
+
+    public static long stringMap(Map<String, String> map) {
+        return map(map.size()) + strings(map.keySet()) + strings(map.values());
+    }
+
+    /**
+     * @param book the book
+     * @return the book, with its pages
+     */
+    public static long book(ItemStack book) {
+        if (book == null)
+            return 0;
+        ItemMeta meta = book.getItemMeta();
+        if (!(meta instanceof BookMeta))
+            return ITEM_STACK;
+        return book((BookMeta) meta);
+    }
+
+    public static long book(BookMeta meta) {
+        long size = ITEM_STACK + BOOK_META + string(meta.getTitle()) + string(meta.getAuthor());
+        size += list(meta.getPageCount());
+        for (String page : meta.getPages())
+            size += page(page);
+        return size;
+    }
+
+    public static long page(String page) {
+        return PAGE_COMPONENT + string(page);
+    }
+
+    /**
+     * @param bytes the size
+     * @return the size for humans
+     */
+    public static String format(long bytes) {
+        if (bytes < 1024)
+            return bytes + " B";
+        if (bytes < 1024 * 1024)
+            return String.format("%.1f KiB", bytes / 1024D);
+        return String.format("%.1f MiB", bytes / (1024D * 1024D));
+    }
+}
@@ -0,0 +1,227 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.utils;
+
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BookMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The estimated heap use of the books and the caches, with the largest
+ * books and the books or pages that are stored more than once.
+ * Built off the main thread by {@link Builder}.
+ */
+public class MemoryReport {
+    private final List<Category> categories;
+    private final List<Book> largest;
+    private final List<Duplicate> duplicates;
+    private final int duplicatedPages;
+    private final long duplicatedPagesBytes;
+
+    private MemoryReport(List<Category> categories, List<Book> largest, List<Duplicate> duplicates, int duplicatedPages, long duplicatedPagesBytes) {
+        this.categories = Collections.unmodifiableList(categories);
+        this.largest = Collections.unmodifiableList(largest);
+        this.duplicates = Collections.unmodifiableList(duplicates);
+        this.duplicatedPages = duplicatedPages;
+        this.duplicatedPagesBytes = duplicatedPagesBytes;
+    }
+
+    public List<Category> getCategories() {
+        return this.categories;
+    }
+
+    /**
+     * @return the largest books, the largest first
+     */
+    public List<Book> getLargest() {
+        return this.largest;
+    }
+
+    /**
+     * @return the groups of books with the same title, author and pages, the most wasteful first
+     */
+    public List<Duplicate> getDuplicates() {
+        return this.duplicates;
+    }
+
+    /**
+     * @return the pages found in more than one of the different books, counting each copy after the first
+     */
+    public int getDuplicatedPages() {
+        return this.duplicatedPages;
+    }
+
+    public long getDuplicatedPagesBytes() {
+        return this.duplicatedPagesBytes;
+    }
+
+    public long getTotalBytes() {
+        long total = 0;
+        for (Category category : this.categories)
+            total += category.bytes;
+        return total;
+    }
+
+    public static final class Builder {
+        private final int limit;
+        private final List<Category> categories = new ArrayList<>();
+        private final List<Book> books = new ArrayList<>();
+        private final Map<List<Object>, List<Book>> byContent = new LinkedHashMap<>();
+
+        /**
+         * @param limit how many of the largest books and duplicates are kept
+         */
+        public Builder(int limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Measure books, should be called off the main thread
+         *
+         * @param category the category
+         * @param books    the books by name
+         * @return this
+         */
+        public Builder books(String category, Map<String, ItemStack> books) {
+            long bytes = MemoryEstimator.map(books.size());
+            for (Map.Entry<String, ItemStack> entry : books.entrySet()) {
+                ItemMeta meta = entry.getValue().getItemMeta();
+                if (!(meta instanceof BookMeta))
+                    continue;
+                BookMeta bookMeta = (BookMeta) meta;
+                Book book = new Book(entry.getKey(), MemoryEstimator.book(bookMeta), bookMeta.getPages());
+                bytes += MemoryEstimator.string(entry.getKey()) + book.bytes;
+                this.books.add(book);
+                this.byContent.computeIfAbsent(Arrays.asList(bookMeta.getTitle(), bookMeta.getAuthor(), book.pages), key -> new ArrayList<>()).add(book);
+            }
+            this.categories.add(new Category(category, books.size(), bytes));
+            return this;
+        }
+
+        public Builder cache(String category, int entries, long bytes) {
+            this.categories.add(new Category(category, entries, bytes));
+            return this;
+        }
+
+        public MemoryReport build() {
+            List<Book> largest = new ArrayList<>(this.books);
+            largest.sort(Comparator.comparingLong(Book::getBytes).reversed());
+            List<Duplicate> duplicates = new ArrayList<>();
+            Map<String, Integer> pageCopies = new HashMap<>();
+            for (List<Book> group : this.byContent.values()) {
+                if (group.size() > 1)
+                    duplicates.add(new Duplicate(group));
+                for (String page : group.get(0).pages)
+                    pageCopies.merge(page, 1, Integer::sum);
+            }
+            duplicates.sort(Comparator.comparingLong(Duplicate::getWastedBytes).reversed());
+            int duplicatedPages = 0;
+            long duplicatedPagesBytes = 0;
+            for (Map.Entry<String, Integer> entry : pageCopies.entrySet())
+                if (entry.getValue() > 1) {
+                    duplicatedPages += entry.getValue() - 1;
+                    duplicatedPagesBytes += (entry.getValue() - 1) * MemoryEstimator.page(entry.getKey());
+                }
+            return new MemoryReport(this.categories,
+                    largest.subList(0, Math.min(this.limit, largest.size())),
+                    duplicates.subList(0, Math.min(this.limit, duplicates.size())),
+                    duplicatedPages, duplicatedPagesBytes);
+        }
+    }
+
+    public static final class Category {
+        private final String name;
+        private final int entries;
+        private final long bytes;
+
+        private Category(String name, int entries, long bytes) {
+            this.name = name;
+            this.entries = entries;
+            this.bytes = bytes;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public int getEntries() {
+            return this.entries;
+        }
+
+        public long getBytes() {
+            return this.bytes;
+        }
+    }
+
+    public static final class Book {
+        private final String name;
+        private final long bytes;
+        private final List<String> pages;
+
+        private Book(String name, long bytes, List<String> pages) {
+            this.name = name;
+            this.bytes = bytes;
+            this.pages = pages;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public long getBytes() {
+            return this.bytes;
+        }
+
+        public int getPages() {
+            return this.pages.size();
+        }
+    }
+
+    public static final class Duplicate {
+        private final List<String> names = new ArrayList<>();
+        private final long wastedBytes;
+
+        private Duplicate(List<Book> books) {
+            for (Book book : books)
+                this.names.add(book.name);
+            this.wastedBytes = books.get(0).bytes * (books.size() - 1);
+        }
+
+        public List<String> getNames() {
+            return this.names;
+        }
+
+        /**
+         * @return what would be saved if the books were stored once
+         */
+        public long getWastedBytes() {
+            return this.wastedBytes;
+        }
+    }
+}
@@ -23,6 +23,10 @@ public enum Message {
     HEADER("header", "&f[&6CitizensBooks&f] &r"),
     NO_PERMISSION("no_permission", "&cYou don't have permission!"),
     CONFIG_RELOADED("config_reloaded", "&aConfig reloaded."),
+    RELOAD_STARTED("reload_started", "&aReloading the config and the filters..."),
+    RELOAD_FAILED("reload_failed", "&cThe reload failed, nothing was changed: &f%error%"),
+    RELOAD_NO_CHANGES("reload_no_changes", "&aNothing was changed."),
+    RELOAD_CHANGES("reload_changes", "&f%category%&a: &f%added% &aadded, &f%changed% &achanged, &f%removed% &aremoved &7%names%"),
     SET_BOOK_SUCCESSFULLY("set_book_successfully", "&aYou have set the book for %npc%&a!"),
     REMOVED_BOOK_SUCCESSFULLY("removed_book_successfully", "&aYou have removed the book for %npc%&a!"),
     NO_NPC_SELECTED("no_npc_selected", "&cYou need to have an NPC selected!"),
@@ -47,15 +51,38 @@ public enum Message {
     REMOVED_JOIN_BOOK_SUCCESSFULLY("removed_join_book_successfully", "&aYou have removed the join book!"),
     FILTER_NAME_INVALID("filter_name_invalid", "&cThe filter name should only contain letters, numbers, dashes and underscores!"),
     COMMAND_NAME_INVALID("command_name_invalid", "&cThe command name should only contain letters, numbers, dashes and underscores!"),
+    FORCEOPEN_PROGRESS("forceopen_progress", "&aOpening the book for players... &f%opened%&a/&f%total%"),
+    FORCEOPEN_COMPLETED("forceopen_completed", "&aThe book was opened for &f%opened%&a/&f%total% &aplayers in &f%ticks% &aticks."),
+    PLACEHOLDERS_HEADER("placeholders.header", "&aSlow placeholders &f(&abudget &f%budget%ms)&a:"),
+    PLACEHOLDERS_ENTRY("placeholders.entry", "&f%placeholder% &7- &e%state% &7avg &f%average%ms &7max &f%max%ms &7slow &f%slow%&7/&f%calls% &7cached &f%skipped%"),
+    PLACEHOLDERS_NONE("placeholders.none", "&aNo slow placeholders were found."),
+    PLACEHOLDERS_RESET("placeholders.reset", "&aThe placeholder statistics were reset."),
+    STATS_HEADER("stats.header", "&aStatistics &f(&a%window%&f, &a%seconds%s&f)&a:"),
+    STATS_ENTRY("stats.entry", "&f%metric% &7- &f%count% &7calls &f%rate%&7/s p50 &f%p50%ms &7p99 &f%p99%ms &7max &f%max%ms"),
+    STATS_CACHE("stats.cache", "&f%cache% &7cache - &e%hit_rate%% &7hits &f%hits%&7/&f%total%"),
+    STATS_NONE("stats.none", "&aNothing was recorded yet."),
+    STATS_RESET("stats.reset", "&aThe statistics were reset."),
+    STATS_DISABLED("stats.disabled", "&cThe statistics are disabled in the config."),
+    SELFTEST_HEADER("selftest.header", "&aSelf-test of &f%filter_name%&a, &f%runs% &aruns in &f%total%ms&a:"),
+    SELFTEST_ENTRY("selftest.entry", "&f%step% &7- avg &f%average%ms &7p50 &f%p50%ms &7p99 &f%p99%ms &7max &f%max%ms"),
+    SELFTEST_SUMMARY("selftest.summary", "&7One open costs &f%average%ms&7, &f%tick_percent%% &7of a tick and &f%budget_percent%% &7of the tick budget."),
+    BUDGET_OVERRUN("budget_overrun", "&cCitizensBooks used &f%used%ms &cof its &f%budget%ms &cbudget in one tick &7(avg &f%average%ms &7over &f%window% &7ticks, &f%overruns% &7overruns)&c. Top: &f%top%"),
+    MEMORY_HEADER("memory.header", "&aEstimated heap use &f%total% &7(structural estimate, no heap dump)&a:"),
+    MEMORY_ENTRY("memory.entry", "&f%category% &7- &f%entries% &7entries, &f%size%"),
+    MEMORY_LARGEST("memory.largest", "&aLargest books:"),
+    MEMORY_BOOK("memory.book", "&f%book% &7- &f%size% &7(&f%pages% &7pages)"),
+    MEMORY_DUPLICATE("memory.duplicate", "&e%books% &7have the same content, &f%wasted% &7could be saved"),
+    MEMORY_DUPLICATED_PAGES("memory.duplicated_pages", "&f%pages% &7pages are repeated in different books, &f%wasted% &7in total"),
+    MEMORY_NO_DUPLICATES("memory.no_duplicates", "&aNo duplicated content was found."),
 
-    USAGE_SET("usage.set", "&aUsage: &f/npcbook set [right/left]"),
+    USAGE_SET("usage.set", "&aUsage: &f/npcbook set [right/left] [filter name]"),
     USAGE_REMOVE("usage.remove", "&aUsage: &f/npcbook remove [right/left]"),
     USAGE_HELP("usage.help", "&aUsage: &f/npcbook help [page]"),
     USAGE_GETBOOK("usage.getbook", "&aUsage: &f/npcbook getbook [right/left]"),
     USAGE_OPENBOOK("usage.openbook", "&aUsage: &f/npcbook openbook"),
     USAGE_SETCMD("usage.setcmd", "&aUsage: &f/npcbook setcmd <command> <filter name>"),
     USAGE_REMCMD("usage.remove", "&aUsage: &f/npcbook remcmd <command>"),
-    USAGE_SETJOIN("usage.setjoin", "&aUsage: &f/npcbook setjoin"),
+    USAGE_SETJOIN("usage.setjoin", "&aUsage: &f/npcbook setjoin [filter name]"),
     USAGE_REMJOIN("usage.remjoin", "&aUsage: &f/npcbook remjoin"),
     USAGE_FORCEOPEN("usage.forceopen", "&aUsage: &f/npcbook forceopen <filter name> <player>"),
     USAGE_FILTER_SET("usage.filter.set", "&aUsage: &f/npcbook filter set <filter name>"),
@@ -63,26 +90,33 @@ public enum Message {
     USAGE_FILTER_GETBOOK("usage.filter.getbook", "&aUsage: &f/npcbook filter getbook <filter name>"),
     USAGE_ACTIONITEM_SET("usage.actionitem.set", "&aUsage: &f/npcbook actionitem set <filter name> [right/left]"),
     USAGE_ACTIONITEM_REMOVE("usage.actionitem.remove", "&aUsage: &f/npcbook actionitem remove [right/left]"),
+    USAGE_PLACEHOLDERS("usage.placeholders", "&aUsage: &f/npcbook placeholders [reset]"),
+    USAGE_STATS("usage.stats", "&aUsage: &f/npcbook stats [reset/1m/5m/15m]"),
+    USAGE_SELFTEST("usage.selftest", "&aUsage: &f/npcbook selftest <filter name> [runs]"),
 
-    HELP_INFO("help.info", "&e<    &6Commands and Usage &f| &6Page index (%page%/3) &e    >"),
+    HELP_INFO("help.info", "&e<    &6Commands and Usage &f| &6Page index (%page%/4) &e    >"),
     HELP_ARGUMENTS("help.arguments", "&f(&c<> &f= &erequired argument&f, &c[] &f= &eoptional argument&f)"),
     HELP_ABOUT("help.about", "&f/npcbook about"),
     HELP_HELP("help.help", "&f/npcbook help [page] $ &9Show help page."),
-    HELP_SET("help.set", "&f/npcbook set [right/left] $ &9Set book for npc."),
+    HELP_SET("help.set", "&f/npcbook set [right/left] [filter name] $ &9Set book for npc, or a filter it opens."),
     HELP_REMOVE("help.remove", "&f/npcbook remove [right/left] $ &9Remove book for npc."),
     HELP_GETBOOK("help.getbook", "&f/npcbook getbook [right/left] $ &9Get the book of npc."),
     HELP_OPENBOOK("help.openbook", "&f/npcbook openbook $ &9Open a writen book."),
     HELP_RELOAD("help.reload", "&f/npcbook reload $ &9Reload config file."),
     HELP_SETCMD("help.setcmd", "&f/npcbook setcmd <command> <filter name> $ &9Set command by the given filter name."),
     HELP_REMCMD("help.remcmd", "&f/npcbook remcmd <command> $ &9Remove command."),
-    HELP_SETJOIN("help.setjoin", "&f/npcbook setjoin $ &9Set the join book."),
+    HELP_SETJOIN("help.setjoin", "&f/npcbook setjoin [filter name] $ &9Set the join book, or a filter used as join book."),
     HELP_REMJOIN("help.remjoin", "&f/npcbook remjoin $ &9Remove the join book."),
     HELP_FORCEOPEN("help.forceopen", "&f/npcbook forceopen <filter name> <player> $ &9Force a player to open a book."),
     HELP_FILTER_SET("help.filter.set", "&f/npcbook filter set <filter name> $ &9Set a filter by the given name."),
     HELP_FILTER_REMOVE("help.filter.remove", "&f/npcbook filter remove <filter name> [right/left] $ &9Remove a filter by the given name."),
     HELP_FILTER_GETBOOK("help.filter.getbook", "&f/npcbook filter getbook <filter name> $ &9Get the book of filter by the given name."),
     HELP_ACTIONITEM_SET("help.actionitem.set", "&f/npcbook actionitem set <filter name> [right/left] $ &9Put a filter on the item you hold."),
-    HELP_ACTIONITEM_REMOVE("help.actionitem.remove", "&f/npcbook actionitem remove [right/left] $ &9Remove the filter from the item you hold.");
+    HELP_ACTIONITEM_REMOVE("help.actionitem.remove", "&f/npcbook actionitem remove [right/left] $ &9Remove the filter from the item you hold."),
+    HELP_PLACEHOLDERS("help.placeholders", "&f/npcbook placeholders [reset] $ &9Show the slow placeholders."),
+    HELP_STATS("help.stats", "&f/npcbook stats [reset/1m/5m/15m] $ &9Show the latency statistics."),
+    HELP_SELFTEST("help.selftest", "&f/npcbook selftest <filter name> [runs] $ &9Open a filter many times and show the cost."),
+    HELP_MEMORY("help.memory", "&f/npcbook memory $ &9Show the estimated heap use of the books and caches.");
 
     private final String key, def;
 
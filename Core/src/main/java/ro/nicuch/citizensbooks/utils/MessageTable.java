@@ -0,0 +1,116 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.utils;
+
+import org.bukkit.ChatColor;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The messages from the settings, translated once when the settings are loaded.
+ * <p>
+ * Every message is split around its {@code %slot%} placeholders, so sending
+ * a message is a lookup and filling in the slots. Help lines are split
+ * at {@code $} ahead of time.
+ */
+public class MessageTable {
+    private static final Pattern SLOT_PATTERN = Pattern.compile("%[A-Za-z0-9_]+%");
+
+    private final Map<Message, CompiledMessage> messages = new EnumMap<>(Message.class);
+
+    public MessageTable(ConfigurationSection settings) {
+        String header = translate(settings.getString(Message.HEADER.getPath(), Message.HEADER.getDefault()));
+        for (Message message : Message.values())
+            this.messages.put(message, new CompiledMessage(header, translate(settings.getString(message.getPath(), message.getDefault()))));
+    }
+
+    private static String translate(String text) {
+        return ChatColor.translateAlternateColorCodes('&', text == null ? "" : text);
+    }
+
+    /**
+     * Get the message with the slots filled in
+     *
+     * @param message    the message
+     * @param withHeader if the header is added in front
+     * @param slots      pairs of slot and value, e.g. {@code "%npc%", name}
+     * @return the message
+     */
+    public String get(Message message, boolean withHeader, String... slots) {
+        CompiledMessage compiled = this.messages.get(message);
+        if (slots.length == 0 || compiled.parts.length == 1)
+            return withHeader ? compiled.withHeader : compiled.text;
+        StringBuilder builder = new StringBuilder(compiled.withHeader.length() + 32);
+        if (withHeader)
+            builder.append(compiled.header);
+        for (int i = 0; i < compiled.parts.length; i++)
+            builder.append((i & 1) == 0 ? compiled.parts[i] : fill(compiled.parts[i], slots));
+        return builder.toString();
+    }
+
+    private static String fill(String slot, String[] slots) {
+        for (int i = 0; i + 1 < slots.length; i += 2)
+            if (slot.equals(slots[i]))
+                return slots[i + 1];
+        return slot; // not given, left as it is
+    }
+
+    /**
+     * Get the lines of a help message, without the header.
+     * The array is shared, so it must not be changed.
+     *
+     * @param message the message
+     * @return the lines
+     */
+    public String[] getLines(Message message) {
+        return this.messages.get(message).lines;
+    }
+
+    private static final class CompiledMessage {
+        private final String header;
+        private final String text;
+        private final String withHeader;
+        private final String[] lines;
+        private final String[] parts; // text and slots, one after another
+
+        private CompiledMessage(String header, String text) {
+            this.header = header;
+            this.text = text;
+            this.withHeader = header + text;
+            this.lines = text.split("\\$");
+            List<String> parts = new ArrayList<>();
+            Matcher matcher = SLOT_PATTERN.matcher(text);
+            int last = 0;
+            while (matcher.find()) {
+                parts.add(text.substring(last, matcher.start()));
+                parts.add(matcher.group());
+                last = matcher.end();
+            }
+            parts.add(text.substring(last));
+            this.parts = parts.toArray(new String[0]);
+        }
+    }
+}
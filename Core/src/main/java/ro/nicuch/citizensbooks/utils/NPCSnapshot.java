@@ -0,0 +1,52 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.utils;
+
+import net.citizensnpcs.api.npc.NPC;
+import org.bukkit.Location;
+
+/**
+ * The values of the {@code %npc_*%} placeholders, taken on the main thread
+ * so they can be replaced from any thread.
+ */
+public final class NPCSnapshot {
+    private final String name, id, x, y, z, world;
+
+    public NPCSnapshot(NPC npc) {
+        Location loc = npc.getStoredLocation();
+        this.name = npc.getName();
+        this.id = npc.getId() + "";
+        this.x = loc.getX() + "";
+        this.y = loc.getY() + "";
+        this.z = loc.getZ() + "";
+        this.world = loc.getWorld() == null ? "" : loc.getWorld().getName();
+    }
+
+    public String replace(String text) {
+        if (!text.contains("%npc_"))
+            return text;
+        return text.replace("%npc_name%", this.name)
+                .replace("%npc_id%", this.id)
+                .replace("%npc_loc_x%", this.x)
+                .replace("%npc_loc_y%", this.y)
+                .replace("%npc_loc_z%", this.z)
+                .replace("%npc_loc_world%", this.world);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.utils;
+
+public enum OpenSource {
+    NPC("npc", false),
+    COMMAND("command", false),
+    ACTION_ITEM("action_item", false),
+    JOIN("join", true),
+    FORCEOPEN("forceopen", true);
+
+    private final String key;
+    private final boolean deferrable;
+
+    OpenSource(String key, boolean deferrable) {
+        this.key = key;
+        this.deferrable = deferrable;
+    }
+
+    public final String getKey() {
+        return this.key;
+    }
+
+    /**
+     * Books from deferrable sources are held back while the server is overloaded,
+     * the others are opened right away because the player is waiting for them
+     *
+     * @return if the open can be deferred
+     */
+    public final boolean isDeferrable() {
+        return this.deferrable;
+    }
+}
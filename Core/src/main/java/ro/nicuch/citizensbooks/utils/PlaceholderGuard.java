@@ -0,0 +1,429 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.utils;
+
+import me.clip.placeholderapi.PlaceholderAPI;
+import me.clip.placeholderapi.PlaceholderAPIPlugin;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times every PlaceholderAPI placeholder resolved in a book, by expansion.
+ * <p>
+ * An expansion that is slower than the budget too many times in a row is
+ * switched off, and the last known value of the placeholder for the player
+ * is used instead (or the raw placeholder if there is none). The values are
+ * only kept for the expansions that were slow lately, until the player quits.
+ * After a cooldown a single call is let through to probe if the expansion
+ * recovered. If it's still slow the cooldown is doubled.
+ * <p>
+ * A '%' is the start of a placeholder only if the text up to the next '%'
+ * names a registered expansion, otherwise the scan goes on from that next
+ * '%'. So "50% off, %player_name%" still resolves %player_name%.
+ * <p>
+ * Expansions are async-safe if they are whitelisted in our config, or if
+ * {@code expansions.<identifier>.async-safe} is true in the PlaceholderAPI
+ * config. Only those are resolved when rendering off the main thread.
+ */
+public class PlaceholderGuard {
+    private static final Expansions PLACEHOLDER_API = new Expansions() {
+        @Override
+        public boolean isRegistered(String identifier) {
+            return PlaceholderAPI.isRegistered(identifier);
+        }
+
+        @Override
+        public boolean isAsyncSafe(String identifier) {
+            return PlaceholderAPIPlugin.getInstance().getConfig().getBoolean("expansions." + identifier + ".async-safe", false);
+        }
+
+        @Override
+        public String setPlaceholders(Player player, String text) {
+            return PlaceholderAPI.setPlaceholders(player, text);
+        }
+    };
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final Expansions expansions;
+    // by expansion identifier, so it can't grow more than the registered expansions
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> asyncSafe = new ConcurrentHashMap<>();
+    private volatile Set<String> asyncSafeWhitelist = Set.of();
+    private final Map<UUID, Map<String, String>> lastKnown = new ConcurrentHashMap<>();
+    private volatile boolean enabled = true;
+    private volatile long budgetNanos = TimeUnit.MILLISECONDS.toNanos(5);
+    private volatile int tripAfter = 3;
+    private volatile long cooldownMillis = TimeUnit.SECONDS.toMillis(30);
+    private volatile long maxCooldownMillis = TimeUnit.SECONDS.toMillis(600);
+
+    public PlaceholderGuard() {
+        this(PLACEHOLDER_API);
+    }
+
+    PlaceholderGuard(Expansions expansions) {
+        this.expansions = expansions;
+    }
+
+    public void reload(ConfigurationSection section) {
+        this.enabled = section != null && section.getBoolean("enabled", false); // the configs older than the section don't have it
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, section == null ? 5 : section.getLong("budget_millis", 5)));
+        this.tripAfter = Math.max(1, section == null ? 3 : section.getInt("trip_after", 3));
+        this.cooldownMillis = TimeUnit.SECONDS.toMillis(Math.max(1, section == null ? 30 : section.getLong("cooldown_seconds", 30)));
+        this.maxCooldownMillis = Math.max(this.cooldownMillis, TimeUnit.SECONDS.toMillis(section == null ? 600 : section.getLong("max_cooldown_seconds", 600)));
+        if (!this.enabled)
+            this.lastKnown.clear(); // the players are no longer forgotten on quit
+    }
+
+    public void reloadAsyncSafe(Collection<String> whitelist) {
+        Set<String> identifiers = new HashSet<>();
+        for (String identifier : whitelist)
+            identifiers.add(identifier.toLowerCase(Locale.ROOT));
+        this.asyncSafeWhitelist = identifiers;
+        this.asyncSafe.clear();
+    }
+
+    /**
+     * Check if the expansion can be called from any thread
+     *
+     * @param identifier the expansion identifier
+     * @return if the expansion is async-safe
+     */
+    public boolean isAsyncSafe(String identifier) {
+        return this.asyncSafe.computeIfAbsent(identifier.toLowerCase(Locale.ROOT), id -> this.asyncSafeWhitelist.contains(id)
+                || this.expansions.isAsyncSafe(id));
+    }
+
+    /**
+     * Check if the text still has placeholders that must be resolved on the main thread
+     *
+     * @param text the text
+     * @return if the text needs the main thread
+     */
+    public boolean needsMainThread(String text) {
+        if (text == null)
+            return false;
+        Scanner scanner = new Scanner(text);
+        while (scanner.next())
+            if (!this.isAsyncSafe(scanner.identifier))
+                return true;
+        return false;
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public long getBudgetMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.budgetNanos);
+    }
+
+    /**
+     * Replace the placeholders from the text, one by one
+     *
+     * @param player the player
+     * @param text   the text
+     * @return the text with the placeholders replaced
+     */
+    public String apply(Player player, String text) {
+        return this.apply(player, text, false);
+    }
+
+    /**
+     * Replace the placeholders from the text, one by one
+     *
+     * @param player        the player
+     * @param text          the text
+     * @param asyncSafeOnly if only the async-safe placeholders are replaced
+     * @return the text with the placeholders replaced
+     */
+    public String apply(Player player, String text, boolean asyncSafeOnly) {
+        if (text == null)
+            return null;
+        if (!this.enabled && !asyncSafeOnly)
+            return this.expansions.setPlaceholders(player, text);
+        Scanner scanner = new Scanner(text);
+        if (!scanner.next())
+            return text;
+        StringBuilder builder = new StringBuilder(text.length());
+        int last = 0;
+        do {
+            builder.append(text, last, scanner.start);
+            builder.append(this.resolve(player, text.substring(scanner.start, scanner.end), scanner.identifier, asyncSafeOnly));
+            last = scanner.end;
+        } while (scanner.next());
+        builder.append(text, last, text.length());
+        return builder.toString();
+    }
+
+    private String getIdentifier(String params) {
+        int index = params.indexOf('_');
+        if (index <= 0)
+            return null;
+        String identifier = params.substring(0, index);
+        return this.expansions.isRegistered(identifier) ? identifier : null;
+    }
+
+    private String resolve(Player player, String placeholder, String identifier, boolean asyncSafeOnly) {
+        if (asyncSafeOnly && !this.isAsyncSafe(identifier))
+            return placeholder; // finished later on the main thread
+        if (!this.enabled)
+            return this.expansions.setPlaceholders(player, placeholder);
+        Entry entry = this.entries.computeIfAbsent(identifier.toLowerCase(Locale.ROOT), Entry::new);
+        if (!entry.tryAcquire(System.currentTimeMillis())) {
+            entry.skipped.increment();
+            return this.getLastKnown(player, placeholder);
+        }
+        boolean slow = true; // an exception counts as slow
+        long start = System.nanoTime();
+        String value;
+        try {
+            value = this.expansions.setPlaceholders(player, placeholder);
+            long took = System.nanoTime() - start;
+            slow = took > this.budgetNanos;
+            entry.record(took, slow);
+        } finally {
+            entry.release(System.currentTimeMillis(), slow, this.tripAfter, this.cooldownMillis, this.maxCooldownMillis);
+        }
+        // only an expansion that may be switched off needs a fallback
+        if (player != null && entry.isWatched())
+            this.remember(player.getUniqueId(), placeholder, value);
+        return value;
+    }
+
+    private String getLastKnown(Player player, String placeholder) {
+        if (player == null)
+            return placeholder;
+        Map<String, String> values = this.lastKnown.get(player.getUniqueId());
+        if (values == null)
+            return placeholder;
+        return values.getOrDefault(placeholder, placeholder);
+    }
+
+    private void remember(UUID uuid, String placeholder, String value) {
+        this.lastKnown.computeIfAbsent(uuid, key -> new ConcurrentHashMap<>()).put(placeholder, value);
+    }
+
+    /**
+     * Forget the last known values of a player that quit
+     *
+     * @param uuid the player
+     */
+    public void forget(UUID uuid) {
+        this.lastKnown.remove(uuid);
+    }
+
+    /**
+     * Get the expansions that were slow at least once, the slowest first
+     *
+     * @return the expansions
+     */
+    public List<Entry> getOffenders() {
+        List<Entry> offenders = new ArrayList<>();
+        for (Entry entry : this.entries.values())
+            if (entry.getSlowCalls() > 0)
+                offenders.add(entry);
+        offenders.sort(Comparator.comparingLong(Entry::getSlowCalls).reversed());
+        return offenders;
+    }
+
+    public void reset() {
+        this.entries.clear();
+        this.lastKnown.clear();
+    }
+
+    /**
+     * @return the timed expansions and the players with last known values
+     */
+    public int size() {
+        return this.entries.size() + this.lastKnown.size();
+    }
+
+    /**
+     * @return the estimated heap use of the timings and the last known values, in bytes
+     */
+    public long estimateSize() {
+        long size = MemoryEstimator.map(this.entries.size()) + MemoryEstimator.strings(this.entries.keySet());
+        size += this.entries.size() * 160L; // the entry with its four adders
+        int players = this.lastKnown.size();
+        size += MemoryEstimator.map(players) + MemoryEstimator.uuids(players);
+        for (Map<String, String> values : this.lastKnown.values())
+            size += MemoryEstimator.stringMap(values);
+        return size;
+    }
+
+    /**
+     * The PlaceholderAPI calls, replaced in the tests
+     */
+    interface Expansions {
+        boolean isRegistered(String identifier);
+
+        /**
+         * @param identifier the expansion identifier, lower case
+         * @return if the PlaceholderAPI config marks the expansion as async-safe
+         */
+        boolean isAsyncSafe(String identifier);
+
+        String setPlaceholders(Player player, String text);
+    }
+
+    /**
+     * Finds the placeholders of the registered expansions in a text
+     */
+    private final class Scanner {
+        private final String text;
+        private int start;
+        private int end;
+        private String identifier;
+
+        private Scanner(String text) {
+            this.text = text;
+        }
+
+        private boolean next() {
+            int from = this.end;
+            while (true) {
+                int open = this.text.indexOf('%', from);
+                if (open < 0)
+                    return false;
+                int close = this.text.indexOf('%', open + 1);
+                if (close < 0)
+                    return false;
+                String identifier = PlaceholderGuard.this.getIdentifier(this.text.substring(open + 1, close));
+                if (identifier != null) {
+                    this.start = open;
+                    this.end = close + 1;
+                    this.identifier = identifier;
+                    return true;
+                }
+                from = close; // a plain '%', the next one may start a placeholder
+            }
+        }
+    }
+
+    public static final class Entry {
+        private final String identifier;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder slowCalls = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private volatile long maxNanos;
+        // guarded by this
+        private State state = State.CLOSED;
+        private int slowInRow;
+        private long openUntil;
+        private long cooldown;
+
+        private Entry(String identifier) {
+            this.identifier = identifier;
+        }
+
+        private synchronized boolean tryAcquire(long now) {
+            if (this.state == State.CLOSED)
+                return true;
+            if (this.state == State.HALF_OPEN || now < this.openUntil)
+                return false; // a probe is running, or still cooling down
+            this.state = State.HALF_OPEN;
+            return true;
+        }
+
+        /**
+         * @return if the expansion was slow lately, so it may be switched off
+         */
+        private synchronized boolean isWatched() {
+            return this.state != State.CLOSED || this.slowInRow > 0;
+        }
+
+        private void record(long nanos, boolean slow) {
+            this.calls.increment();
+            this.totalNanos.add(nanos);
+            if (slow)
+                this.slowCalls.increment();
+            if (nanos > this.maxNanos)
+                this.maxNanos = nanos; // racy, but good enough for a report
+        }
+
+        private synchronized void release(long now, boolean slow, int tripAfter, long baseCooldown, long maxCooldown) {
+            if (this.state == State.HALF_OPEN) {
+                if (slow) {
+                    this.cooldown = Math.min(this.cooldown * 2, maxCooldown);
+                    this.openUntil = now + this.cooldown;
+                    this.state = State.OPEN;
+                } else {
+                    this.slowInRow = 0;
+                    this.state = State.CLOSED;
+                }
+            } else if (!slow)
+                this.slowInRow = 0;
+            else if (++this.slowInRow >= tripAfter && this.state == State.CLOSED) {
+                this.cooldown = baseCooldown;
+                this.openUntil = now + this.cooldown;
+                this.state = State.OPEN;
+            }
+        }
+
+        /**
+         * @return the expansion identifier, lower case
+         */
+        public String getIdentifier() {
+            return this.identifier;
+        }
+
+        public synchronized State getState() {
+            return this.state;
+        }
+
+        public long getCalls() {
+            return this.calls.sum();
+        }
+
+        public long getSlowCalls() {
+            return this.slowCalls.sum();
+        }
+
+        public long getSkipped() {
+            return this.skipped.sum();
+        }
+
+        public double getAverageMillis() {
+            long calls = this.calls.sum();
+            return calls == 0 ? 0 : this.totalNanos.sum() / (double) calls / 1_000_000D;
+        }
+
+        public double getMaxMillis() {
+            return this.maxNanos / 1_000_000D;
+        }
+    }
+}
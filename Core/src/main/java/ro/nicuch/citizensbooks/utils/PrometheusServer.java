@@ -0,0 +1,150 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.bukkit.configuration.ConfigurationSection;
+import ro.nicuch.citizensbooks.CitizensBooksPlugin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the metrics in the Prometheus text format, on a local address.
+ * <p>
+ * A scrape only reads counters, histograms and sizes that are safe to read
+ * from any thread, so the main thread is never involved.
+ */
+public class PrometheusServer {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private final CitizensBooksPlugin plugin;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public PrometheusServer(CitizensBooksPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Start the server, if enabled
+     *
+     * @param section the prometheus section of the config
+     * @throws IOException if the address can't be bound
+     */
+    public void start(ConfigurationSection section) throws IOException {
+        if (section == null || !section.getBoolean("enabled", false))
+            return;
+        String address = section.getString("address", "127.0.0.1");
+        int port = section.getInt("port", 9225);
+        String path = section.getString("path", "/metrics");
+        this.server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        this.server.createContext(path, this::handle);
+        this.executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("CitizensBooks-Prometheus"));
+        this.server.setExecutor(this.executor);
+        this.server.start();
+        this.plugin.getLogger().info("Serving the metrics at http://" + address + ":" + port + path);
+    }
+
+    public void stop() {
+        if (this.server != null)
+            this.server.stop(0);
+        if (this.executor != null)
+            this.executor.shutdownNow();
+        this.server = null;
+        this.executor = null;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = this.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(method)) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return the metrics, in the Prometheus text format
+     */
+    public String scrape() {
+        BookStats stats = this.plugin.getStats();
+        StringBuilder out = new StringBuilder(4096);
+        this.header(out, "citizensbooks_books_opened_total", "counter", "Books opened, by source.");
+        for (OpenSource source : OpenSource.values())
+            this.sample(out, "citizensbooks_books_opened_total", "source", source.getKey(), stats.getOpened(source));
+        this.header(out, "citizensbooks_latency_seconds", "summary", "Duration of the hot paths, since the last /npcbook stats reset.");
+        for (BookStats.Metric metric : BookStats.Metric.values()) {
+            Histogram.Snapshot snapshot = stats.snapshot(metric);
+            String labels = "operation=\"" + metric.getKey() + "\"";
+            out.append("citizensbooks_latency_seconds{").append(labels).append(",quantile=\"0.5\"} ").append(seconds(snapshot.getPercentile(50))).append('\n');
+            out.append("citizensbooks_latency_seconds{").append(labels).append(",quantile=\"0.99\"} ").append(seconds(snapshot.getPercentile(99))).append('\n');
+            out.append("citizensbooks_latency_seconds{").append(labels).append(",quantile=\"1\"} ").append(seconds(snapshot.getMax())).append('\n');
+            out.append("citizensbooks_latency_seconds_sum{").append(labels).append("} ").append(seconds(snapshot.getSum())).append('\n');
+            out.append("citizensbooks_latency_seconds_count{").append(labels).append("} ").append(snapshot.getCount()).append('\n');
+        }
+        this.header(out, "citizensbooks_cache_requests_total", "counter", "Cache lookups, by result.");
+        for (BookStats.Cache cache : BookStats.Cache.values()) {
+            String labels = "cache=\"" + cache.getKey() + "\"";
+            out.append("citizensbooks_cache_requests_total{").append(labels).append(",result=\"hit\"} ").append(stats.getHits(cache)).append('\n');
+            out.append("citizensbooks_cache_requests_total{").append(labels).append(",result=\"miss\"} ").append(stats.getMisses(cache)).append('\n');
+        }
+        this.header(out, "citizensbooks_cache_entries", "gauge", "Entries held in memory, by cache.");
+        this.sample(out, "citizensbooks_cache_entries", "cache", "click_cooldown", this.plugin.getClickLimiter().size());
+        this.sample(out, "citizensbooks_cache_entries", "cache", "join_book_seen", this.plugin.getJoinBookCache().size());
+        this.sample(out, "citizensbooks_cache_entries", "cache", "deferred_opens", this.plugin.getOpenQueue().size());
+        this.header(out, "citizensbooks_filters", "gauge", "Filters loaded.");
+        out.append("citizensbooks_filters ").append(this.plugin.getAPI().getFilters().size()).append('\n');
+        IOExecutor ioExecutor = this.plugin.getIOExecutor();
+        this.header(out, "citizensbooks_io_pending", "gauge", "Disk and network writes queued or running.");
+        out.append("citizensbooks_io_pending ").append(ioExecutor == null ? 0 : ioExecutor.getPending()).append('\n');
+        return out.toString();
+    }
+
+    private void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private void sample(StringBuilder out, String name, String label, String value, long sample) {
+        out.append(name).append('{').append(label).append("=\"").append(value).append("\"} ").append(sample).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1_000_000_000D);
+    }
+}
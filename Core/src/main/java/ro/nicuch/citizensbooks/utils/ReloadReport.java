@@ -0,0 +1,142 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.utils;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiPredicate;
+
+/**
+ * What was added, changed and removed by a reload.
+ */
+public class ReloadReport {
+
+    public enum Category {
+        SETTINGS("settings"),
+        JOIN_BOOK("join book"),
+        COMMANDS("commands"),
+        FILTERS("filters");
+
+        private final String displayName;
+
+        Category(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public final String getDisplayName() {
+            return this.displayName;
+        }
+    }
+
+    private final Map<Category, Diff> diffs = new EnumMap<>(Category.class);
+
+    /**
+     * Compare two versions of the same items
+     *
+     * @param category the category of the items
+     * @param before   the items before the reload
+     * @param after    the items after the reload
+     * @param same     checks if an item was not changed
+     * @param <V>      the type of the items
+     */
+    public <V> void compare(Category category, Map<String, V> before, Map<String, V> after, BiPredicate<V, V> same) {
+        Diff diff = this.diffs.computeIfAbsent(category, key -> new Diff());
+        Set<String> names = new HashSet<>(before.keySet());
+        names.addAll(after.keySet());
+        for (String name : names) {
+            V oldValue = before.get(name);
+            V newValue = after.get(name);
+            if (oldValue == null)
+                diff.added.add(name);
+            else if (newValue == null)
+                diff.removed.add(name);
+            else if (!same.test(oldValue, newValue))
+                diff.changed.add(name);
+        }
+        diff.added.sort(null);
+        diff.changed.sort(null);
+        diff.removed.sort(null);
+    }
+
+    public boolean hasChanges() {
+        for (Diff diff : this.diffs.values())
+            if (!diff.isEmpty())
+                return true;
+        return false;
+    }
+
+    public Map<Category, Diff> getDiffs() {
+        return this.diffs;
+    }
+
+    /**
+     * Get the values of the settings, by path
+     *
+     * @param section the settings
+     * @param skipped the top level keys that are not included
+     * @return the values
+     */
+    public static Map<String, Object> flatten(ConfigurationSection section, Set<String> skipped) {
+        Map<String, Object> values = new TreeMap<>();
+        for (String key : section.getKeys(false))
+            if (!skipped.contains(key))
+                flatten(section, key, values);
+        return values;
+    }
+
+    private static void flatten(ConfigurationSection section, String key, Map<String, Object> values) {
+        Object value = section.get(key);
+        if (value instanceof ConfigurationSection) {
+            ConfigurationSection child = (ConfigurationSection) value;
+            for (String childKey : child.getKeys(false))
+                flatten(section, key + "." + childKey, values);
+        } else
+            values.put(key, value);
+    }
+
+    public static final class Diff {
+        private final List<String> added = new ArrayList<>();
+        private final List<String> changed = new ArrayList<>();
+        private final List<String> removed = new ArrayList<>();
+
+        public List<String> getAdded() {
+            return this.added;
+        }
+
+        public List<String> getChanged() {
+            return this.changed;
+        }
+
+        public List<String> getRemoved() {
+            return this.removed;
+        }
+
+        public boolean isEmpty() {
+            return this.added.isEmpty() && this.changed.isEmpty() && this.removed.isEmpty();
+        }
+    }
+}
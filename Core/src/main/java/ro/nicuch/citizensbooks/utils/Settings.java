@@ -0,0 +1,179 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+
+package ro.nicuch.citizensbooks.utils;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable copy of the settings used by the event handlers.
+ * <p>
+ * A new instance is built every time the settings change, and it's
+ * published through a volatile field, so the handlers read plain fields
+ * instead of looking up YAML paths. The books are kept as they were
+ * loaded, so they must be cloned before they are changed.
+ */
+public final class Settings {
+    private final ItemStack joinBook;
+    private final String joinBookFilter;
+    private final long joinBookLastChange;
+    private final boolean joinBookAlwaysShow;
+    private final boolean joinBookEnableDelay;
+    private final int joinBookDelay;
+    private final Map<String, CustomCommand> commands;
+    private final boolean updateCheck;
+    private final boolean metrics;
+    private final int broadcastPlayersPerTick;
+    private final long broadcastMillisPerTick;
+    private final boolean asyncRender;
+    private final int asyncRenderMinPages;
+    private final List<String> asyncSafeExpansions;
+
+    private Settings(ConfigurationSection settings) {
+        ItemStack joinBook = settings.getItemStack("join_book");
+        this.joinBook = joinBook == null ? null : joinBook.clone();
+        String joinBookFilter = settings.getString("join_book_filter", "");
+        this.joinBookFilter = joinBookFilter == null || joinBookFilter.isEmpty() ? null : joinBookFilter;
+        this.joinBookLastChange = settings.getLong("join_book_last_change", 0);
+        this.joinBookAlwaysShow = settings.getBoolean("join_book_always_show", false);
+        this.joinBookEnableDelay = settings.getBoolean("join_book_enable_delay", false);
+        this.joinBookDelay = settings.getInt("join_book_delay", 0);
+        Map<String, CustomCommand> commands = new HashMap<>();
+        ConfigurationSection commandsSection = settings.getConfigurationSection("commands");
+        if (commandsSection != null)
+            for (String command : commandsSection.getKeys(false))
+                if (commandsSection.isString(command + ".filter_name")) {
+                    String permission = commandsSection.getString(command + ".permission", "none");
+                    commands.put(command, new CustomCommand(commandsSection.getString(command + ".filter_name"),
+                            permission == null || permission.equalsIgnoreCase("none") ? null : permission));
+                }
+        this.commands = Collections.unmodifiableMap(commands);
+        this.updateCheck = settings.getBoolean("update_check", true);
+        this.metrics = settings.getBoolean("metrics", true);
+        this.broadcastPlayersPerTick = settings.getInt("forceopen_broadcast.players_per_tick", 25);
+        this.broadcastMillisPerTick = settings.getLong("forceopen_broadcast.max_millis_per_tick", 5);
+        this.asyncRender = settings.getBoolean("async_render.enabled", true);
+        this.asyncRenderMinPages = settings.getInt("async_render.min_pages", 3);
+        this.asyncSafeExpansions = List.copyOf(settings.getStringList("async_render.async_safe_expansions"));
+    }
+
+    /**
+     * Parse the settings
+     *
+     * @param settings the settings
+     * @return the snapshot
+     */
+    public static Settings load(ConfigurationSection settings) {
+        return new Settings(settings);
+    }
+
+    public ItemStack getJoinBook() {
+        return this.joinBook;
+    }
+
+    /**
+     * @return the filter used as join book, or null if the join book is stored
+     */
+    public String getJoinBookFilter() {
+        return this.joinBookFilter;
+    }
+
+    public boolean hasJoinBook() {
+        return this.joinBook != null || this.joinBookFilter != null;
+    }
+
+    public long getJoinBookLastChange() {
+        return this.joinBookLastChange;
+    }
+
+    public boolean isJoinBookAlwaysShow() {
+        return this.joinBookAlwaysShow;
+    }
+
+    public boolean isJoinBookDelayEnabled() {
+        return this.joinBookEnableDelay;
+    }
+
+    public int getJoinBookDelay() {
+        return this.joinBookDelay;
+    }
+
+    public CustomCommand getCommand(String command) {
+        return this.commands.get(command);
+    }
+
+    public Map<String, CustomCommand> getCommands() {
+        return this.commands;
+    }
+
+    public boolean isUpdateCheck() {
+        return this.updateCheck;
+    }
+
+    public boolean isMetrics() {
+        return this.metrics;
+    }
+
+    public int getBroadcastPlayersPerTick() {
+        return this.broadcastPlayersPerTick;
+    }
+
+    public long getBroadcastMillisPerTick() {
+        return this.broadcastMillisPerTick;
+    }
+
+    public boolean isAsyncRender() {
+        return this.asyncRender;
+    }
+
+    public int getAsyncRenderMinPages() {
+        return this.asyncRenderMinPages;
+    }
+
+    public List<String> getAsyncSafeExpansions() {
+        return this.asyncSafeExpansions;
+    }
+
+    public static final class CustomCommand {
+        private final String filterName;
+        private final String permission;
+
+        private CustomCommand(String filterName, String permission) {
+            this.filterName = filterName;
+            this.permission = permission;
+        }
+
+        public String getFilterName() {
+            return this.filterName;
+        }
+
+        /**
+         * @return the permission, or null if everyone can use the command
+         */
+        public String getPermission() {
+            return this.permission;
+        }
+    }
+}
@@ -20,6 +20,7 @@
 package ro.nicuch.citizensbooks.utils;
 
 import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -27,76 +28,217 @@ import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
 import ro.nicuch.citizensbooks.CitizensBooksPlugin;
 
-import javax.net.ssl.HttpsURLConnection;
-import java.io.*;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class UpdateChecker implements Listener {
+    private static final String DEFAULT_URL = "https://api.spigotmc.org/legacy/update.php?resource=37465";
+    private static final long RETRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
     private final CitizensBooksPlugin plugin;
     private final int resourceId = 37465;
-    private static String latestVersion;
-    private static boolean updateAvailable;
+    private final VersionCheck versionCheck;
+    private final AtomicBoolean checking = new AtomicBoolean();
+    private static volatile String latestVersion;
+    private static volatile boolean updateAvailable;
 
-    public UpdateChecker(CitizensBooksPlugin plugin) {
+    /**
+     * @param plugin  the plugin
+     * @param section the update_checker section of the config, the changes need a restart
+     */
+    public UpdateChecker(CitizensBooksPlugin plugin, ConfigurationSection section) {
         this.plugin = plugin;
-        //Async check if the plugin has an update.
+        this.versionCheck = new VersionCheck(section == null ? DEFAULT_URL : section.getString("url", DEFAULT_URL),
+                Math.max(1, section == null ? 5000 : section.getInt("timeout_millis", 5000)),
+                TimeUnit.MINUTES.toMillis(Math.max(1, section == null ? 30 : section.getInt("interval_minutes", 30))),
+                "CitizensBooks/" + plugin.getDescription().getVersion());
+        //The timer only compares two longs, the network request runs on the I/O executor
         //The timer will start after the server finish loading
-        Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, () -> {
-            //Sync log that the plugin is checking for an update
-            Bukkit.getScheduler().runTask(this.plugin, () -> this.plugin.getLogger().info("Checking for updates..."));
-            //Checking for updates
-            if (this.checkForUpdate()) {
-                Bukkit.getScheduler().runTask(this.plugin, () -> {
-                    this.plugin.getLogger().info("An update for CitizensBooks (v" + latestVersion + ") is available at:");
-                    this.plugin.getLogger().info("https://www.spigotmc.org/resources/citizensbooks." + resourceId + "/");
-                    Bukkit.getScheduler().runTask(
-                            this.plugin, () -> Bukkit.getOnlinePlayers().stream()
-                                    .filter(player -> this.plugin.getAPI().hasPermission(player, "npcbook.notify") || player.isOp()).forEach(player -> player.sendMessage(this.plugin.getMessage(Message.NEW_VERSION_AVAILABLE)
-                                            .replace("%latest_version%", latestVersion == null ? "" : latestVersion).replace("%current_version%", this.plugin.getDescription().getVersion()))));
-                });
-            } else
-                Bukkit.getScheduler().runTask(this.plugin, () ->
-                        this.plugin.getLogger().info("No new version available!"));
-        }, 0, 30 * 60 * 20);
+        plugin.getBookScheduler().runAsyncTimer(() -> {
+            if (System.currentTimeMillis() < this.versionCheck.getNextCheck() || !this.checking.compareAndSet(false, true))
+                return;
+            plugin.getIOExecutor().execute(() -> {
+                try {
+                    this.check();
+                } finally {
+                    this.checking.set(false);
+                }
+            });
+        }, 0, 20 * 60);
     }
 
-    private String getSpigotVersion() {
+    private void check() {
+        //The logger is thread-safe, no need to log from the main thread
+        long now = System.currentTimeMillis();
+        String version;
         try {
-            HttpsURLConnection con = (HttpsURLConnection) new URL("https://api.spigotmc.org/legacy/update.php?resource=" + this.resourceId).openConnection();
-            con.setRequestMethod("GET");
-            return new BufferedReader(new InputStreamReader(con.getInputStream())).readLine();
-        } catch (Exception ex) {
-            this.plugin.getLogger().warning("Failed to check for update on spigot.");
+            version = this.versionCheck.fetch(now);
+        } catch (IOException ex) {
+            long delay = this.versionCheck.getNextCheck() - now;
+            this.plugin.getLogger().warning("Failed to check for update on spigot, retrying in " + TimeUnit.MILLISECONDS.toMinutes(delay) + " minute(s).");
+            return;
+        }
+        if (version == null)
+            return; // not modified since the last check, the cached result is still good
+        if (compareVersions(this.plugin.getDescription().getVersion(), version) >= 0) {
+            this.plugin.getLogger().info("No new version available!");
+            return;
         }
-        return null;
+        if (version.equals(latestVersion))
+            return; // already announced
+        latestVersion = version;
+        updateAvailable = true;
+        this.plugin.getLogger().info("An update for CitizensBooks (v" + version + ") is available at:");
+        this.plugin.getLogger().info("https://www.spigotmc.org/resources/citizensbooks." + this.resourceId + "/");
+        this.plugin.getBookScheduler().runGlobal(() -> {
+            this.plugin.updateListeners(); // the join notification is needed from now on
+            Bukkit.getOnlinePlayers().forEach(this::sendNotification);
+        });
     }
 
-    private boolean checkForUpdate() {
-        String version = getSpigotVersion();
-        if (version != null) {
-            if (this.plugin.getDescription().getVersion().compareTo(version) < 0) {
-                latestVersion = version;
-                updateAvailable = true;
-                return true;
+    /**
+     * The request for the latest version and the time of the next one.
+     * Never used by two threads at the same time.
+     */
+    static class VersionCheck {
+        private final String url;
+        private final int timeoutMillis;
+        private final long intervalMillis;
+        private final String userAgent;
+        private String etag;
+        private String lastModified;
+        private int failures;
+        private volatile long nextCheck;
+
+        VersionCheck(String url, int timeoutMillis, long intervalMillis, String userAgent) {
+            this.url = url;
+            this.timeoutMillis = timeoutMillis;
+            this.intervalMillis = intervalMillis;
+            this.userAgent = userAgent;
+        }
+
+        long getNextCheck() {
+            return this.nextCheck;
+        }
+
+        /**
+         * Ask for the latest version and plan the next check.
+         * A failed check is retried sooner, with an exponential backoff.
+         *
+         * @param now the current time in milliseconds
+         * @return the latest version, or null if it didn't change since the last check
+         * @throws IOException if the request failed or the answer is empty
+         */
+        String fetch(long now) throws IOException {
+            String version;
+            try {
+                version = this.getSpigotVersion();
+            } catch (IOException ex) {
+                //Exponential backoff, 1, 2, 4... minutes, but not longer than the interval
+                this.nextCheck = now + Math.min(this.intervalMillis, RETRY_MILLIS << Math.min(this.failures++, 16));
+                throw ex;
+            }
+            this.failures = 0;
+            this.nextCheck = now + this.intervalMillis;
+            return version;
+        }
+
+        /**
+         * Ask for the latest version, the validators of the last answer
+         * are sent so an unchanged answer doesn't have to be read again
+         *
+         * @return the latest version, or null if it didn't change since the last check
+         * @throws IOException if the request failed or the answer is empty
+         */
+        private String getSpigotVersion() throws IOException {
+            HttpURLConnection con = (HttpURLConnection) new URL(this.url).openConnection();
+            try {
+                con.setRequestMethod("GET");
+                con.setConnectTimeout(this.timeoutMillis);
+                con.setReadTimeout(this.timeoutMillis);
+                con.setUseCaches(false);
+                con.setRequestProperty("User-Agent", this.userAgent);
+                if (this.etag != null)
+                    con.setRequestProperty("If-None-Match", this.etag);
+                if (this.lastModified != null)
+                    con.setRequestProperty("If-Modified-Since", this.lastModified);
+                int code = con.getResponseCode();
+                if (code == HttpURLConnection.HTTP_NOT_MODIFIED)
+                    return null;
+                if (code != HttpURLConnection.HTTP_OK)
+                    throw new IOException("Unexpected response code " + code);
+                String version;
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(con.getInputStream(), StandardCharsets.UTF_8))) {
+                    version = reader.readLine();
+                }
+                if (version == null || version.trim().isEmpty())
+                    throw new IOException("Empty response");
+                this.etag = con.getHeaderField("ETag");
+                this.lastModified = con.getHeaderField("Last-Modified");
+                return version.trim();
+            } finally {
+                con.disconnect();
             }
         }
-        return false;
+    }
+
+    /**
+     * Compare two versions part by part, numbers as numbers, so 2.10 is newer than 2.9.
+     * A pre-release like 2.6-SNAPSHOT is older than 2.6.
+     *
+     * @param first  the first version
+     * @param second the second version
+     * @return negative if the first version is older, zero if equal, positive if newer
+     */
+    public static int compareVersions(String first, String second) {
+        String[] firstParts = first.split("[-+]", 2);
+        String[] secondParts = second.split("[-+]", 2);
+        String[] firstNumbers = firstParts[0].split("\\.");
+        String[] secondNumbers = secondParts[0].split("\\.");
+        for (int i = 0; i < Math.max(firstNumbers.length, secondNumbers.length); i++) {
+            String a = i < firstNumbers.length ? firstNumbers[i] : "0";
+            String b = i < secondNumbers.length ? secondNumbers[i] : "0";
+            int result = comparePart(a, b);
+            if (result != 0)
+                return result;
+        }
+        //Same release, the one without a pre-release tag is newer
+        if (firstParts.length != secondParts.length)
+            return firstParts.length == 1 ? 1 : -1;
+        return firstParts.length == 1 ? 0 : firstParts[1].compareToIgnoreCase(secondParts[1]);
+    }
+
+    private static int comparePart(String a, String b) {
+        try {
+            return Long.compare(Long.parseLong(a.trim()), Long.parseLong(b.trim()));
+        } catch (NumberFormatException ex) {
+            return a.compareToIgnoreCase(b); // not a number, the best we can do
+        }
     }
 
     public static boolean updateAvailable() {
         return updateAvailable;
     }
 
+    private void sendNotification(Player player) {
+        if (!this.plugin.getAPI().hasPermission(player, "npcbook.notify") && !player.isOp())
+            return;
+        player.sendMessage(this.plugin.getMessage(Message.NEW_VERSION_AVAILABLE,
+                "%latest_version%", latestVersion == null ? "" : latestVersion,
+                "%current_version%", this.plugin.getDescription().getVersion()));
+    }
+
+    /**
+     * Registered only while an update is available and the check is enabled,
+     * so joins don't pay anything otherwise
+     */
     @EventHandler(priority = EventPriority.MONITOR)
     public void onJoin(PlayerJoinEvent event) {
-        if (!this.plugin.getSettings().getBoolean("update_check", true))
-            return;
-        Player player = event.getPlayer();
-        if (this.plugin.getAPI().hasPermission(player, "npcbook.notify"))
-            return;
-        if (!updateAvailable)
-            return;
-        player.sendMessage(this.plugin.getMessage(Message.NEW_VERSION_AVAILABLE)
-                .replace("%latest_version%", latestVersion == null ? "" : latestVersion).replace("%current_version%", this.plugin.getDescription().getVersion()));
+        this.sendNotification(event.getPlayer());
     }
 }
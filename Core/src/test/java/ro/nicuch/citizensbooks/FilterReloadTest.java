@@ -0,0 +1,127 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+package ro.nicuch.citizensbooks;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ro.nicuch.citizensbooks.utils.IOExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reloads that run while a filter file is not written or deleted yet
+ */
+class FilterReloadTest {
+    private final Logger logger = Logger.getLogger("FilterReloadTest");
+    private final CountDownLatch release = new CountDownLatch(1);
+    private Path dataFolder;
+    private IOExecutor ioExecutor;
+    private CitizensBooksAPI api;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.logger.setLevel(Level.OFF);
+        this.dataFolder = Files.createTempDirectory("citizensbooks-filters");
+        this.ioExecutor = new IOExecutor("CitizensBooks-IO-Test", 1, 16, false);
+        this.api = TestPlugin.create(this.dataFolder.toFile(), this.ioExecutor).getAPI();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        this.release.countDown();
+        this.ioExecutor.shutdown(this.logger, 5, TimeUnit.SECONDS);
+        try (Stream<Path> paths = Files.walk(this.dataFolder)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private File filterFile(String filterName) {
+        return this.dataFolder.resolve("filters").resolve(filterName + ".json").toFile();
+    }
+
+    /**
+     * Hold the only I/O thread, so the file operations queued next wait
+     */
+    private void blockFileOperations() {
+        this.ioExecutor.execute(() -> {
+            try {
+                this.release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private void finishFileOperations() throws Exception {
+        this.release.countDown();
+        this.ioExecutor.supply(() -> null).get(5, TimeUnit.SECONDS); // queued after them
+    }
+
+    @Test
+    void createdFilterSurvivesReloadBeforeItsFileIsWritten() throws Exception {
+        this.api.reloadFilters(this.logger); // creates the directory
+        this.blockFileOperations();
+        this.api.createFilter("created", TestPlugin.book());
+        this.api.reloadFilters(this.logger);
+        assertTrue(this.api.hasFilter("created"));
+        this.finishFileOperations();
+        assertTrue(this.filterFile("created").exists());
+        this.api.reloadFilters(this.logger);
+        assertTrue(this.api.hasFilter("created"));
+    }
+
+    @Test
+    void removedFilterStaysRemovedBeforeItsFileIsDeleted() throws Exception {
+        this.api.createFilterAsync("removed", TestPlugin.book()).get(5, TimeUnit.SECONDS);
+        assertTrue(this.filterFile("removed").exists());
+        this.blockFileOperations();
+        this.api.removeFilter("removed");
+        this.api.reloadFilters(this.logger);
+        assertFalse(this.api.hasFilter("removed"));
+        this.finishFileOperations();
+        assertFalse(this.filterFile("removed").exists());
+        this.api.reloadFilters(this.logger);
+        assertFalse(this.api.hasFilter("removed"));
+    }
+
+    @Test
+    void filterCreatedAgainKeepsItsFile() throws Exception {
+        this.api.createFilterAsync("again", TestPlugin.book()).get(5, TimeUnit.SECONDS);
+        this.blockFileOperations();
+        this.api.removeFilter("again");
+        this.api.createFilter("again", TestPlugin.book());
+        this.api.reloadFilters(this.logger);
+        assertTrue(this.api.hasFilter("again"));
+        this.finishFileOperations();
+        assertTrue(this.filterFile("again").exists());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+package ro.nicuch.citizensbooks;
+
+import com.google.gson.JsonObject;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.java.JavaPluginLoader;
+import org.bukkit.scheduler.BukkitScheduler;
+import ro.nicuch.citizensbooks.dist.Distribution;
+import ro.nicuch.citizensbooks.utils.IOExecutor;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The plugin created without a server and never enabled, with a stand-in
+ * server and a distribution that only knows empty written books.
+ */
+class TestPlugin extends CitizensBooksPlugin {
+    private static final Logger LOGGER = Logger.getLogger("TestPlugin");
+
+    @SuppressWarnings("deprecation")
+    private TestPlugin(File dataFolder) {
+        super(new JavaPluginLoader(Bukkit.getServer()),
+                new PluginDescriptionFile("CitizensBooks", "test", CitizensBooksPlugin.class.getName()),
+                dataFolder, new File(dataFolder, "CitizensBooks.jar"));
+    }
+
+    /**
+     * @param dataFolder the plugin folder
+     * @param ioExecutor the executor of the file operations
+     * @return the plugin
+     */
+    static TestPlugin create(File dataFolder, IOExecutor ioExecutor) {
+        synchronized (TestPlugin.class) {
+            if (Bukkit.getServer() == null) {
+                LOGGER.setLevel(Level.WARNING);
+                Bukkit.setServer(stub(Server.class));
+            }
+        }
+        TestPlugin plugin = new TestPlugin(dataFolder);
+        setField(CitizensBooksPlugin.class, plugin, "ioExecutor", ioExecutor);
+        setField(CitizensBooksAPI.class, plugin.getAPI(), "distribution", new TestDistribution());
+        return plugin;
+    }
+
+    static ItemStack book() {
+        return new ItemStack(Material.WRITTEN_BOOK);
+    }
+
+    private static void setField(Class<?> owner, Object instance, String name, Object value) {
+        try {
+            Field field = owner.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(instance, value);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Failed to set " + name + "!", ex);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getLogger":
+                    return LOGGER;
+                case "getScheduler":
+                    return stub(BukkitScheduler.class);
+                case "getName":
+                case "getVersion":
+                case "getBukkitVersion":
+                    return "test";
+                default:
+                    Class<?> returnType = method.getReturnType();
+                    return returnType.isPrimitive() && returnType != void.class ? Array.get(Array.newInstance(returnType, 1), 0) : null; // the default value
+            }
+        });
+    }
+
+    private static class TestDistribution implements Distribution {
+
+        @Override
+        public void sendRightClick(Player player) {
+        }
+
+        @Override
+        public void setItemInHand(Player player, ItemStack item) {
+        }
+
+        @Override
+        public ItemStack getItemInHand(Player player) {
+            return null;
+        }
+
+        @Override
+        public JsonObject convertBookToJson(ItemStack book) {
+            return new JsonObject();
+        }
+
+        @Override
+        public ItemStack convertJsonToBook(JsonObject jsonBook) {
+            return book();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+package ro.nicuch.citizensbooks.scheduler;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookSchedulerTest {
+    private final AtomicInteger runs = new AtomicInteger();
+    private TestScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        this.scheduler = new TestScheduler();
+    }
+
+    @Test
+    void bukkitSchedulerWithoutRegions() {
+        if (Bukkit.getServer() == null)
+            Bukkit.setServer(stub(Server.class));
+        assertFalse(RegionBookScheduler.isSupported());
+        assertTrue(BookScheduler.create(stub(Plugin.class)) instanceof BukkitBookScheduler);
+    }
+
+    @Test
+    void regionSchedulerNeedsRegionizedServer() {
+        assertTrue(RegionBookScheduler.isSupported(BookSchedulerTest.class.getName()));
+        assertThrows(IllegalStateException.class, () -> new RegionBookScheduler(stub(Plugin.class)));
+    }
+
+    @Test
+    void executeGlobalRunsOnTheGlobalThread() {
+        this.scheduler.globalThread = true;
+        this.scheduler.executeGlobal(this.runs::incrementAndGet);
+        assertEquals(1, this.runs.get());
+        assertTrue(this.scheduler.pending.isEmpty());
+    }
+
+    @Test
+    void executeGlobalSchedulesFromOtherThreads() {
+        this.scheduler.executeGlobal(this.runs::incrementAndGet);
+        assertEquals(0, this.runs.get());
+        this.scheduler.runPending();
+        assertEquals(1, this.runs.get());
+    }
+
+    @Test
+    void executeForRemovedEntityIsDropped() {
+        this.scheduler.entitiesRemoved = true;
+        this.scheduler.executeForEntity(stub(Entity.class), this.runs::incrementAndGet);
+        this.scheduler.runPending();
+        assertEquals(0, this.runs.get());
+    }
+
+    @Test
+    void executeForOwnedEntityRunsNow() {
+        this.scheduler.ownsEntities = true;
+        this.scheduler.executeForEntity(stub(Entity.class), this.runs::incrementAndGet);
+        assertEquals(1, this.runs.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> answer(method));
+    }
+
+    private static Object answer(Method method) {
+        switch (method.getName()) {
+            case "getLogger":
+                return Logger.getLogger("BookSchedulerTest");
+            case "getScheduler":
+                return stub(BukkitScheduler.class);
+            case "getName":
+            case "getVersion":
+            case "getBukkitVersion":
+                return "test";
+            default:
+                Class<?> type = method.getReturnType();
+                return type.isPrimitive() && type != void.class ? Array.get(Array.newInstance(type, 1), 0) : null; // the default value
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+package ro.nicuch.citizensbooks.scheduler;
+
+import org.bukkit.entity.Entity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DelayedTasksTest {
+    private final UUID uuid = UUID.randomUUID();
+    private final Entity entity = (Entity) Proxy.newProxyInstance(Entity.class.getClassLoader(), new Class<?>[]{Entity.class},
+            (proxy, method, args) -> method.getName().equals("getUniqueId") ? this.uuid : null);
+    private final AtomicInteger runs = new AtomicInteger();
+    private TestScheduler scheduler;
+    private DelayedTasks tasks;
+
+    @BeforeEach
+    void setUp() {
+        this.scheduler = new TestScheduler();
+        this.tasks = new DelayedTasks(this.scheduler);
+    }
+
+    @Test
+    void scheduledTaskRuns() {
+        assertTrue(this.tasks.schedule(this.entity, this.runs::incrementAndGet, 20L));
+        assertTrue(this.tasks.isScheduled(this.uuid));
+        this.scheduler.runPending();
+        assertEquals(1, this.runs.get());
+    }
+
+    @Test
+    void cancelledTaskDoesNotRun() {
+        this.tasks.schedule(this.entity, this.runs::incrementAndGet, 20L);
+        this.tasks.cancel(this.uuid);
+        assertFalse(this.tasks.isScheduled(this.uuid));
+        this.scheduler.runPending();
+        assertEquals(0, this.runs.get());
+    }
+
+    @Test
+    void removedEntityIsNotTracked() {
+        this.scheduler.entitiesRemoved = true;
+        assertFalse(this.tasks.schedule(this.entity, this.runs::incrementAndGet, 20L));
+        assertFalse(this.tasks.isScheduled(this.uuid));
+        this.tasks.cancel(this.uuid); // nothing to cancel
+        this.tasks.cleanup();
+        assertEquals(0, this.runs.get());
+    }
+
+    @Test
+    void rescheduleCancelsThePreviousTask() {
+        this.tasks.schedule(this.entity, this.runs::incrementAndGet, 20L);
+        this.tasks.schedule(this.entity, this.runs::incrementAndGet, 20L);
+        this.scheduler.runPending();
+        assertEquals(1, this.runs.get());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+package ro.nicuch.citizensbooks.scheduler;
+
+import org.bukkit.entity.Entity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A stand-in scheduler that queues the tasks until {@link #runPending()}.
+ */
+class TestScheduler implements BookScheduler {
+    final List<Runnable> pending = new ArrayList<>();
+    boolean globalThread = false;
+    boolean ownsEntities = false;
+    boolean entitiesRemoved = false;
+
+    void runPending() {
+        List<Runnable> tasks = new ArrayList<>(this.pending);
+        this.pending.clear();
+        tasks.forEach(Runnable::run);
+    }
+
+    @Override
+    public BookTask runGlobal(Runnable task) {
+        return this.queue(task);
+    }
+
+    @Override
+    public BookTask runGlobalLater(Runnable task, long delay) {
+        return this.queue(task);
+    }
+
+    @Override
+    public BookTask runGlobalTimer(Runnable task, long delay, long period) {
+        return this.queue(task);
+    }
+
+    @Override
+    public BookTask runForEntity(Entity entity, Runnable task) {
+        return this.entitiesRemoved ? null : this.queue(task);
+    }
+
+    @Override
+    public BookTask runForEntityLater(Entity entity, Runnable task, long delay) {
+        return this.entitiesRemoved ? null : this.queue(task);
+    }
+
+    @Override
+    public BookTask runAsync(Runnable task) {
+        return this.queue(task);
+    }
+
+    @Override
+    public BookTask runAsyncTimer(Runnable task, long delay, long period) {
+        return this.queue(task);
+    }
+
+    @Override
+    public boolean isOwnedByCurrentThread(Entity entity) {
+        return this.ownsEntities;
+    }
+
+    @Override
+    public boolean isGlobalThread() {
+        return this.globalThread;
+    }
+
+    private BookTask queue(Runnable task) {
+        TestTask scheduled = new TestTask(task);
+        this.pending.add(scheduled);
+        return scheduled;
+    }
+
+    static class TestTask implements BookTask, Runnable {
+        private final Runnable task;
+        private boolean cancelled;
+
+        TestTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            if (!this.cancelled)
+                this.task.run();
+        }
+
+        @Override
+        public void cancel() {
+            this.cancelled = true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.cancelled;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+package ro.nicuch.citizensbooks.utils;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClickLimiterTest {
+    private final UUID player = UUID.randomUUID();
+    private ClickLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        this.limiter = new ClickLimiter();
+        this.reload(60_000, 60_000);
+    }
+
+    private void reload(long playerCooldown, long npcCooldown) {
+        YamlConfiguration section = new YamlConfiguration();
+        section.set("player", playerCooldown);
+        section.set("npc", npcCooldown);
+        this.limiter.reload(section);
+    }
+
+    @Test
+    void cooldownsAreKeptBySource() {
+        this.reload(0, 60_000);
+        assertTrue(this.limiter.check(this.player, OpenSource.NPC));
+        this.limiter.record(this.player, OpenSource.NPC);
+        assertFalse(this.limiter.check(this.player, OpenSource.NPC));
+        assertTrue(this.limiter.check(this.player, OpenSource.COMMAND));
+        assertEquals(1, this.limiter.getRejectedTotal());
+    }
+
+    @Test
+    void playerCooldownCoversEverySource() {
+        this.limiter.record(this.player, OpenSource.NPC);
+        assertFalse(this.limiter.check(this.player, OpenSource.COMMAND));
+        assertFalse(this.limiter.check(this.player, OpenSource.ACTION_ITEM));
+    }
+
+    @Test
+    void forgetAndCleanup() {
+        this.limiter.record(this.player, OpenSource.NPC);
+        this.limiter.cleanup();
+        assertEquals(1, this.limiter.size()); // still cooling down
+        this.limiter.forget(this.player);
+        assertEquals(0, this.limiter.size());
+        assertTrue(this.limiter.check(this.player, OpenSource.NPC));
+        this.reload(0, 1);
+        this.limiter.record(this.player, OpenSource.NPC);
+        long end = System.currentTimeMillis() + 2;
+        while (System.currentTimeMillis() < end)
+            Thread.onSpinWait();
+        assertTrue(this.limiter.check(this.player, OpenSource.NPC));
+        this.limiter.cleanup();
+        assertEquals(0, this.limiter.size());
+    }
+}
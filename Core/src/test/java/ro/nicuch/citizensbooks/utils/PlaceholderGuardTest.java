@@ -0,0 +1,115 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+package ro.nicuch.citizensbooks.utils;
+
+import org.bukkit.entity.Player;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlaceholderGuardTest {
+    private static final Map<String, String> VALUES = Map.of(
+            "%player_name%", "Steve",
+            "%player_level%", "7",
+            "%server_online%", "12");
+    private static final UUID PLAYER_ID = UUID.randomUUID();
+    private static final Player PLAYER = (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[]{Player.class},
+            (proxy, method, args) -> method.getName().equals("getUniqueId") ? PLAYER_ID : null);
+
+    private PlaceholderGuard guard;
+
+    @BeforeEach
+    void setUp() {
+        this.guard = new PlaceholderGuard(new PlaceholderGuard.Expansions() {
+            @Override
+            public boolean isRegistered(String identifier) {
+                return Set.of("player", "server", "slow").contains(identifier);
+            }
+
+            @Override
+            public boolean isAsyncSafe(String identifier) {
+                return false;
+            }
+
+            @Override
+            public String setPlaceholders(Player player, String text) {
+                if (text.startsWith("%slow_"))
+                    try {
+                        Thread.sleep(10); // over the 5 ms budget
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                return VALUES.getOrDefault(text, text);
+            }
+        });
+        this.guard.reloadAsyncSafe(List.of("server"));
+    }
+
+    @Test
+    void literalPercentBeforePlaceholder() {
+        assertEquals("50% off, Steve", this.guard.apply(null, "50% off, %player_name%"));
+    }
+
+    @Test
+    void literalPercentsAroundPlaceholders() {
+        assertEquals("100% Steve 7 5%", this.guard.apply(null, "100% %player_name% %player_level% 5%"));
+        assertEquals("%% Steve", this.guard.apply(null, "%% %player_name%"));
+    }
+
+    @Test
+    void unknownExpansionIsKept() {
+        assertEquals("%other_value% Steve", this.guard.apply(null, "%other_value% %player_name%"));
+        assertEquals("%nounderscore%", this.guard.apply(null, "%nounderscore%"));
+    }
+
+    @Test
+    void asyncSafeOnlyLeavesTheRest() {
+        assertEquals("12 %player_name%", this.guard.apply(null, "%server_online% %player_name%", true));
+        assertTrue(this.guard.needsMainThread("5% off %player_name%"));
+        assertFalse(this.guard.needsMainThread("5% off %server_online%"));
+        assertFalse(this.guard.needsMainThread("50% off, 20% more"));
+    }
+
+    @Test
+    void timingsAreKeptByExpansion() {
+        for (int i = 0; i < 100; i++)
+            this.guard.apply(null, "%player_random" + i + "%");
+        this.guard.apply(null, "%server_online%");
+        assertEquals(2, this.guard.size());
+    }
+
+    @Test
+    void lastKnownValuesOnlyForSlowExpansions() {
+        this.guard.apply(PLAYER, "%player_name% %server_online%");
+        assertEquals(2, this.guard.size()); // the timings of both expansions, no values
+        this.guard.apply(PLAYER, "%slow_value%");
+        assertEquals(4, this.guard.size()); // and the values of the player
+        this.guard.forget(PLAYER_ID);
+        assertEquals(3, this.guard.size());
+    }
+}
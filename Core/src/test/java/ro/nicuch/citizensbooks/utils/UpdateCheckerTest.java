@@ -0,0 +1,148 @@
+/*
+
+   CitizensBooks
+   Copyright (c) 2018 @ Drăghiciu 'nicuch' Nicolae
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+*/
+package ro.nicuch.citizensbooks.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UpdateCheckerTest {
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Sun, 18 Oct 2026 10:00:00 GMT";
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long INTERVAL = 5 * MINUTE;
+
+    private HttpServer server;
+    private UpdateChecker.VersionCheck check;
+    private volatile int status = 200;
+    private volatile String body = "2.6.10";
+    private volatile int requests;
+    private volatile String ifNoneMatch, ifModifiedSince;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/version", this::handle);
+        this.server.start();
+        this.check = new UpdateChecker.VersionCheck("http://127.0.0.1:" + this.server.getAddress().getPort() + "/version",
+                2000, INTERVAL, "CitizensBooks/test");
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        this.requests++;
+        this.ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        this.ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        if (this.status == 200 && ETAG.equals(this.ifNoneMatch)) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        byte[] data = this.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+        exchange.sendResponseHeaders(this.status, data.length == 0 ? -1 : data.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data);
+        }
+    }
+
+    @Test
+    void updateFound() throws IOException {
+        String version = this.check.fetch(0L);
+        assertEquals("2.6.10", version);
+        assertTrue(UpdateChecker.compareVersions("2.6.9", version) < 0);
+        assertNull(this.ifNoneMatch);
+        assertEquals(INTERVAL, this.check.getNextCheck());
+    }
+
+    @Test
+    void notModifiedSendsTheValidators() throws IOException {
+        this.check.fetch(0L);
+        assertNull(this.check.fetch(INTERVAL));
+        assertEquals(2, this.requests);
+        assertEquals(ETAG, this.ifNoneMatch);
+        assertEquals(LAST_MODIFIED, this.ifModifiedSince);
+        assertEquals(2 * INTERVAL, this.check.getNextCheck());
+    }
+
+    @Test
+    void failuresBackOffUpToTheInterval() {
+        this.status = 500;
+        long[] delays = {MINUTE, 2 * MINUTE, 4 * MINUTE, INTERVAL, INTERVAL};
+        for (long delay : delays) {
+            assertThrows(IOException.class, () -> this.check.fetch(0L));
+            assertEquals(delay, this.check.getNextCheck());
+        }
+    }
+
+    @Test
+    void successResetsTheBackoff() throws IOException {
+        this.status = 500;
+        assertThrows(IOException.class, () -> this.check.fetch(0L));
+        assertThrows(IOException.class, () -> this.check.fetch(0L));
+        this.status = 200;
+        assertEquals("2.6.10", this.check.fetch(0L));
+        assertEquals(INTERVAL, this.check.getNextCheck());
+        this.status = 500;
+        assertThrows(IOException.class, () -> this.check.fetch(0L));
+        assertEquals(MINUTE, this.check.getNextCheck());
+    }
+
+    @Test
+    void emptyAnswerIsAFailure() {
+        this.body = "";
+        assertThrows(IOException.class, () -> this.check.fetch(0L));
+        assertEquals(MINUTE, this.check.getNextCheck());
+    }
+
+    @Test
+    void numbersAreComparedAsNumbers() {
+        assertTrue(UpdateChecker.compareVersions("2.6.10", "2.6.9") > 0);
+        assertTrue(UpdateChecker.compareVersions("2.6.9", "2.6.10") < 0);
+        assertTrue(UpdateChecker.compareVersions("2.10", "2.9.9") > 0);
+        assertEquals(0, UpdateChecker.compareVersions("2.6", "2.6.0"));
+    }
+
+    @Test
+    void snapshotIsOlderThanTheRelease() {
+        assertTrue(UpdateChecker.compareVersions("2.6.10-SNAPSHOT", "2.6.10") < 0);
+        assertTrue(UpdateChecker.compareVersions("2.6.10", "2.6.10-SNAPSHOT") > 0);
+        assertTrue(UpdateChecker.compareVersions("2.6.10-SNAPSHOT", "2.6.9") > 0);
+        assertEquals(0, UpdateChecker.compareVersions("2.6.10-SNAPSHOT", "2.6.10-snapshot"));
+    }
+}